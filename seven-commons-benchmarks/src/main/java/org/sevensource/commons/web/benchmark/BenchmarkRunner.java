@@ -0,0 +1,34 @@
+package org.sevensource.commons.web.benchmark;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Runs the benchmarks like {@link Main}, but with the GC profiler enabled unless
+ * other profilers are requested, so that <code>gc.alloc.rate.norm</code>
+ * (the bytes allocated per operation) is reported next to the throughput.
+ *
+ * @author pgaschuetz
+ *
+ */
+public final class BenchmarkRunner {
+
+	private static final String PROFILER_OPTION = "-prof";
+
+	private BenchmarkRunner() {
+	}
+
+	public static void main(String[] args) throws RunnerException, IOException {
+		if (Arrays.asList(args).contains(PROFILER_OPTION)) {
+			Main.main(args);
+		} else {
+			final String[] argsWithProfiler = Arrays.copyOf(args, args.length + 2);
+			argsWithProfiler[args.length] = PROFILER_OPTION;
+			argsWithProfiler[args.length + 1] = "gc";
+			Main.main(argsWithProfiler);
+		}
+	}
+}
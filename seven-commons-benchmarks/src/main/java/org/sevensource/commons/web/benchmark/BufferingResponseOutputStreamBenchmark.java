@@ -0,0 +1,131 @@
+package org.sevensource.commons.web.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sevensource.commons.web.servlet.BufferingHttpResponseWrapper;
+import org.sevensource.commons.web.util.FastByteArrayOutputStream;
+
+/**
+ * Compares writing a response of a given size in chunks through the
+ * {@link ServletOutputStream} of a {@link BufferingHttpResponseWrapper}
+ * against a stream, which only implements {@link ServletOutputStream#write(int)}
+ * (the behavior before bulk writes were supported).
+ *
+ * @author pgaschuetz
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BufferingResponseOutputStreamBenchmark {
+
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	@Param({ "10240", "102400", "1048576" })
+	private int responseSize;
+
+	@Param({ "8192" })
+	private int chunkSize;
+
+	private byte[] chunk;
+	private String chunkString;
+	private HttpServletResponse response;
+
+	@Setup
+	public void setup() {
+		final StringBuilder sb = new StringBuilder(chunkSize);
+		for (int i = 0; i < chunkSize; i++) {
+			sb.append((char) ('a' + (i % 26)));
+		}
+		chunkString = sb.toString();
+		chunk = chunkString.getBytes(StandardCharsets.UTF_8);
+		response = MockServlets.response("UTF-8");
+	}
+
+	@Benchmark
+	public int writeByteAtATime() throws IOException {
+		final FastByteArrayOutputStream buffer = new FastByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+		final ServletOutputStream os = new SingleByteServletOutputStream(buffer);
+		for (int written = 0; written < responseSize; written += chunkSize) {
+			os.write(chunk, 0, Math.min(chunkSize, responseSize - written));
+		}
+		return buffer.size();
+	}
+
+	@Benchmark
+	public int writeBulk() throws IOException {
+		final BufferingHttpResponseWrapper wrapper = new BufferingHttpResponseWrapper(response);
+		final ServletOutputStream os = wrapper.getOutputStream();
+		for (int written = 0; written < responseSize; written += chunkSize) {
+			os.write(chunk, 0, Math.min(chunkSize, responseSize - written));
+		}
+		return wrapper.getBufferSize();
+	}
+
+	@Benchmark
+	public int printByteAtATime() throws IOException {
+		final FastByteArrayOutputStream buffer = new FastByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+		final ServletOutputStream os = new SingleByteServletOutputStream(buffer);
+		for (int written = 0; written < responseSize; written += chunkSize) {
+			os.print(chunkString.substring(0, Math.min(chunkSize, responseSize - written)));
+		}
+		return buffer.size();
+	}
+
+	@Benchmark
+	public int printBulk() throws IOException {
+		final BufferingHttpResponseWrapper wrapper = new BufferingHttpResponseWrapper(response);
+		final ServletOutputStream os = wrapper.getOutputStream();
+		for (int written = 0; written < responseSize; written += chunkSize) {
+			os.print(chunkString.substring(0, Math.min(chunkSize, responseSize - written)));
+		}
+		return wrapper.getBufferSize();
+	}
+
+
+	/**
+	 * The {@link ServletOutputStream} as formerly used by {@link BufferingHttpResponseWrapper}
+	 */
+	private static final class SingleByteServletOutputStream extends ServletOutputStream {
+
+		private final FastByteArrayOutputStream buffer;
+
+		SingleByteServletOutputStream(FastByteArrayOutputStream buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			buffer.write(b);
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener listener) {
+		}
+	}
+}
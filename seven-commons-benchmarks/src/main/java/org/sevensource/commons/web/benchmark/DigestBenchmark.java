@@ -0,0 +1,103 @@
+package org.sevensource.commons.web.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sevensource.commons.web.util.DirectBufferPool;
+import org.sevensource.commons.web.util.DirectByteBufferOutputStream;
+import org.sevensource.commons.web.util.FastByteArrayOutputStream;
+import org.sevensource.commons.web.util.SegmentPool;
+import org.sevensource.commons.web.util.SegmentedOutputStream;
+
+/**
+ * Compares digesting a buffered response of 1 MB with MD5 and SHA-256 against
+ * the CRC32 and Adler32 checksums, for heap and direct buffers. <code>md5ByteAtATime</code>
+ * feeds the digest one byte at a time, as digesting did before it was fed whole segments.
+ *
+ * @author pgaschuetz
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DigestBenchmark {
+
+	private static final int CONTENT_SIZE = 1024 * 1024;
+
+	@Param({ "heap", "direct" })
+	private String buffer;
+
+	private SegmentedOutputStream content;
+
+	@Setup
+	public void setup() throws IOException {
+		final byte[] bytes = new byte[CONTENT_SIZE];
+		new Random(42).nextBytes(bytes);
+
+		if ("direct".equals(buffer)) {
+			content = new DirectByteBufferOutputStream(new DirectBufferPool(DirectBufferPool.DEFAULT_SEGMENT_SIZE, 128, 0));
+		} else {
+			content = new FastByteArrayOutputStream(new SegmentPool(SegmentPool.DEFAULT_SEGMENT_SIZE, 128, 0));
+		}
+		content.write(bytes);
+	}
+
+	@Benchmark
+	public byte[] md5ByteAtATime() throws IOException, NoSuchAlgorithmException {
+		final MessageDigest digest = MessageDigest.getInstance("MD5");
+		final InputStream is = content.getInputStream();
+		int data;
+		while ((data = is.read()) != -1) {
+			digest.update((byte) data);
+		}
+		return digest.digest();
+	}
+
+	@Benchmark
+	public byte[] md5() throws IOException, NoSuchAlgorithmException {
+		final MessageDigest digest = MessageDigest.getInstance("MD5");
+		content.updateMessageDigest(digest);
+		return digest.digest();
+	}
+
+	@Benchmark
+	public byte[] sha256() throws IOException, NoSuchAlgorithmException {
+		final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		content.updateMessageDigest(digest);
+		return digest.digest();
+	}
+
+	@Benchmark
+	public long crc32() throws IOException {
+		final CRC32 checksum = new CRC32();
+		content.updateChecksum(checksum);
+		return checksum.getValue();
+	}
+
+	@Benchmark
+	public long adler32() throws IOException {
+		final Adler32 checksum = new Adler32();
+		content.updateChecksum(checksum);
+		return checksum.getValue();
+	}
+}
@@ -0,0 +1,131 @@
+package org.sevensource.commons.web.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sevensource.commons.web.util.FastByteArrayOutputStream;
+import org.sevensource.commons.web.util.SegmentPool;
+
+/**
+ * Measures writing content of a given size in chunks to a {@link FastByteArrayOutputStream}
+ * and reading it back, either through its input stream or by writing it to another stream,
+ * with heap allocated and pooled segments.
+ *
+ * @author pgaschuetz
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FastByteArrayOutputStreamBenchmark {
+
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+	private static final int POOL_SEGMENTS = 1024;
+
+	@Param({ "10240", "102400", "1048576" })
+	private int size;
+
+	@Param({ "128", "8192" })
+	private int chunkSize;
+
+	@Param({ "false", "true" })
+	private boolean pooled;
+
+	private byte[] chunk;
+	private byte[] readBuffer;
+	private SegmentPool pool;
+
+	@Setup
+	public void setup() {
+		chunk = new byte[chunkSize];
+		for (int i = 0; i < chunkSize; i++) {
+			chunk[i] = (byte) ('a' + (i % 26));
+		}
+		readBuffer = new byte[chunkSize];
+		pool = new SegmentPool(POOL_SEGMENTS);
+	}
+
+	@Benchmark
+	public int write() throws IOException {
+		final FastByteArrayOutputStream os = write(newStream());
+		final int written = os.size();
+		os.release();
+		return written;
+	}
+
+	@Benchmark
+	public int writeAndRead() throws IOException {
+		final FastByteArrayOutputStream os = write(newStream());
+		int read = 0;
+		try (InputStream is = os.getInputStream()) {
+			int n;
+			while (-1 != (n = is.read(readBuffer))) {
+				read += n;
+			}
+		}
+		os.release();
+		return read;
+	}
+
+	@Benchmark
+	public long writeAndWriteTo() throws IOException {
+		final FastByteArrayOutputStream os = write(newStream());
+		final CountingOutputStream target = new CountingOutputStream();
+		os.writeTo(target);
+		os.release();
+		return target.count;
+	}
+
+	@Benchmark
+	public int writeAndToByteArray() throws IOException {
+		final FastByteArrayOutputStream os = write(newStream());
+		final int length = os.toByteArray().length;
+		os.release();
+		return length;
+	}
+
+	private FastByteArrayOutputStream newStream() {
+		return pooled ? new FastByteArrayOutputStream(pool) : new FastByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+	}
+
+	private FastByteArrayOutputStream write(FastByteArrayOutputStream os) throws IOException {
+		for (int written = 0; written < size; written += chunkSize) {
+			os.write(chunk, 0, Math.min(chunkSize, size - written));
+		}
+		return os;
+	}
+
+
+	/**
+	 * An {@link OutputStream} only counting the bytes written to it
+	 */
+	private static final class CountingOutputStream extends OutputStream {
+		private long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package org.sevensource.commons.web.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic HTML documents to measure how processing scales with
+ * the size and the composition of a document. Documents generated with the same
+ * seed and parameters are identical.
+ * <p>
+ * The scripts and styles are spread evenly across head and body, so that
+ * relocating them has work to do, and separated by nested content blocks
+ * up to the requested size.
+ *
+ * @author pgaschuetz
+ *
+ */
+final class HtmlCorpusGenerator {
+
+	private static final String[] WORDS = { "lorem", "ipsum", "dolor", "sit", "amet", "consectetur",
+			"adipiscing", "elit", "sed", "do", "eiusmod", "tempor", "incididunt", "ut", "labore", "et",
+			"dolore", "magna", "aliqua", "&amp;", "&lt;tag&gt;", "f\u00fcr", "caf\u00e9" };
+
+	private static final String[] BLOCK_TAGS = { "div", "section", "article", "ul", "p", "table" };
+
+	private final Random random;
+
+	private int size = 100 * 1024;
+	private int inlineScripts = 10;
+	private int externalScripts = 10;
+	private int inlineStyles = 10;
+	private int externalStyles = 10;
+	private double duplicateRatio = 0;
+	private double commentDensity = 0.1;
+	private int nestingDepth = 8;
+
+	/**
+	 * @param seed the seed of the random generator
+	 */
+	HtmlCorpusGenerator(long seed) {
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * @param size the minimum size of the document in characters. Documents with many
+	 * scripts and styles may be larger, as all of them are added
+	 */
+	HtmlCorpusGenerator size(int size) {
+		this.size = size;
+		return this;
+	}
+
+	HtmlCorpusGenerator scripts(int inlineScripts, int externalScripts) {
+		this.inlineScripts = inlineScripts;
+		this.externalScripts = externalScripts;
+		return this;
+	}
+
+	HtmlCorpusGenerator styles(int inlineStyles, int externalStyles) {
+		this.inlineStyles = inlineStyles;
+		this.externalStyles = externalStyles;
+		return this;
+	}
+
+	/**
+	 * @param duplicateRatio the probability of a script or style being a copy of a previous one
+	 */
+	HtmlCorpusGenerator duplicateRatio(double duplicateRatio) {
+		this.duplicateRatio = duplicateRatio;
+		return this;
+	}
+
+	/**
+	 * @param commentDensity the probability of a content block being preceded by a comment
+	 */
+	HtmlCorpusGenerator commentDensity(double commentDensity) {
+		this.commentDensity = commentDensity;
+		return this;
+	}
+
+	/**
+	 * @param nestingDepth the maximum depth of nested content blocks
+	 */
+	HtmlCorpusGenerator nestingDepth(int nestingDepth) {
+		this.nestingDepth = Math.max(1, nestingDepth);
+		return this;
+	}
+
+	String generate() {
+		final List<String> elements = new ArrayList<>();
+		addElements(elements, inlineScripts, this::inlineScript);
+		addElements(elements, externalScripts, this::externalScript);
+		addElements(elements, inlineStyles, this::inlineStyle);
+		addElements(elements, externalStyles, this::externalStyle);
+		Collections.shuffle(elements, random);
+
+		final StringBuilder sb = new StringBuilder(size + size / 8);
+		sb.append("<!DOCTYPE html>\n<html lang=\"en\">\n<head>\n<meta charset=\"utf-8\">\n<title>");
+		words(sb, 5);
+		sb.append("</title>\n");
+
+		// a quarter of the elements in the head, the rest between the content blocks
+		final int headElements = elements.size() / 4;
+		for (int i = 0; i < headElements; i++) {
+			sb.append(elements.get(i)).append('\n');
+		}
+		sb.append("</head>\n<body>\n");
+
+		final int bodyElements = elements.size() - headElements;
+		int next = 0;
+		while (sb.length() < size || next < bodyElements) {
+			if (next < bodyElements && (long) sb.length() * bodyElements >= (long) next * size) {
+				sb.append(elements.get(headElements + next++)).append('\n');
+			}
+			block(sb, 1 + random.nextInt(nestingDepth), 0);
+		}
+
+		sb.append("</body>\n</html>\n");
+		return sb.toString();
+	}
+
+	private void addElements(List<String> elements, int count, ElementFactory factory) {
+		final List<String> created = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			if (!created.isEmpty() && random.nextDouble() < duplicateRatio) {
+				created.add(created.get(random.nextInt(created.size())));
+			} else {
+				created.add(factory.create(i));
+			}
+		}
+		elements.addAll(created);
+	}
+
+	private void block(StringBuilder sb, int depth, int level) {
+		indent(sb, level);
+		if (random.nextDouble() < commentDensity) {
+			sb.append("<!-- ");
+			words(sb, 3 + random.nextInt(12));
+			sb.append(" -->\n");
+			indent(sb, level);
+		}
+
+		final String tag = BLOCK_TAGS[random.nextInt(BLOCK_TAGS.length)];
+		sb.append('<').append(tag).append(" class=\"c").append(random.nextInt(100)).append('"');
+		if (random.nextInt(4) == 0) {
+			sb.append(" style=\"margin : 0 auto ; color : #").append(Integer.toHexString(0x100000 + random.nextInt(0xefffff))).append(" ;\"");
+		}
+		sb.append(">\n");
+
+		// a single nested block per level, so that the size grows linearly with the depth
+		if (depth > 1) {
+			if (random.nextBoolean()) {
+				content(sb, level + 1);
+			}
+			block(sb, depth - 1, level + 1);
+		} else {
+			content(sb, level + 1);
+		}
+
+		indent(sb, level);
+		sb.append("</").append(tag).append(">\n");
+	}
+
+	private void content(StringBuilder sb, int level) {
+		indent(sb, level);
+		sb.append("<span>");
+		words(sb, 5 + random.nextInt(30));
+		sb.append("</span>  <a href=\"/page/").append(random.nextInt(1000)).append("\">");
+		words(sb, 2);
+		sb.append("</a>\n");
+	}
+
+	private String inlineScript(int index) {
+		final StringBuilder sb = new StringBuilder("<script>\n");
+		final int statements = 3 + random.nextInt(20);
+		for (int i = 0; i < statements; i++) {
+			sb.append("  var value").append(index).append('_').append(i).append(" = compute( ")
+				.append(random.nextInt(1000)).append(" , 'text' ) ; // ");
+			words(sb, 3);
+			sb.append('\n');
+		}
+		sb.append("  /* ");
+		words(sb, 6);
+		sb.append(" */\n</script>");
+		return sb.toString();
+	}
+
+	private String externalScript(int index) {
+		final String attribute = random.nextInt(3) == 0 ? " defer" : random.nextInt(3) == 0 ? " async" : "";
+		return "<script src=\"/js/script" + index + ".js\"" + attribute + "></script>";
+	}
+
+	private String inlineStyle(int index) {
+		final StringBuilder sb = new StringBuilder("<style>\n");
+		final int rules = 3 + random.nextInt(20);
+		for (int i = 0; i < rules; i++) {
+			sb.append("  .s").append(index).append('-').append(i).append(" , .t").append(i)
+				.append(" {\n    padding : ").append(random.nextInt(20)).append("px ;\n    color : #")
+				.append(Integer.toHexString(0x100000 + random.nextInt(0xefffff))).append(" ;\n  }\n");
+		}
+		sb.append("</style>");
+		return sb.toString();
+	}
+
+	private String externalStyle(int index) {
+		return "<link rel=\"stylesheet\" href=\"/css/style" + index + ".css\" media=\"all\">";
+	}
+
+	private void words(StringBuilder sb, int count) {
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				sb.append(random.nextInt(8) == 0 ? "  " : " ");
+			}
+			sb.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+	}
+
+	private static void indent(StringBuilder sb, int level) {
+		for (int i = 0; i < level; i++) {
+			sb.append("  ");
+		}
+	}
+
+
+	@FunctionalInterface
+	private interface ElementFactory {
+		String create(int index);
+	}
+}
@@ -0,0 +1,90 @@
+package org.sevensource.commons.web.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sevensource.commons.web.benchmark.MockServlets.NullServletOutputStream;
+import org.sevensource.commons.web.filter.tidy.HtmlTidyFilter;
+
+/**
+ * Measures a request through {@link HtmlTidyFilter} with all options enabled,
+ * the servlet writing <code>tidy_test_complex_performance.html</code>,
+ * including buffering, processing and writing the response.
+ *
+ * @author pgaschuetz
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HtmlTidyFilterBenchmark {
+
+	private static final String HTML_RESOURCE = "/tidy_test_complex_performance.html";
+	private static final String ALL_OPTIONS = "REMOVE_COMMENTS,RELOCATE_STYLES_TO_HEAD,RELOCATE_STYLESHEETS,"
+			+ "REMOVE_DUPLICATE_STYLES,RELOCATE_SCRIPTS,REMOVE_DUPLICATE_SCRIPTS,"
+			+ "MINIFY_SCRIPTS,MINIFY_STYLES,MINIFY_STYLE_ATTRIBUTES";
+
+	@Param({ "NONE", "COMPACT" })
+	private String formatter;
+
+	@Param({ "0", "1024" })
+	private String bufferPoolSegments;
+
+	private HtmlTidyFilter filter;
+	private FilterChain chain;
+	private NullServletOutputStream os;
+	private HttpServletResponse response;
+
+	@Setup
+	public void setup() throws IOException, ServletException {
+		final byte[] html = JSMinBenchmark.readResource(HTML_RESOURCE).getBytes(StandardCharsets.UTF_8);
+
+		final Map<String, String> parameters = new HashMap<>();
+		parameters.put(HtmlTidyFilter.OPTIONS_PARAMETER, ALL_OPTIONS);
+		parameters.put(HtmlTidyFilter.FORMATTER_PARAMETER, formatter);
+		parameters.put(HtmlTidyFilter.BUFFER_POOL_SEGMENTS_PARAMETER, bufferPoolSegments);
+
+		filter = new HtmlTidyFilter();
+		filter.init(MockServlets.filterConfig("htmlTidyFilter", parameters));
+
+		chain = (request, response) -> response.getOutputStream().write(html);
+		os = new NullServletOutputStream();
+		response = MockServlets.response("text/html;charset=UTF-8", os);
+	}
+
+	@TearDown
+	public void tearDown() {
+		filter.destroy();
+	}
+
+	@Benchmark
+	public long doFilter() throws IOException, ServletException {
+		final HttpServletRequest request = MockServlets.request("/index.html", Collections.emptyMap());
+		filter.doFilter(request, response, chain);
+		return os.getWritten();
+	}
+}
@@ -0,0 +1,86 @@
+package org.sevensource.commons.web.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sevensource.commons.web.filter.tidy.HtmlTidyProcessor;
+import org.sevensource.commons.web.filter.tidy.HtmlTidyProcessor.TidyProcessorFormatter;
+import org.sevensource.commons.web.filter.tidy.HtmlTidyProcessor.TidyProcessorOption;
+
+/**
+ * Measures {@link HtmlTidyProcessor} with each {@link TidyProcessorOption} alone,
+ * without and with all options combined, for every {@link TidyProcessorFormatter}.
+ *
+ * @author pgaschuetz
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HtmlTidyProcessorBenchmark {
+
+	private static final String NO_OPTIONS = "NONE";
+	private static final String ALL_OPTIONS = "ALL";
+
+	@Param({ NO_OPTIONS,
+		"REMOVE_COMMENTS", "RELOCATE_STYLES_TO_HEAD", "RELOCATE_STYLESHEETS", "REMOVE_DUPLICATE_STYLES",
+		"RELOCATE_SCRIPTS", "REMOVE_DUPLICATE_SCRIPTS", "MINIFY_SCRIPTS", "MINIFY_STYLES", "MINIFY_STYLE_ATTRIBUTES",
+		ALL_OPTIONS })
+	private String options;
+
+	@Param({ "NONE", "FORMAT", "COMPACT" })
+	private TidyProcessorFormatter formatter;
+
+	@Param({ "simple", "complex" })
+	private String document;
+
+	private byte[] html;
+	private HtmlTidyProcessor processor;
+
+	@Setup
+	public void setup() throws IOException {
+		html = JSMinBenchmark.readResource("/tidy_test_" + document + "_performance.html").getBytes(StandardCharsets.UTF_8);
+		processor = new HtmlTidyProcessor(options(options), formatter);
+	}
+
+	@Benchmark
+	public int process() throws IOException {
+		try (InputStream is = processor.process(new ByteArrayInputStream(html))) {
+			int length = 0;
+			final byte[] buffer = new byte[4096];
+			int n;
+			while (-1 != (n = is.read(buffer))) {
+				length += n;
+			}
+			return length;
+		}
+	}
+
+	private static Set<TidyProcessorOption> options(String options) {
+		if (NO_OPTIONS.equals(options)) {
+			return EnumSet.noneOf(TidyProcessorOption.class);
+		} else if (ALL_OPTIONS.equals(options)) {
+			return EnumSet.allOf(TidyProcessorOption.class);
+		}
+		return EnumSet.of(TidyProcessorOption.valueOf(options));
+	}
+}
@@ -0,0 +1,113 @@
+package org.sevensource.commons.web.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sevensource.commons.web.filter.tidy.HtmlTidyProcessor;
+import org.sevensource.commons.web.filter.tidy.HtmlTidyProcessor.TidyProcessorFormatter;
+import org.sevensource.commons.web.filter.tidy.HtmlTidyProcessor.TidyProcessorOption;
+
+/**
+ * Measures how {@link HtmlTidyProcessor} with all options scales with the size and the
+ * composition of documents created by {@link HtmlCorpusGenerator}.
+ * <code>COMPACT</code> covers relocating and compacting, <code>FORMAT</code> the source formatter.
+ * <p>
+ * By default, a single baseline document is measured. Sweep one dimension at a time by
+ * overriding its parameter on the command line, while the others keep their baseline, i.e.
+ * <ul>
+ * <li><code>-p size=10240,102400,1048576,20971520</code></li>
+ * <li><code>-p scripts=10,1000 -p styles=10,1000</code></li>
+ * <li><code>-p duplicateRatio=0,0.5</code></li>
+ * <li><code>-p commentDensity=0.1,0.9</code></li>
+ * <li><code>-p nestingDepth=8,64</code></li>
+ * <li><code>-p formatter=COMPACT,FORMAT</code></li>
+ * </ul>
+ * Add <code>-prof gc</code> for the allocation per operation. Superlinear behavior shows as a
+ * time per operation growing faster than <code>size</code>. Overriding all parameters at once
+ * runs their Cartesian product, which takes hours.
+ *
+ * @author pgaschuetz
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HtmlTidyScalingBenchmark {
+
+	private static final long SEED = 42;
+
+	@Param("102400")
+	private int size;
+
+	/**
+	 * the number of inline and of external scripts each
+	 */
+	@Param("10")
+	private int scripts;
+
+	/**
+	 * the number of inline and of external styles each
+	 */
+	@Param("10")
+	private int styles;
+
+	@Param("0")
+	private double duplicateRatio;
+
+	@Param("0.1")
+	private double commentDensity;
+
+	@Param("8")
+	private int nestingDepth;
+
+	@Param("COMPACT")
+	private TidyProcessorFormatter formatter;
+
+	private byte[] html;
+	private HtmlTidyProcessor processor;
+
+	@Setup
+	public void setup() {
+		html = new HtmlCorpusGenerator(SEED)
+				.size(size)
+				.scripts(scripts, scripts)
+				.styles(styles, styles)
+				.duplicateRatio(duplicateRatio)
+				.commentDensity(commentDensity)
+				.nestingDepth(nestingDepth)
+				.generate()
+				.getBytes(StandardCharsets.UTF_8);
+		processor = new HtmlTidyProcessor(EnumSet.allOf(TidyProcessorOption.class), formatter);
+	}
+
+	@Benchmark
+	public int process() throws IOException {
+		try (InputStream is = processor.process(new ByteArrayInputStream(html))) {
+			int length = 0;
+			final byte[] buffer = new byte[8192];
+			int n;
+			while (-1 != (n = is.read(buffer))) {
+				length += n;
+			}
+			return length;
+		}
+	}
+}
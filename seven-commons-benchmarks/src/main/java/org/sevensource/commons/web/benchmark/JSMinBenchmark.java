@@ -0,0 +1,96 @@
+package org.sevensource.commons.web.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sevensource.commons.web.filter.minify.CharSequenceJSMin;
+import org.sevensource.commons.web.filter.minify.JSMin;
+
+/**
+ * Compares minifying the inline scripts of <code>tidy_test_script_minify.html</code>
+ * with the deprecated stream based {@link JSMin} (as used by the script minifier before)
+ * against {@link CharSequenceJSMin}.
+ *
+ * @author pgaschuetz
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JSMinBenchmark {
+
+	private static final String SCRIPT_RESOURCE = "/tidy_test_script_minify.html";
+
+	private static final Pattern SCRIPT_PATTERN = Pattern.compile("<script>(.*?)</script>", Pattern.DOTALL);
+
+	private String[] scripts;
+
+	@Setup
+	public void setup() throws IOException {
+		final String html = readResource(SCRIPT_RESOURCE);
+		final List<String> found = new ArrayList<>();
+		final Matcher matcher = SCRIPT_PATTERN.matcher(html);
+		while (matcher.find()) {
+			found.add(matcher.group(1));
+		}
+		scripts = found.toArray(new String[found.size()]);
+	}
+
+	@Benchmark
+	@SuppressWarnings("deprecation")
+	public int streamJSMin() throws Exception {
+		int length = 0;
+		for (String script : scripts) {
+			final InputStream is = new ByteArrayInputStream(script.getBytes(StandardCharsets.UTF_8));
+			final ByteArrayOutputStream os = new ByteArrayOutputStream();
+			new JSMin(is, os).jsmin();
+			length += new String(os.toByteArray(), StandardCharsets.UTF_8).length();
+		}
+		return length;
+	}
+
+	@Benchmark
+	public int charSequenceJSMin() throws Exception {
+		int length = 0;
+		for (String script : scripts) {
+			length += CharSequenceJSMin.minify(script).length();
+		}
+		return length;
+	}
+
+	static String readResource(String name) throws IOException {
+		try (InputStream is = JSMinBenchmark.class.getResourceAsStream(name)) {
+			if (is == null) {
+				throw new IOException("Resource not found: " + name);
+			}
+			final ByteArrayOutputStream os = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			int n;
+			while (-1 != (n = is.read(buffer))) {
+				os.write(buffer, 0, n);
+			}
+			return new String(os.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package org.sevensource.commons.web.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Minimal servlet API stand-ins for benchmarks, where a mocking framework
+ * would distort the measurements.
+ *
+ * @author pgaschuetz
+ *
+ */
+final class MockServlets {
+
+	private MockServlets() {
+	}
+
+	/**
+	 * @param characterEncoding the encoding returned by {@link HttpServletResponse#getCharacterEncoding()}
+	 * @return a {@link HttpServletResponse}, which ignores all calls and returns default values
+	 */
+	static HttpServletResponse response(String characterEncoding) {
+		return (HttpServletResponse) Proxy.newProxyInstance(MockServlets.class.getClassLoader(),
+				new Class<?>[] { HttpServletResponse.class },
+				(proxy, method, args) -> {
+					if ("getCharacterEncoding".equals(method.getName())) {
+						return characterEncoding;
+					}
+					return defaultValue(method.getReturnType());
+				});
+	}
+
+	/**
+	 * @param contentType the content type returned by {@link HttpServletResponse#getContentType()}
+	 * @param os the stream returned by {@link HttpServletResponse#getOutputStream()}
+	 * @return a successful {@link HttpServletResponse}, which ignores all other calls and returns default values
+	 */
+	static HttpServletResponse response(String contentType, ServletOutputStream os) {
+		return (HttpServletResponse) Proxy.newProxyInstance(MockServlets.class.getClassLoader(),
+				new Class<?>[] { HttpServletResponse.class },
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+					case "getCharacterEncoding":
+						return "UTF-8";
+					case "getContentType":
+						return contentType;
+					case "getStatus":
+						return Integer.valueOf(HttpServletResponse.SC_OK);
+					case "getOutputStream":
+						return os;
+					default:
+						return defaultValue(method.getReturnType());
+					}
+				});
+	}
+
+	/**
+	 * @param uri the URI returned by {@link HttpServletRequest#getRequestURI()}
+	 * @param headers the request headers
+	 * @return a GET {@link HttpServletRequest} without async support, which keeps its attributes
+	 * and returns default values otherwise
+	 */
+	static HttpServletRequest request(String uri, Map<String, String> headers) {
+		final Map<String, Object> attributes = new HashMap<>();
+		return (HttpServletRequest) Proxy.newProxyInstance(MockServlets.class.getClassLoader(),
+				new Class<?>[] { HttpServletRequest.class },
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+					case "getRequestURI":
+						return uri;
+					case "getMethod":
+						return "GET";
+					case "getDispatcherType":
+						return DispatcherType.REQUEST;
+					case "getHeader":
+						return headers.get(args[0]);
+					case "getHeaders":
+						return headers.containsKey(args[0]) ?
+								Collections.enumeration(Collections.singleton(headers.get(args[0]))) :
+								Collections.emptyEnumeration();
+					case "getAttribute":
+						return attributes.get(args[0]);
+					case "setAttribute":
+						attributes.put((String) args[0], args[1]);
+						return null;
+					case "removeAttribute":
+						attributes.remove(args[0]);
+						return null;
+					default:
+						return defaultValue(method.getReturnType());
+					}
+				});
+	}
+
+	/**
+	 * @param filterName the name of the filter
+	 * @param initParameters the init parameters of the filter
+	 * @return a {@link FilterConfig} without servlet context
+	 */
+	static FilterConfig filterConfig(String filterName, Map<String, String> initParameters) {
+		return (FilterConfig) Proxy.newProxyInstance(MockServlets.class.getClassLoader(),
+				new Class<?>[] { FilterConfig.class },
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+					case "getFilterName":
+						return filterName;
+					case "getInitParameter":
+						return initParameters.get(args[0]);
+					case "getInitParameterNames":
+						return Collections.enumeration(initParameters.keySet());
+					default:
+						return defaultValue(method.getReturnType());
+					}
+				});
+	}
+
+	private static Object defaultValue(Class<?> type) {
+		if (type == boolean.class) {
+			return Boolean.FALSE;
+		} else if (type == int.class) {
+			return Integer.valueOf(0);
+		} else if (type == long.class) {
+			return Long.valueOf(0);
+		}
+		return null;
+	}
+
+	/**
+	 * A {@link ServletOutputStream} discarding everything written to it
+	 */
+	static final class NullServletOutputStream extends ServletOutputStream {
+		private long written;
+
+		@Override
+		public void write(int b) {
+			written++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			written += len;
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener listener) {
+		}
+
+		long getWritten() {
+			return written;
+		}
+	}
+}
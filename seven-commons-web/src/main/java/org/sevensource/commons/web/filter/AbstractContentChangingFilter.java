@@ -1,11 +1,15 @@
 package org.sevensource.commons.web.filter;
 
-import java.util.regex.Pattern;
+import java.util.Arrays;
 
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.sevensource.commons.web.filter.FilterMetrics.Decision;
 import org.sevensource.commons.web.servlet.BufferingHttpResponseWrapper;
+import org.sevensource.commons.web.util.ExtensionMatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,42 +18,202 @@ public abstract class AbstractContentChangingFilter extends AbstractOutputBuffer
 
 	private static final Logger logger = LoggerFactory.getLogger(AbstractContentChangingFilter.class);
 
-	private static final Pattern HTML_ONLY_PATTERN = Pattern.compile(
-			"\\.(bmp|css|csv|doc|docx|eot|flv|gif|gz|ico|jpeg|jpg|js|mp[34]|pdf|png|rtf|svg|swf|tif{1,2}|ttf|txt|webp|woff|woff2|xls|xlsx|xml|zip)$",
-			Pattern.CASE_INSENSITIVE);
+	/**
+	 * if true, URI patterns whose responses are not reduced in size by changing them, are bypassed for some time
+	 *
+	 * @see AdaptiveSkipTracker
+	 */
+	public static final String ADAPTIVE_SKIP_PARAMETER = "adaptiveSkip";
+	/**
+	 * the minimum savings in percent of the original size, below which a URI pattern is bypassed
+	 */
+	public static final String ADAPTIVE_SKIP_MIN_SAVINGS_PARAMETER = "adaptiveSkipMinSavings";
+	/**
+	 * the minimum number of bytes saved per millisecond spent changing the responses of a URI pattern,
+	 * below which it is bypassed. 0 to ignore the time spent
+	 */
+	public static final String ADAPTIVE_SKIP_MIN_BYTES_PER_MILLI_PARAMETER = "adaptiveSkipMinBytesPerMilli";
+	/**
+	 * the number of responses of a URI pattern to decide on
+	 */
+	public static final String ADAPTIVE_SKIP_SAMPLES_PARAMETER = "adaptiveSkipSamples";
+	/**
+	 * the time in milliseconds a URI pattern is bypassed, before it is sampled again
+	 */
+	public static final String ADAPTIVE_SKIP_INTERVAL_PARAMETER = "adaptiveSkipInterval";
+	/**
+	 * a comma separated list of the file extensions of request URIs, which are not filtered
+	 * if only HTML is filtered. Replaces the default list of static resource extensions
+	 */
+	public static final String SKIP_EXTENSIONS_PARAMETER = "skipExtensions";
+	/**
+	 * a comma separated list of path prefixes relative to the context path. If set,
+	 * only requests for paths starting with one of them are filtered
+	 */
+	public static final String INCLUDE_PATHS_PARAMETER = "includePaths";
+	/**
+	 * a comma separated list of path prefixes relative to the context path,
+	 * whose requests are never filtered, i.e. <code>/assets/</code>
+	 */
+	public static final String EXCLUDE_PATHS_PARAMETER = "excludePaths";
+
+	private static final int DEFAULT_ADAPTIVE_SKIP_MIN_SAVINGS = 2;
+	private static final int DEFAULT_ADAPTIVE_SKIP_MIN_BYTES_PER_MILLI = 100;
+	private static final int DEFAULT_ADAPTIVE_SKIP_SAMPLES = 20;
+	private static final int DEFAULT_ADAPTIVE_SKIP_INTERVAL = 10 * 60 * 1000;
+	private static final int ADAPTIVE_SKIP_MAX_PATTERNS = 1024;
+
+	private static final String DEFAULT_SKIP_EXTENSIONS =
+			"bmp,css,csv,doc,docx,eot,flv,gif,gz,ico,jpeg,jpg,js,mp3,mp4,pdf,png,rtf,svg,swf,tif,tiff,ttf,txt,webp,woff,woff2,xls,xlsx,xml,zip";
 
 	private boolean filterHtmlOnly = true;
 	private boolean handleSuccessfulResponseOnly = true;
 	private int maxProcessingContentLength = 1024*1024;
 
+	private ExtensionMatcher skipExtensions = ExtensionMatcher.parse(DEFAULT_SKIP_EXTENSIONS);
+	private String[] includePaths = null;
+	private String[] excludePaths = null;
+
+	private AdaptiveSkipTracker adaptiveSkipTracker;
 
 
 	@Override
-	protected boolean skipExecution(HttpServletRequest request, HttpServletResponse response) {
+	public void init(FilterConfig filterConfig) throws ServletException {
+		super.init(filterConfig);
+
+		final String extensions = filterConfig != null ? filterConfig.getInitParameter(SKIP_EXTENSIONS_PARAMETER) : null;
+		if(extensions != null) {
+			try {
+				this.skipExtensions = ExtensionMatcher.parse(extensions);
+			} catch(IllegalArgumentException e) {
+				logger.error("Invalid value {} for parameter {}", extensions, SKIP_EXTENSIONS_PARAMETER);
+				throw e;
+			}
+		}
+		this.includePaths = getPathsInitParameter(filterConfig, INCLUDE_PATHS_PARAMETER);
+		this.excludePaths = getPathsInitParameter(filterConfig, EXCLUDE_PATHS_PARAMETER);
+
+		final String adaptiveSkip = filterConfig != null ? filterConfig.getInitParameter(ADAPTIVE_SKIP_PARAMETER) : null;
+		if(adaptiveSkip != null && Boolean.parseBoolean(adaptiveSkip.trim())) {
+			final int minSavings = getIntInitParameter(filterConfig, ADAPTIVE_SKIP_MIN_SAVINGS_PARAMETER, DEFAULT_ADAPTIVE_SKIP_MIN_SAVINGS);
+			final int minBytesPerMilli = getIntInitParameter(filterConfig, ADAPTIVE_SKIP_MIN_BYTES_PER_MILLI_PARAMETER, DEFAULT_ADAPTIVE_SKIP_MIN_BYTES_PER_MILLI);
+			final int samples = getIntInitParameter(filterConfig, ADAPTIVE_SKIP_SAMPLES_PARAMETER, DEFAULT_ADAPTIVE_SKIP_SAMPLES);
+			final int interval = getIntInitParameter(filterConfig, ADAPTIVE_SKIP_INTERVAL_PARAMETER, DEFAULT_ADAPTIVE_SKIP_INTERVAL);
+			this.adaptiveSkipTracker = new AdaptiveSkipTracker(minSavings / 100d, minBytesPerMilli, samples, interval, ADAPTIVE_SKIP_MAX_PATTERNS);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if(adaptiveSkipTracker != null && logger.isInfoEnabled()) {
+			logger.info("Adaptive skip statistics for filter {}: {}", getFilterName(), adaptiveSkipTracker);
+		}
+		super.destroy();
+	}
+
+	@Override
+	protected void initResponseWrapper(HttpServletRequest request, BufferingHttpResponseWrapper responseWrapper) {
+		// stop buffering as soon as the response is known not to be handled
+		if(maxProcessingContentLength > 0) {
+			responseWrapper.setPassThroughThreshold(maxProcessingContentLength);
+		}
 		if(filterHtmlOnly) {
-			final String uri = request.getRequestURI();
-			if (HTML_ONLY_PATTERN.matcher(uri).find()) {
+			responseWrapper.setBufferedContentTypes(AbstractContentChangingFilter::isHtmlContentType);
+		}
+	}
+
+	@Override
+	protected void responsePassedThrough(HttpServletRequest request, BufferingHttpResponseWrapper responseWrapper) {
+		// not HTML or too large, so it has not been changed
+		recordProcessing(request, 0, 0, 0);
+	}
+
+	private static String[] getPathsInitParameter(FilterConfig filterConfig, String parameter) {
+		final String value = filterConfig != null ? filterConfig.getInitParameter(parameter) : null;
+		if(value == null || value.trim().isEmpty()) {
+			return null;
+		}
+		return Arrays.stream(value.split(","))
+				.map(String::trim)
+				.filter(path -> !path.isEmpty())
+				.toArray(String[]::new);
+	}
+
+	@Override
+	protected boolean skipExecution(HttpServletRequest request, HttpServletResponse response) {
+		final String uri = request.getRequestURI();
+
+		if(includePaths != null || excludePaths != null) {
+			final String contextPath = request.getContextPath();
+			final int offset = contextPath != null && uri.startsWith(contextPath) ? contextPath.length() : 0;
+			if(includePaths != null && !startsWithAny(uri, offset, includePaths)) {
+				return true;
+			} else if(excludePaths != null && startsWithAny(uri, offset, excludePaths)) {
 				return true;
 			}
 		}
 
+		if(filterHtmlOnly && skipExtensions.matches(uri)) {
+			return true;
+		}
+
+		if(adaptiveSkipTracker != null && adaptiveSkipTracker.shouldBypass(uri)) {
+			return true;
+		}
+
+		return false;
+	}
+
+	private static boolean startsWithAny(String uri, int offset, String[] prefixes) {
+		for (String prefix : prefixes) {
+			if(uri.startsWith(prefix, offset)) {
+				return true;
+			}
+		}
 		return false;
 	}
 
 	@Override
 	protected boolean skipHandleResponse(HttpServletRequest request, BufferingHttpResponseWrapper response) {
+		return skipHandleResponseDecision(request, response) != null;
+	}
+
+	@Override
+	protected Decision skipHandleResponseDecision(HttpServletRequest request, BufferingHttpResponseWrapper response) {
 		if(handleSuccessfulResponseOnly && !isSuccessfulResponse(response)) {
-			return true;
+			return Decision.HANDLING_SKIPPED_STATUS;
 		} else if(filterHtmlOnly && !isHtmlContentType(response)) {
-			return true;
+			return Decision.HANDLING_SKIPPED_CONTENT_TYPE;
 		} else if(maxProcessingContentLength > 0 && isResponseLarger(response, maxProcessingContentLength)) {
 			if (logger.isInfoEnabled()) {
 				logger.info("Skipping filter execution for filter {} and URI {} due to response size {}", getFilterName(), request.getRequestURI(), response.getBufferSize());
 			}
-			return true;
+			return Decision.HANDLING_SKIPPED_SIZE;
 		}
 
-		return false;
+		return null;
+	}
+
+	/**
+	 * Record the effect of changing a response, so that URIs not benefiting from it are bypassed.
+	 * Does nothing unless adaptive skipping is enabled
+	 *
+	 * @param request the current request
+	 * @param originalBytes the size of the response before changing it
+	 * @param changedBytes the size of the response after changing it
+	 * @param nanos the time spent changing the response
+	 */
+	protected void recordProcessing(HttpServletRequest request, long originalBytes, long changedBytes, long nanos) {
+		if(adaptiveSkipTracker != null) {
+			adaptiveSkipTracker.record(request.getRequestURI(), originalBytes, changedBytes, nanos);
+		}
+	}
+
+	/**
+	 * @return the adaptive skip tracker, or null if adaptive skipping is disabled
+	 */
+	protected AdaptiveSkipTracker getAdaptiveSkipTracker() {
+		return adaptiveSkipTracker;
 	}
 
 	private boolean isSuccessfulResponse(HttpServletResponse response) {
@@ -66,7 +230,10 @@ public abstract class AbstractContentChangingFilter extends AbstractOutputBuffer
 	}
 
 	private boolean isHtmlContentType(HttpServletResponse response) {
-		final String contentType = response.getContentType();
+		return isHtmlContentType(response.getContentType());
+	}
+
+	private static boolean isHtmlContentType(String contentType) {
 		return (contentType != null && contentType.toLowerCase().startsWith("text/html"));
 	}
 
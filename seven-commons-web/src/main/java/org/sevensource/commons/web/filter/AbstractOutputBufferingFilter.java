@@ -3,28 +3,144 @@ package org.sevensource.commons.web.filter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
 
+import javax.management.ObjectName;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
 
+import org.sevensource.commons.web.filter.FilterMetrics.Decision;
 import org.sevensource.commons.web.servlet.BufferingHttpResponseWrapper;
+import org.sevensource.commons.web.util.BoundedExecutor;
+import org.sevensource.commons.web.util.DeflaterPool;
+import org.sevensource.commons.web.util.DirectBufferPool;
+import org.sevensource.commons.web.util.DirectByteBufferOutputStream;
+import org.sevensource.commons.web.util.FastByteArrayOutputStream;
+import org.sevensource.commons.web.util.MBeans;
+import org.sevensource.commons.web.util.PooledGzipOutputStream;
+import org.sevensource.commons.web.util.SegmentPool;
+import org.sevensource.commons.web.util.SegmentedOutputStream;
+import org.sevensource.commons.web.util.Streams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Base class for ServletFilters, that wish to buffer and optionally change the
  * response sent to the client
  *
+ * <p>If the request is put into asynchronous mode further down the chain, the response
+ * is not handled when the chain returns, but when the application completes the
+ * {@link AsyncContext} or an async dispatch ends without starting async processing again.
+ * The filter has to be mapped with <code>async-supported</code> (and for the <code>ASYNC</code>
+ * dispatcher, if the application dispatches).
+ *
+ * <p>The buffered response of an asynchronously processed request is lost, if the request is
+ * completed without the filter noticing: if async processing times out or fails, or if the
+ * application completes an {@link AsyncContext} it did not obtain through the request passed
+ * down the chain by this filter. The filter then logs a warning and sets an error status
+ * on the response, if it has not been committed yet.
+ *
  * @author pgaschuetz
  *
  */
 public abstract class AbstractOutputBufferingFilter implements Filter {
 
+	private static final Logger logger = LoggerFactory.getLogger(AbstractOutputBufferingFilter.class);
+
+	/**
+	 * the maximum number of buffer segments to pool, 0 (the default) disables pooling
+	 */
+	public static final String BUFFER_POOL_SEGMENTS_PARAMETER = "bufferPoolSegments";
+	/**
+	 * the size of a pooled buffer segment in bytes
+	 */
+	public static final String BUFFER_POOL_SEGMENT_SIZE_PARAMETER = "bufferPoolSegmentSize";
+	/**
+	 * if true, responses are buffered off-heap in pooled direct buffers. Requires pooling to be enabled
+	 */
+	public static final String BUFFER_POOL_DIRECT_PARAMETER = "bufferPoolDirect";
+	/**
+	 * if true, responses are gzip compressed for clients accepting it
+	 */
+	public static final String COMPRESSION_PARAMETER = "compression";
+	/**
+	 * the gzip compression level, 1 (fastest) to 9 (best compression)
+	 */
+	public static final String COMPRESSION_LEVEL_PARAMETER = "compressionLevel";
+	/**
+	 * the minimum size in bytes of the buffered response to compress it
+	 */
+	public static final String COMPRESSION_MIN_SIZE_PARAMETER = "compressionMinSize";
+	/**
+	 * a comma separated list of the content types to compress
+	 */
+	public static final String COMPRESSION_MIME_TYPES_PARAMETER = "compressionMimeTypes";
+	/**
+	 * if true, a strong ETag is generated from the response sent to the client
+	 * and requests with a matching If-None-Match header are answered with 304 Not Modified
+	 */
+	public static final String ETAG_PARAMETER = "etag";
+	/**
+	 * if true, the response is written through a {@link javax.servlet.WriteListener}, releasing the request thread
+	 * while the client reads it. Requires the filter and the servlet to support async processing,
+	 * otherwise the response is written blocking
+	 */
+	public static final String ASYNC_DELIVERY_PARAMETER = "asyncDelivery";
+	/**
+	 * the time in milliseconds a client may take to read an asynchronously delivered response,
+	 * which also limits the time to handle a response in the {@link #getResponseHandlerExecutor() response handler executor}
+	 */
+	public static final String ASYNC_DELIVERY_TIMEOUT_PARAMETER = "asyncDeliveryTimeout";
+	/**
+	 * if true, the decisions taken on requests, the time the filter adds to them and the sizes of the
+	 * responses are recorded and registered as MXBean of type {@value #METRICS_MBEAN_TYPE} with the filters name
+	 * and the context path of the web application.
+	 * The buffer pools are registered as MXBeans of type {@value #SEGMENT_POOL_MBEAN_TYPE} and
+	 * {@value #DIRECT_BUFFER_POOL_MBEAN_TYPE} as well
+	 *
+	 * @see FilterMetrics
+	 * @see org.sevensource.commons.web.util.SegmentPoolMXBean
+	 */
+	public static final String METRICS_PARAMETER = "metrics";
+
+	public static final String METRICS_MBEAN_TYPE = "FilterMetrics";
+	public static final String SEGMENT_POOL_MBEAN_TYPE = "SegmentPool";
+	public static final String DIRECT_BUFFER_POOL_MBEAN_TYPE = "DirectBufferPool";
+
 	private static final String ALREADY_FILTERED_SUFFIX = ".FILTERED";
+	private static final String DEFERRED_RESPONSE_SUFFIX = ".DEFERRED";
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	private static final String GZIP = "gzip";
+	private static final String ETAG_DIGEST_ALGORITHM = "MD5";
+	private static final int DEFAULT_ASYNC_DELIVERY_TIMEOUT = 60 * 1000;
+	private static final int DEFAULT_COMPRESSION_MIN_SIZE = 1024;
+	private static final Set<String> DEFAULT_COMPRESSION_MIME_TYPES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+			"text/html", "text/plain", "text/css", "text/javascript", "text/xml", "application/javascript",
+			"application/json", "application/xml", "application/xhtml+xml", "image/svg+xml")));
 
 	private FilterConfig filterConfig;
 	private String filterName;
@@ -32,6 +148,22 @@ public abstract class AbstractOutputBufferingFilter implements Filter {
 	private boolean filterOncePerRequest = true;
 	private boolean addContentLengthHeader = true;
 
+	private SegmentPool segmentPool;
+	private DirectBufferPool directBufferPool;
+
+	private DeflaterPool deflaterPool;
+	private int compressionMinSize = DEFAULT_COMPRESSION_MIN_SIZE;
+	private Set<String> compressionMimeTypes = DEFAULT_COMPRESSION_MIME_TYPES;
+
+	private boolean generateETag = false;
+
+	private boolean asyncDelivery = false;
+	private long asyncDeliveryTimeout = DEFAULT_ASYNC_DELIVERY_TIMEOUT;
+
+	private FilterMetrics metrics;
+	private ObjectName metricsName;
+	private ObjectName segmentPoolName;
+	private ObjectName directBufferPoolName;
 
 	@Override
 	public void init(FilterConfig filterConfig) throws ServletException {
@@ -41,10 +173,85 @@ public abstract class AbstractOutputBufferingFilter implements Filter {
 		if (this.filterName == null) {
 			this.filterName = getClass().getName();
 		}
+
+		final int poolSegments = getIntInitParameter(filterConfig, BUFFER_POOL_SEGMENTS_PARAMETER, 0);
+		if (poolSegments > 0) {
+			final int segmentSize = getIntInitParameter(filterConfig, BUFFER_POOL_SEGMENT_SIZE_PARAMETER, SegmentPool.DEFAULT_SEGMENT_SIZE);
+			this.segmentPool = new SegmentPool(segmentSize, poolSegments, SegmentPool.DEFAULT_THREAD_CACHE_SIZE);
+
+			final String direct = filterConfig.getInitParameter(BUFFER_POOL_DIRECT_PARAMETER);
+			if (direct != null && Boolean.parseBoolean(direct.trim())) {
+				this.directBufferPool = new DirectBufferPool(segmentSize, poolSegments, DirectBufferPool.DEFAULT_THREAD_CACHE_SIZE);
+			}
+		}
+
+		final String compression = filterConfig != null ? filterConfig.getInitParameter(COMPRESSION_PARAMETER) : null;
+		if (compression != null && Boolean.parseBoolean(compression.trim())) {
+			final int level = getIntInitParameter(filterConfig, COMPRESSION_LEVEL_PARAMETER, Deflater.DEFAULT_COMPRESSION);
+			this.deflaterPool = new DeflaterPool(level, Runtime.getRuntime().availableProcessors() * 2);
+			this.compressionMinSize = getIntInitParameter(filterConfig, COMPRESSION_MIN_SIZE_PARAMETER, DEFAULT_COMPRESSION_MIN_SIZE);
+
+			final String mimeTypes = filterConfig.getInitParameter(COMPRESSION_MIME_TYPES_PARAMETER);
+			if (mimeTypes != null && !mimeTypes.trim().isEmpty()) {
+				final Set<String> types = new HashSet<>();
+				for (String type : mimeTypes.split(",")) {
+					type = type.trim();
+					if (!type.isEmpty()) {
+						types.add(type.toLowerCase(Locale.ENGLISH));
+					}
+				}
+				this.compressionMimeTypes = types;
+			}
+		}
+
+		final String etag = filterConfig != null ? filterConfig.getInitParameter(ETAG_PARAMETER) : null;
+		this.generateETag = etag != null && Boolean.parseBoolean(etag.trim());
+
+		final String async = filterConfig != null ? filterConfig.getInitParameter(ASYNC_DELIVERY_PARAMETER) : null;
+		this.asyncDelivery = async != null && Boolean.parseBoolean(async.trim());
+		this.asyncDeliveryTimeout = getIntInitParameter(filterConfig, ASYNC_DELIVERY_TIMEOUT_PARAMETER, DEFAULT_ASYNC_DELIVERY_TIMEOUT);
+
+		final String metricsParameter = filterConfig != null ? filterConfig.getInitParameter(METRICS_PARAMETER) : null;
+		if (metricsParameter != null && Boolean.parseBoolean(metricsParameter.trim())) {
+			this.metrics = new FilterMetrics();
+			this.metricsName = registerMBean(metrics, METRICS_MBEAN_TYPE);
+			if (segmentPool != null) {
+				this.segmentPoolName = registerMBean(segmentPool, SEGMENT_POOL_MBEAN_TYPE);
+			}
+			if (directBufferPool != null) {
+				this.directBufferPoolName = registerMBean(directBufferPool, DIRECT_BUFFER_POOL_MBEAN_TYPE);
+			}
+		}
 	}
 
 	@Override
 	public void destroy() {
+		if (segmentPool != null) {
+			if (logger.isInfoEnabled()) {
+				logger.info("Buffer pool statistics for filter {}: {}", getFilterName(), segmentPool);
+			}
+			segmentPool.close();
+		}
+		if (directBufferPool != null) {
+			if (logger.isInfoEnabled()) {
+				logger.info("Direct buffer pool statistics for filter {}: {}", getFilterName(), directBufferPool);
+			}
+			directBufferPool.close();
+		}
+		MBeans.unregister(segmentPoolName);
+		MBeans.unregister(directBufferPoolName);
+		segmentPoolName = null;
+		directBufferPoolName = null;
+		if (deflaterPool != null && logger.isInfoEnabled()) {
+			logger.info("Deflater pool statistics for filter {}: {}", getFilterName(), deflaterPool);
+		}
+		if (metrics != null) {
+			if (logger.isInfoEnabled()) {
+				logger.info("Metrics of filter {}:\n{}", getFilterName(), metrics);
+			}
+			MBeans.unregister(metricsName);
+			metricsName = null;
+		}
 		this.filterConfig = null;
 	}
 
@@ -59,6 +266,7 @@ public abstract class AbstractOutputBufferingFilter implements Filter {
 		final HttpServletRequest httpRequest = (HttpServletRequest) request;
 		final HttpServletResponse httpResponse = (HttpServletResponse) response;
 
+		final long start = metrics != null ? System.nanoTime() : 0;
 		boolean alreadyFiltered = false;
 		String alreadyFilteredAttributeName = null;
 
@@ -67,8 +275,21 @@ public abstract class AbstractOutputBufferingFilter implements Filter {
 			alreadyFiltered = httpRequest.getAttribute(alreadyFilteredAttributeName) != null;
 		}
 
+		final DeferredResponse deferredResponse = request.getDispatcherType() == DispatcherType.ASYNC ?
+				getDeferredResponse(httpRequest) : null;
+
+		if (deferredResponse != null) {
+			// an async dispatch of a request, whose response has been deferred by this filter,
+			// which continues to write into the buffer
+			chain.doFilter(new AsyncAwareRequestWrapper(httpRequest, deferredResponse), deferredResponse.responseWrapper);
 
-		if (alreadyFiltered || skipExecution(httpRequest, httpResponse)) {
+			if (!request.isAsyncStarted()) {
+				deferredResponse.finish(true);
+			}
+		} else if (alreadyFiltered || skipExecution(httpRequest, httpResponse)) {
+			if (metrics != null) {
+				metrics.record(alreadyFiltered ? Decision.ALREADY_FILTERED : Decision.EXECUTION_SKIPPED, System.nanoTime() - start);
+			}
 			// Proceed without invoking this filter...
 			chain.doFilter(request, response);
 		} else {
@@ -77,54 +298,731 @@ public abstract class AbstractOutputBufferingFilter implements Filter {
 				httpRequest.setAttribute(alreadyFilteredAttributeName, Boolean.TRUE);
 			}
 
+			final BufferingHttpResponseWrapper responseWrapper = createResponseWrapper(httpRequest, httpResponse);
+			initResponseWrapper(httpRequest, responseWrapper);
+			final DeferredResponse deferral = new DeferredResponse(httpRequest, httpResponse, responseWrapper, alreadyFilteredAttributeName);
+			boolean deliveringAsync = false;
+			boolean deferred = false;
 			try {
-				final BufferingHttpResponseWrapper responseWrapper = new BufferingHttpResponseWrapper(httpResponse);
-				chain.doFilter(httpRequest, responseWrapper);
-				afterDoFilter(httpRequest, httpResponse, responseWrapper);
+				chain.doFilter(new AsyncAwareRequestWrapper(httpRequest, deferral), responseWrapper);
+
+				if (!deferral.isDeferred() && httpRequest.isAsyncStarted()) {
+					// async processing has been started on a request not wrapped by this filter
+					deferral.defer(httpRequest.getAsyncContext());
+				}
+
+				if (deferral.isDeferred()) {
+					// the response is produced asynchronously and handled once it is complete
+					deferred = true;
+				} else {
+					deliveringAsync = afterDoFilter(httpRequest, httpResponse, responseWrapper);
+				}
 			}
 			finally {
+				if(!deliveringAsync && !deferred) {
+					responseWrapper.release();
+				}
+
 				// Remove the "already filtered" request attribute for this request.
-				if(filterOncePerRequest) {
+				if(filterOncePerRequest && !deferred) {
 					request.removeAttribute(alreadyFilteredAttributeName);
 				}
 			}
 		}
 	}
 
+	private DeferredResponse getDeferredResponse(HttpServletRequest request) {
+		final Object deferredResponse = request.getAttribute(getDeferredResponseAttributeName());
+		return deferredResponse instanceof DeferredResponse ? (DeferredResponse) deferredResponse : null;
+	}
 
-	private void afterDoFilter(HttpServletRequest request, HttpServletResponse response, BufferingHttpResponseWrapper responseWrapper) throws IOException {
+	private String getDeferredResponseAttributeName() {
+		return getFilterName() + DEFERRED_RESPONSE_SUFFIX;
+	}
 
-		responseWrapper.flushBuffer();
 
-		if(skipHandleResponse(request, responseWrapper)) {
+	/**
+	 * @param request the current request
+	 * @param response the response to wrap
+	 * @return a new {@link BufferingHttpResponseWrapper} buffering the response
+	 */
+	protected BufferingHttpResponseWrapper createResponseWrapper(HttpServletRequest request, HttpServletResponse response) {
+		return new BufferingHttpResponseWrapper(response, createBuffer());
+	}
+
+	/**
+	 * Prepare a newly created response wrapper, i.e. to stop buffering responses not to be handled
+	 *
+	 * @param request the current request
+	 * @param responseWrapper the response wrapper
+	 * @see BufferingHttpResponseWrapper#setPassThroughThreshold(int)
+	 * @see BufferingHttpResponseWrapper#setBufferedContentTypes(java.util.function.Predicate)
+	 */
+	protected void initResponseWrapper(HttpServletRequest request, BufferingHttpResponseWrapper responseWrapper) {
+		// no-op
+	}
+
+	/**
+	 * Called once a response has been written to the client while it was produced, instead of being buffered
+	 *
+	 * @param request the current request
+	 * @param responseWrapper the response wrapper
+	 * @see BufferingHttpResponseWrapper#isPassingThrough()
+	 */
+	protected void responsePassedThrough(HttpServletRequest request, BufferingHttpResponseWrapper responseWrapper) {
+		// no-op
+	}
+
+	/**
+	 * @return a new stream to buffer a response in, taking its buffers from the configured pool
+	 */
+	protected SegmentedOutputStream createBuffer() {
+		if (directBufferPool != null) {
+			return new DirectByteBufferOutputStream(directBufferPool);
+		} else if (segmentPool != null) {
+			return new FastByteArrayOutputStream(segmentPool);
+		}
+		return new FastByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+	}
+
+	/**
+	 * @return true if the buffer of the response wrapper is being delivered asynchronously,
+	 * in which case the response wrapper is released once it has been written
+	 */
+	private boolean afterDoFilter(HttpServletRequest request, HttpServletResponse response, BufferingHttpResponseWrapper responseWrapper) throws IOException {
+		final long start = metrics != null ? System.nanoTime() : 0;
+		Decision decision = null;
+		try {
+			responseWrapper.flushBuffer();
+
+			if(responseWrapper.isPassingThrough()) {
+				// the response has been written to the client while it was produced
+				decision = Decision.PASSED_THROUGH;
+				response.flushBuffer();
+				responsePassedThrough(request, responseWrapper);
+				return false;
+			}
+
+			if(metrics != null) {
+				metrics.recordBufferedBytes(responseWrapper.getBufferSize());
+			}
+
+			final boolean compress = isCompressible(request, response, responseWrapper);
+
+			decision = skipHandleResponseDecision(request, responseWrapper);
+			if(decision != null) {
+				if(compress) {
+					if(writeResponse(request, response, responseWrapper.getBuffer(), true)) {
+						// the compressed copy is being delivered, the response wrapper is not needed anymore
+						return false;
+					}
+				} else if(!writeNotModified(request, response, responseWrapper::updateMessageDigest)) {
+					writeContentLengthHeader(response, responseWrapper.getBufferSize());
+					recordOutputBytes(responseWrapper.getBufferSize());
+					if(writeAsync(request, response, responseWrapper.getBuffer(), responseWrapper::release)) {
+						return true;
+					}
+					responseWrapper.writeBufferTo(response.getOutputStream());
+				}
+			} else {
+				decision = Decision.HANDLED;
+				final BoundedExecutor executor = getResponseHandlerExecutor();
+				if(executor != null && request.isAsyncSupported() && !request.isAsyncStarted()) {
+					final AsyncContext asyncContext = request.startAsync(request, response);
+					asyncContext.setTimeout(asyncDeliveryTimeout);
+					if(executor.tryExecute(() -> handleResponseAsync(asyncContext, request, response, responseWrapper, compress))) {
+						// the response wrapper is released by the task
+						decision = Decision.HANDLED_IN_EXECUTOR;
+						return true;
+					}
+
+					// the executor is saturated, degrade to sending the response as it is
+					decision = Decision.EXECUTOR_SATURATED;
+					try {
+						writeUnhandledResponse(request, response, responseWrapper, compress);
+						response.flushBuffer();
+					} finally {
+						asyncContext.complete();
+					}
+					return false;
+				}
+
+				final InputStream handledResponseInputStream = handleResponse(request, responseWrapper);
+				try {
+					if(writeResponse(request, response, handledResponseInputStream, compress)) {
+						// the handled copy is being delivered, the response wrapper is not needed anymore
+						return false;
+					}
+				} finally {
+					handledResponseInputStream.close();
+				}
+			}
+
+			response.flushBuffer();
+			return false;
+		} finally {
+			if(metrics != null && decision != null) {
+				metrics.record(decision, System.nanoTime() - start);
+			}
+		}
+	}
+
+	private void recordOutputBytes(long bytes) {
+		if(metrics != null) {
+			metrics.recordOutputBytes(bytes);
+		}
+	}
+
+	/**
+	 * Write the buffer of the response wrapper blocking, without handling it
+	 */
+	private void writeUnhandledResponse(HttpServletRequest request, HttpServletResponse response, BufferingHttpResponseWrapper responseWrapper, boolean compress) throws IOException {
+		if(compress) {
+			writeResponse(request, response, responseWrapper.getBuffer(), true);
+		} else if(!writeNotModified(request, response, responseWrapper::updateMessageDigest)) {
 			writeContentLengthHeader(response, responseWrapper.getBufferSize());
+			recordOutputBytes(responseWrapper.getBufferSize());
 			responseWrapper.writeBufferTo(response.getOutputStream());
-		} else {
+		}
+	}
+
+	/**
+	 * Handle and write the response in a thread of the response handler executor.
+	 * Completes the async context and releases the response wrapper
+	 */
+	private void handleResponseAsync(AsyncContext asyncContext, HttpServletRequest request, HttpServletResponse response, BufferingHttpResponseWrapper responseWrapper, boolean compress) {
+		try {
 			final InputStream handledResponseInputStream = handleResponse(request, responseWrapper);
-			writeContentLengthHeader(response, responseWrapper.getBufferSize());
+			try {
+				// writes blocking, as async processing has already been started
+				writeResponse(request, response, handledResponseInputStream, compress);
+			} finally {
+				handledResponseInputStream.close();
+			}
+			response.flushBuffer();
+		} catch(IOException | RuntimeException e) {
+			logger.warn("Cannot handle response of {}", request.getRequestURI(), e);
+			if(!response.isCommitted()) {
+				response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+		} finally {
+			responseWrapper.release();
+			try {
+				asyncContext.complete();
+			} catch(IllegalStateException e) {
+				// the request has already been completed by the container, i.e. after a timeout
+				logger.debug("Cannot complete request {}", request.getRequestURI(), e);
+			}
+		}
+	}
+
+	/**
+	 * Write the given content to the response, optionally gzip compressed.
+	 * The content is buffered once, if it is compressed, an ETag is generated from it or it is delivered
+	 * asynchronously, or if its size is not known up front, so the Content-Length header matches the bytes
+	 * actually sent. Content backed by segments is copied segment by segment and the buffer is written
+	 * to the response segment by segment
+	 *
+	 * @return true if the buffered content is being delivered asynchronously
+	 */
+	private boolean writeResponse(HttpServletRequest request, HttpServletResponse response, InputStream content, boolean compress) throws IOException {
+		if (!compress && !generateETag && !isAsyncDeliverable(request)) {
+			final int size = Streams.remaining(content);
+			if (size >= 0) {
+				writeContentLengthHeader(response, size);
+				recordOutputBytes(size);
+				Streams.copy(content, response.getOutputStream());
+				return false;
+			}
+		}
+
+		final SegmentedOutputStream buffer = createBuffer();
+		boolean deliveringAsync = false;
+		try {
+			final OutputStream os = compress ? new PooledGzipOutputStream(buffer, deflaterPool) : buffer;
+			try {
+				Streams.copy(content, os);
+			} finally {
+				os.close();
+			}
+
+			if (writeNotModified(request, response, buffer::updateMessageDigest)) {
+				return false;
+			}
+			if (compress) {
+				response.setHeader("Content-Encoding", GZIP);
+			}
+			writeContentLengthHeader(response, buffer.size());
+			recordOutputBytes(buffer.size());
+
+			deliveringAsync = writeAsync(request, response, buffer.getInputStream(), buffer::release);
+			if (!deliveringAsync) {
+				buffer.writeTo(response.getOutputStream());
+			}
+			return deliveringAsync;
+		} finally {
+			if (!deliveringAsync) {
+				buffer.release();
+			}
+		}
+	}
+
+	/**
+	 * Start writing the given content asynchronously through a {@link javax.servlet.WriteListener},
+	 * if async delivery is enabled and the request supports async processing.
+	 * The request thread is released while the client reads the response.
+	 *
+	 * @param release called once the content has been written or writing has failed
+	 * @return true if the content is being delivered asynchronously
+	 */
+	private boolean writeAsync(HttpServletRequest request, HttpServletResponse response, InputStream content, Runnable release) throws IOException {
+		if (!isAsyncDeliverable(request)) {
+			return false;
+		}
+
+		final AsyncContext asyncContext = request.startAsync(request, response);
+		asyncContext.setTimeout(asyncDeliveryTimeout);
+		final ServletOutputStream os = response.getOutputStream();
+		final AsyncDeliveryListener listener = new AsyncDeliveryListener(asyncContext, os, content, release);
+		asyncContext.addListener(listener);
+		os.setWriteListener(listener);
+		return true;
+	}
+
+	private boolean isAsyncDeliverable(HttpServletRequest request) {
+		return asyncDelivery && request.isAsyncSupported() && !request.isAsyncStarted();
+	}
+
+	/**
+	 * Set a strong ETag generated from the digest of the content about to be sent and answer
+	 * a matching If-None-Match header with 304 Not Modified.
+	 * As the digest covers the content as sent, compressed and uncompressed responses get different ETags
+	 *
+	 * @return true if 304 Not Modified has been sent, in which case the content must not be written
+	 */
+	private boolean writeNotModified(HttpServletRequest request, HttpServletResponse response, ContentDigester content) throws IOException {
+		if (!generateETag || response.isCommitted() || response.getStatus() != HttpServletResponse.SC_OK
+				|| response.containsHeader("ETag")) {
+			return false;
+		}
+
+		final String method = request.getMethod();
+		if (!"GET".equals(method) && !"HEAD".equals(method)) {
+			return false;
+		}
+
+		final MessageDigest messageDigest;
+		try {
+			messageDigest = MessageDigest.getInstance(ETAG_DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		content.updateMessageDigest(messageDigest);
+
+		final String etag = '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(messageDigest.digest()) + '"';
+		response.setHeader("ETag", etag);
+
+		if (matchesIfNoneMatch(request, etag)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if one of the If-None-Match headers of the request matches the given ETag,
+	 * using the weak comparison required for If-None-Match
+	 */
+	static boolean matchesIfNoneMatch(HttpServletRequest request, String etag) {
+		final Enumeration<String> headers = request.getHeaders("If-None-Match");
+		if (headers == null) {
+			return false;
+		}
+
+		while (headers.hasMoreElements()) {
+			for (String tag : headers.nextElement().split(",")) {
+				tag = tag.trim();
+				if (tag.startsWith("W/")) {
+					tag = tag.substring(2);
+				}
+				if ("*".equals(tag) || etag.equals(tag)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Should the response be gzip compressed? Adds a Vary header for compressible content types,
+	 * so that caches keep the compressed and the uncompressed response apart.
+	 * <p>
+	 * The minimum size is checked against the buffered response, before it is handled
+	 */
+	private boolean isCompressible(HttpServletRequest request, HttpServletResponse response, BufferingHttpResponseWrapper responseWrapper) {
+		if (deflaterPool == null || response.isCommitted() || response.containsHeader("Content-Encoding")) {
+			return false;
+		}
+
+		final String contentType = responseWrapper.getContentType();
+		if (contentType == null) {
+			return false;
+		}
+		final int parameters = contentType.indexOf(';');
+		final String mimeType = (parameters < 0 ? contentType : contentType.substring(0, parameters)).trim().toLowerCase(Locale.ENGLISH);
+		if (!compressionMimeTypes.contains(mimeType)) {
+			return false;
+		}
+
+		addVaryAcceptEncodingHeader(response);
+
+		return responseWrapper.getBufferSize() >= compressionMinSize && acceptsGzip(request);
+	}
+
+	private static void addVaryAcceptEncodingHeader(HttpServletResponse response) {
+		for (String vary : response.getHeaders("Vary")) {
+			for (String field : vary.split(",")) {
+				field = field.trim();
+				if ("*".equals(field) || "Accept-Encoding".equalsIgnoreCase(field)) {
+					return;
+				}
+			}
+		}
+		response.addHeader("Vary", "Accept-Encoding");
+	}
+
+	/**
+	 * @return true if the Accept-Encoding headers of the request accept gzip with a quality above 0
+	 */
+	static boolean acceptsGzip(HttpServletRequest request) {
+		final Enumeration<String> headers = request.getHeaders("Accept-Encoding");
+		if (headers == null) {
+			return false;
+		}
+
+		Boolean wildcard = null;
+		while (headers.hasMoreElements()) {
+			for (String coding : headers.nextElement().split(",")) {
+				final int parameters = coding.indexOf(';');
+				final String name = (parameters < 0 ? coding : coding.substring(0, parameters)).trim();
+				final boolean accepted = parameters < 0 || !isZeroQuality(coding.substring(parameters + 1));
+
+				if (GZIP.equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name)) {
+					return accepted;
+				} else if ("*".equals(name)) {
+					wildcard = accepted;
+				}
+			}
+		}
+		return Boolean.TRUE.equals(wildcard);
+	}
+
+	private static boolean isZeroQuality(String parameters) {
+		for (String parameter : parameters.split(";")) {
+			final int eq = parameter.indexOf('=');
+			if (eq > 0 && "q".equalsIgnoreCase(parameter.substring(0, eq).trim())) {
+				try {
+					return Float.parseFloat(parameter.substring(eq + 1).trim()) <= 0f;
+				} catch (NumberFormatException e) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A response, whose handling has been deferred, because the request has been put into asynchronous mode.
+	 * The response is handled when the application completes the {@link AsyncContext} or when an async
+	 * dispatch returns without starting async processing again. If the request is completed otherwise,
+	 * i.e. by the container after a timeout or an error, the buffer is discarded and the response gets
+	 * 503 Service Unavailable after a timeout and 500 Internal Server Error otherwise, unless it has been
+	 * committed or has an error status already.
+	 */
+	private final class DeferredResponse implements AsyncListener {
+		private final HttpServletRequest request;
+		private final HttpServletResponse response;
+		private final BufferingHttpResponseWrapper responseWrapper;
+		private final String alreadyFilteredAttributeName;
+		private final AtomicBoolean deferred = new AtomicBoolean(false);
+		private final AtomicBoolean finished = new AtomicBoolean(false);
+
+		DeferredResponse(HttpServletRequest request, HttpServletResponse response, BufferingHttpResponseWrapper responseWrapper, String alreadyFilteredAttributeName) {
+			this.request = request;
+			this.response = response;
+			this.responseWrapper = responseWrapper;
+			this.alreadyFilteredAttributeName = alreadyFilteredAttributeName;
+		}
+
+		/**
+		 * register with the given context, if not done yet
+		 */
+		void defer(AsyncContext asyncContext) {
+			if (deferred.compareAndSet(false, true)) {
+				request.setAttribute(getDeferredResponseAttributeName(), this);
+				asyncContext.addListener(this);
+			}
+		}
 
-			final OutputStream os = response.getOutputStream();
-	    	final byte[] buffer = new byte[4096];
-	        int n;
-	        while (-1 != (n = handledResponseInputStream.read(buffer))) {
-	            os.write(buffer, 0, n);
-	        }
+		boolean isDeferred() {
+			return deferred.get();
 		}
 
-		response.flushBuffer();
+		/**
+		 * handle the buffered response, if handle is true, and release it
+		 */
+		void finish(boolean handle) throws IOException {
+			if (!finished.compareAndSet(false, true)) {
+				return;
+			}
+
+			boolean deliveringAsync = false;
+			try {
+				if (handle) {
+					deliveringAsync = afterDoFilter(request, response, responseWrapper);
+				} else if (metrics != null) {
+					metrics.record(Decision.DISCARDED, 0);
+				}
+			} finally {
+				if (!deliveringAsync) {
+					responseWrapper.release();
+				}
+				request.removeAttribute(getDeferredResponseAttributeName());
+				if (alreadyFilteredAttributeName != null) {
+					request.removeAttribute(alreadyFilteredAttributeName);
+				}
+			}
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) throws IOException {
+			if (!finished.get()) {
+				logger.warn("Request {} has been completed without handling its response, discarding {} buffered bytes",
+						request.getRequestURI(), responseWrapper.getBufferSize());
+				setErrorStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+			finish(false);
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+			logger.warn("Async processing of request {} timed out", request.getRequestURI());
+			setErrorStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+			logger.warn("Async processing of request {} failed", request.getRequestURI(), event.getThrowable());
+			setErrorStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		}
+
+		private void setErrorStatus(int status) {
+			if (!finished.get() && !response.isCommitted() && response.getStatus() < HttpServletResponse.SC_BAD_REQUEST) {
+				response.setStatus(status);
+			}
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+			// listeners are cleared when async processing is started again
+			event.getAsyncContext().addListener(this);
+		}
+	}
+
+	/**
+	 * Hands out {@link AsyncContext}s, which handle the deferred response before completing
+	 */
+	private static final class AsyncAwareRequestWrapper extends HttpServletRequestWrapper {
+		private final DeferredResponse deferredResponse;
+		private AsyncContext asyncContext;
+
+		AsyncAwareRequestWrapper(HttpServletRequest request, DeferredResponse deferredResponse) {
+			super(request);
+			this.deferredResponse = deferredResponse;
+		}
+
+		/**
+		 * starts async processing with the buffering response wrapper instead of the original response,
+		 * so that the response written through {@link AsyncContext#getResponse()} is buffered as well
+		 */
+		@Override
+		public AsyncContext startAsync() {
+			return startAsync(this, deferredResponse.responseWrapper);
+		}
+
+		@Override
+		public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse) {
+			return wrap(super.startAsync(servletRequest, servletResponse));
+		}
+
+		@Override
+		public AsyncContext getAsyncContext() {
+			final AsyncContext current = super.getAsyncContext();
+			return asyncContext != null && ((CompletingAsyncContext) asyncContext).delegate == current ? asyncContext : current;
+		}
+
+		private AsyncContext wrap(AsyncContext context) {
+			deferredResponse.defer(context);
+			this.asyncContext = new CompletingAsyncContext(context, deferredResponse);
+			return this.asyncContext;
+		}
+	}
+
+	private static final class CompletingAsyncContext implements AsyncContext {
+		private final AsyncContext delegate;
+		private final DeferredResponse deferredResponse;
+
+		CompletingAsyncContext(AsyncContext delegate, DeferredResponse deferredResponse) {
+			this.delegate = delegate;
+			this.deferredResponse = deferredResponse;
+		}
+
+		@Override
+		public void complete() {
+			try {
+				deferredResponse.finish(true);
+			} catch (IOException | RuntimeException e) {
+				logger.warn("Cannot handle asynchronously produced response", e);
+			} finally {
+				delegate.complete();
+			}
+		}
+
+		@Override
+		public ServletRequest getRequest() {
+			return delegate.getRequest();
+		}
+
+		@Override
+		public ServletResponse getResponse() {
+			return delegate.getResponse();
+		}
+
+		@Override
+		public boolean hasOriginalRequestAndResponse() {
+			return delegate.hasOriginalRequestAndResponse();
+		}
+
+		@Override
+		public void dispatch() {
+			delegate.dispatch();
+		}
+
+		@Override
+		public void dispatch(String path) {
+			delegate.dispatch(path);
+		}
+
+		@Override
+		public void dispatch(ServletContext context, String path) {
+			delegate.dispatch(context, path);
+		}
+
+		@Override
+		public void start(Runnable run) {
+			delegate.start(run);
+		}
+
+		@Override
+		public void addListener(AsyncListener listener) {
+			delegate.addListener(listener);
+		}
+
+		@Override
+		public void addListener(AsyncListener listener, ServletRequest servletRequest, ServletResponse servletResponse) {
+			delegate.addListener(listener, servletRequest, servletResponse);
+		}
+
+		@Override
+		public <T extends AsyncListener> T createListener(Class<T> clazz) throws ServletException {
+			return delegate.createListener(clazz);
+		}
+
+		@Override
+		public void setTimeout(long timeout) {
+			delegate.setTimeout(timeout);
+		}
+
+		@Override
+		public long getTimeout() {
+			return delegate.getTimeout();
+		}
+	}
+
+	@FunctionalInterface
+	private interface ContentDigester {
+		void updateMessageDigest(MessageDigest messageDigest) throws IOException;
 	}
 
 	protected String getFilterName() {
 		return filterName;
 	}
 
+	/**
+	 * Register an MBean named after this filter and the context path of its web application,
+	 * so that filters of the same name in different web applications do not collide
+	 *
+	 * @param mbean the MBean or MXBean to register
+	 * @param type the type of the MBean
+	 * @return the name the MBean has been registered with, null if it could not be registered
+	 * @see MBeans#unregister(ObjectName)
+	 */
+	protected ObjectName registerMBean(Object mbean, String type) {
+		final ServletContext servletContext = filterConfig != null ? filterConfig.getServletContext() : null;
+		final String contextPath = servletContext != null ? servletContext.getContextPath() : null;
+		return MBeans.register(mbean, type, contextPath, getFilterName());
+	}
+
 	protected String getAlreadyFilteredAttributeName() {
 		return getFilterName() + ALREADY_FILTERED_SUFFIX;
 	}
 
+	/**
+	 * @return an executor to handle responses in, releasing the request thread, or null (the default)
+	 * to handle responses in the request thread. Responses are handled in the request thread as well,
+	 * if the request does not support async processing. If the executor refuses a response,
+	 * it is sent unhandled
+	 */
+	protected BoundedExecutor getResponseHandlerExecutor() {
+		return null;
+	}
+
+	/**
+	 * @return the metrics of this filter, or null if they are disabled
+	 */
+	protected FilterMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return the pool response buffers are taken from, or null if pooling is disabled
+	 */
+	protected SegmentPool getSegmentPool() {
+		return segmentPool;
+	}
+
+	protected static int getIntInitParameter(FilterConfig filterConfig, String name, int defaultValue) {
+		String parameter = filterConfig != null ? filterConfig.getInitParameter(name) : null;
+
+		if(parameter != null) {
+			parameter = parameter.trim();
+			if(! parameter.isEmpty()) {
+				try {
+					return Integer.parseInt(parameter);
+				} catch(NumberFormatException e) {
+					logger.error("Init parameter {} is not a number: {}", name, parameter);
+					throw e;
+				}
+			}
+		}
+
+		return defaultValue;
+	}
+
 
 	private void writeContentLengthHeader(HttpServletResponse response, int contentLength) {
-		if(addContentLengthHeader) {
+		// a committed response has already been sent (partially) without a Content-Length
+		if(addContentLengthHeader && !response.isCommitted()) {
 			response.setContentLength(contentLength);
 		}
 	}
@@ -149,6 +1047,21 @@ public abstract class AbstractOutputBufferingFilter implements Filter {
 	 */
 	protected abstract boolean skipHandleResponse(HttpServletRequest request, BufferingHttpResponseWrapper response);
 
+	/**
+	 * Should handling of the response be skipped, and why? Called instead of
+	 * {@link #skipHandleResponse(HttpServletRequest, BufferingHttpResponseWrapper)}, so that
+	 * subclasses can tell the reason for skipping to the {@link FilterMetrics}
+	 *
+	 * @param request
+	 * @param response
+	 * @return the <code>HANDLING_SKIPPED_*</code> decision to skip handling the response, null to handle it.
+	 * {@link Decision#HANDLING_SKIPPED_OTHER} by default, if {@link #skipHandleResponse(HttpServletRequest, BufferingHttpResponseWrapper)}
+	 * returns true
+	 */
+	protected Decision skipHandleResponseDecision(HttpServletRequest request, BufferingHttpResponseWrapper response) {
+		return skipHandleResponse(request, response) ? Decision.HANDLING_SKIPPED_OTHER : null;
+	}
+
 
 	/**
 	 * handle the response, optionally do something with it and return the InputStream which
@@ -0,0 +1,188 @@
+package org.sevensource.commons.web.filter;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.sevensource.commons.web.util.UriPatternCounter;
+
+/**
+ * Learns which URIs do not benefit from changing their content.
+ *
+ * <p>For each URI pattern (see {@link UriPatternCounter#pattern(String)}), the bytes saved and
+ * the time spent are recorded. Once a pattern has collected enough samples and no bytes have been
+ * saved, the bytes saved are below a minimum share of the original size or the bytes saved per
+ * millisecond spent are below a minimum, requests matching it are bypassed for some time. Afterwards the pattern is sampled again, so that routes
+ * starting to benefit are picked up.
+ *
+ * <p>Responses, which have not been changed, i.e. because they have been passed through
+ * to the client, count as samples without savings.
+ *
+ * @author pgaschuetz
+ */
+public class AdaptiveSkipTracker {
+
+	private static final long MILLI_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final double minSavings;
+	private final long minSavedBytesPerMilli;
+	private final int minSamples;
+	private final long bypassNanos;
+	private final int maxPatterns;
+
+	private final Map<String, Route> routes = new ConcurrentHashMap<>();
+	private final LongAdder bypassed = new LongAdder();
+
+	/**
+	 * @param minSavings the minimum share of the original size, a pattern has to save, i.e. 0.02 for 2%
+	 * @param minSamples the number of samples to decide on
+	 * @param bypassMillis the time in milliseconds a pattern is bypassed, before it is sampled again
+	 * @param maxPatterns the maximum number of patterns to track. Requests for further patterns are never bypassed
+	 */
+	public AdaptiveSkipTracker(double minSavings, int minSamples, long bypassMillis, int maxPatterns) {
+		this(minSavings, 0, minSamples, bypassMillis, maxPatterns);
+	}
+
+	/**
+	 * @param minSavings the minimum share of the original size, a pattern has to save, i.e. 0.02 for 2%
+	 * @param minSavedBytesPerMilli the minimum number of bytes, a pattern has to save per millisecond
+	 * spent changing its responses, 0 to ignore the time spent
+	 * @param minSamples the number of samples to decide on
+	 * @param bypassMillis the time in milliseconds a pattern is bypassed, before it is sampled again
+	 * @param maxPatterns the maximum number of patterns to track. Requests for further patterns are never bypassed
+	 */
+	public AdaptiveSkipTracker(double minSavings, long minSavedBytesPerMilli, int minSamples, long bypassMillis, int maxPatterns) {
+		if (minSavings < 0 || minSavings > 1) {
+			throw new IllegalArgumentException("minSavings must be between 0 and 1");
+		} else if (minSavedBytesPerMilli < 0) {
+			throw new IllegalArgumentException("minSavedBytesPerMilli must be 0 or greater");
+		} else if (minSamples <= 0) {
+			throw new IllegalArgumentException("minSamples must be greater than 0");
+		} else if (bypassMillis <= 0) {
+			throw new IllegalArgumentException("bypassMillis must be greater than 0");
+		} else if (maxPatterns <= 0) {
+			throw new IllegalArgumentException("maxPatterns must be greater than 0");
+		}
+
+		this.minSavings = minSavings;
+		this.minSavedBytesPerMilli = minSavedBytesPerMilli;
+		this.minSamples = minSamples;
+		this.bypassNanos = TimeUnit.MILLISECONDS.toNanos(bypassMillis);
+		this.maxPatterns = maxPatterns;
+	}
+
+	/**
+	 * @param uri a request URI
+	 * @return true if the request should not be buffered, as its pattern does not benefit from it
+	 */
+	public boolean shouldBypass(String uri) {
+		final Route route = routes.get(UriPatternCounter.pattern(uri));
+		if (route != null && route.isBypassed(System.nanoTime())) {
+			bypassed.increment();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Record a buffered response
+	 *
+	 * @param uri the request URI
+	 * @param originalBytes the size of the response before changing it, 0 if unknown
+	 * @param changedBytes the size of the response after changing it, the original size if it has not been changed
+	 * @param nanos the time spent changing the response
+	 */
+	public void record(String uri, long originalBytes, long changedBytes, long nanos) {
+		final String pattern = UriPatternCounter.pattern(uri);
+		Route route = routes.get(pattern);
+		if (route == null) {
+			if (routes.size() >= maxPatterns) {
+				return;
+			}
+			route = routes.computeIfAbsent(pattern, p -> new Route());
+		}
+		route.record(Math.max(originalBytes, 0), Math.max(originalBytes - changedBytes, 0), Math.max(nanos, 0));
+	}
+
+	/**
+	 * @return the number of requests bypassed
+	 */
+	public long getBypassedCount() {
+		return bypassed.sum();
+	}
+
+	/**
+	 * @return the patterns currently bypassed
+	 */
+	public Map<String, Long> getBypassedPatterns() {
+		final long now = System.nanoTime();
+		final Map<String, Long> bypassedPatterns = new TreeMap<>();
+		routes.forEach((pattern, route) -> {
+			if (route.isBypassed(now)) {
+				bypassedPatterns.put(pattern, TimeUnit.NANOSECONDS.toMillis(route.bypassUntil - now));
+			}
+		});
+		return bypassedPatterns;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder(getClass().getSimpleName())
+				.append("[patterns=").append(routes.size())
+				.append(", bypassed=").append(getBypassedCount());
+		new TreeMap<>(routes).forEach((pattern, route) -> sb.append(", ").append(pattern).append('=').append(route));
+		return sb.append(']').toString();
+	}
+
+	private final class Route {
+		// the samples of the current window, guarded by this
+		private int samples;
+		private long originalBytes;
+		private long savedBytes;
+		private long nanos;
+
+		// totals, guarded by this
+		private long totalSamples;
+		private long totalSavedBytes;
+		private long totalNanos;
+
+		private volatile long bypassUntil;
+		private volatile boolean bypassing;
+
+		boolean isBypassed(long now) {
+			return bypassing && now - bypassUntil < 0;
+		}
+
+		synchronized void record(long original, long saved, long nanos) {
+			samples++;
+			originalBytes += original;
+			savedBytes += saved;
+			this.nanos += nanos;
+			totalSamples++;
+			totalSavedBytes += saved;
+			totalNanos += nanos;
+
+			if (samples >= minSamples) {
+				if (savedBytes == 0 || savedBytes < originalBytes * minSavings
+						|| savedBytes * MILLI_NANOS < this.nanos * minSavedBytesPerMilli) {
+					bypassUntil = System.nanoTime() + bypassNanos;
+					bypassing = true;
+				} else {
+					bypassing = false;
+				}
+				samples = 0;
+				originalBytes = 0;
+				savedBytes = 0;
+				this.nanos = 0;
+			}
+		}
+
+		@Override
+		public synchronized String toString() {
+			return String.format("{samples=%d, saved=%d bytes, time=%d ms}",
+					totalSamples, totalSavedBytes, TimeUnit.NANOSECONDS.toMillis(totalNanos));
+		}
+	}
+}
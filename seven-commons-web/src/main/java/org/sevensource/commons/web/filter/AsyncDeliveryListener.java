@@ -0,0 +1,108 @@
+package org.sevensource.commons.web.filter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes a buffered response through a non-blocking {@link ServletOutputStream}.
+ * <p>
+ * Each time the container signals that writing is possible, chunks are written
+ * until the stream is no longer ready. Once the content has been written, or writing
+ * failed or timed out, the buffer is released and the {@link AsyncContext} is completed.
+ *
+ * @author pgaschuetz
+ *
+ */
+class AsyncDeliveryListener implements WriteListener, AsyncListener {
+
+	private static final Logger logger = LoggerFactory.getLogger(AsyncDeliveryListener.class);
+
+	static final int CHUNK_SIZE = 16 * 1024;
+
+	private final AsyncContext asyncContext;
+	private final ServletOutputStream outputStream;
+	private final InputStream content;
+	private final Runnable release;
+
+	private final byte[] chunk;
+	private final AtomicBoolean finished = new AtomicBoolean(false);
+
+	AsyncDeliveryListener(AsyncContext asyncContext, ServletOutputStream outputStream, InputStream content, Runnable release) {
+		this.asyncContext = asyncContext;
+		this.outputStream = outputStream;
+		this.content = content;
+		this.release = release;
+		this.chunk = new byte[CHUNK_SIZE];
+	}
+
+	@Override
+	public void onWritePossible() throws IOException {
+		// a single write is allowed each time the stream is ready
+		while (!finished.get() && outputStream.isReady()) {
+			final int n = content.read(chunk);
+			if (n == -1) {
+				finish(true);
+				return;
+			}
+			outputStream.write(chunk, 0, n);
+		}
+	}
+
+	@Override
+	public void onError(Throwable t) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("Writing the response asynchronously failed", t);
+		}
+		finish(true);
+	}
+
+	@Override
+	public void onComplete(AsyncEvent event) {
+		finish(false);
+	}
+
+	@Override
+	public void onTimeout(AsyncEvent event) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("Writing the response asynchronously timed out");
+		}
+		finish(true);
+	}
+
+	@Override
+	public void onError(AsyncEvent event) {
+		onError(event.getThrowable());
+	}
+
+	@Override
+	public void onStartAsync(AsyncEvent event) {
+	}
+
+	boolean isFinished() {
+		return finished.get();
+	}
+
+	private void finish(boolean complete) {
+		if (finished.compareAndSet(false, true)) {
+			try {
+				content.close();
+			} catch (IOException e) {
+				// the content is held in memory
+			}
+			release.run();
+			if (complete) {
+				asyncContext.complete();
+			}
+		}
+	}
+}
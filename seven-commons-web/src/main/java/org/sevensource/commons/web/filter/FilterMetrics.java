@@ -0,0 +1,140 @@
+package org.sevensource.commons.web.filter;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.sevensource.commons.web.util.ConcurrentHistogram;
+import org.sevensource.commons.web.util.ConcurrentHistogram.Snapshot;
+
+/**
+ * Counts the decisions an {@link AbstractOutputBufferingFilter} takes on requests and records
+ * the time the filter adds to a request for each of them, together with the sizes of the
+ * buffered and written responses. All recording is lock-free.
+ *
+ * <p>For requests the filter executes on, the time is measured from the filter chain returning
+ * until the response has been flushed, or handed to the response handler executor.
+ * For requests it skips, the time is the time taken to decide so.
+ *
+ * @author pgaschuetz
+ */
+public class FilterMetrics implements FilterMetricsMXBean {
+
+	/**
+	 * The decisions a filter takes on a request.
+	 * A response, whose handling has been skipped, is counted as exactly one of the <code>HANDLING_SKIPPED_*</code>
+	 * decisions, so that their sum is comparable across filters
+	 */
+	public enum Decision {
+		/** the request has already been filtered by this filter */
+		ALREADY_FILTERED,
+		/** the filter was not executed */
+		EXECUTION_SKIPPED,
+		/** the response was passed through to the client instead of being buffered */
+		PASSED_THROUGH,
+		/**
+		 * handling was skipped, as {@link AbstractOutputBufferingFilter#skipHandleResponse(javax.servlet.http.HttpServletRequest,
+		 * org.sevensource.commons.web.servlet.BufferingHttpResponseWrapper) skipHandleResponse} returned true without
+		 * telling a more specific reason
+		 */
+		HANDLING_SKIPPED_OTHER,
+		/** handling was skipped due to the status of the response */
+		HANDLING_SKIPPED_STATUS,
+		/** handling was skipped due to the content type of the response */
+		HANDLING_SKIPPED_CONTENT_TYPE,
+		/** handling was skipped due to the size of the response */
+		HANDLING_SKIPPED_SIZE,
+		/** the response was handled in the request thread */
+		HANDLED,
+		/** the response was handed to the response handler executor */
+		HANDLED_IN_EXECUTOR,
+		/** the response handler executor was saturated, so the response was written unhandled */
+		EXECUTOR_SATURATED,
+		/** the asynchronously produced response was discarded, as the container completed the request */
+		DISCARDED
+	}
+
+	private final Map<Decision, ConcurrentHistogram> latencies = new EnumMap<>(Decision.class);
+	private final ConcurrentHistogram bufferedBytes = new ConcurrentHistogram();
+	private final ConcurrentHistogram outputBytes = new ConcurrentHistogram();
+
+	public FilterMetrics() {
+		for (Decision decision : Decision.values()) {
+			latencies.put(decision, new ConcurrentHistogram());
+		}
+	}
+
+	/**
+	 * @param decision the decision taken on a request
+	 * @param nanos the time the filter added to the request in nanoseconds
+	 */
+	public void record(Decision decision, long nanos) {
+		latencies.get(decision).record(nanos);
+	}
+
+	/**
+	 * @param bytes the size of a buffered response
+	 */
+	public void recordBufferedBytes(long bytes) {
+		bufferedBytes.record(bytes);
+	}
+
+	/**
+	 * @param bytes the size of a response written from the buffer
+	 */
+	public void recordOutputBytes(long bytes) {
+		outputBytes.record(bytes);
+	}
+
+	/**
+	 * @param decision a decision
+	 * @return the histogram of the time the filter added to requests with the given decision
+	 */
+	public ConcurrentHistogram getLatency(Decision decision) {
+		return latencies.get(decision);
+	}
+
+	@Override
+	public Map<String, Long> getDecisions() {
+		final Map<String, Long> decisions = new LinkedHashMap<>();
+		latencies.forEach((decision, latency) -> decisions.put(decision.name(), latency.getCount()));
+		return decisions;
+	}
+
+	@Override
+	public Map<String, Snapshot> getLatencyNanos() {
+		final Map<String, Snapshot> snapshots = new LinkedHashMap<>();
+		latencies.forEach((decision, latency) -> {
+			if (latency.getCount() > 0) {
+				snapshots.put(decision.name(), latency.snapshot());
+			}
+		});
+		return snapshots;
+	}
+
+	@Override
+	public Snapshot getBufferedBytes() {
+		return bufferedBytes.snapshot();
+	}
+
+	@Override
+	public Snapshot getOutputBytes() {
+		return outputBytes.snapshot();
+	}
+
+	@Override
+	public void reset() {
+		latencies.values().forEach(ConcurrentHistogram::reset);
+		bufferedBytes.reset();
+		outputBytes.reset();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		getLatencyNanos().forEach((decision, latency) -> sb.append(decision).append(": ").append(latency).append('\n'));
+		sb.append("buffered bytes: ").append(bufferedBytes).append('\n');
+		sb.append("output bytes: ").append(outputBytes);
+		return sb.toString();
+	}
+}
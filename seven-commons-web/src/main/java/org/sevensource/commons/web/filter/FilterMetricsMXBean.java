@@ -0,0 +1,38 @@
+package org.sevensource.commons.web.filter;
+
+import java.util.Map;
+
+import org.sevensource.commons.web.util.ConcurrentHistogram.Snapshot;
+
+/**
+ * The management interface of {@link FilterMetrics}
+ *
+ * @author pgaschuetz
+ */
+public interface FilterMetricsMXBean {
+
+	/**
+	 * @return the number of requests by the decision taken on them
+	 */
+	Map<String, Long> getDecisions();
+
+	/**
+	 * @return the time in nanoseconds the filter added to requests by the decision taken on them
+	 */
+	Map<String, Snapshot> getLatencyNanos();
+
+	/**
+	 * @return the size in bytes of the buffered responses
+	 */
+	Snapshot getBufferedBytes();
+
+	/**
+	 * @return the size in bytes of the responses written from the buffer
+	 */
+	Snapshot getOutputBytes();
+
+	/**
+	 * discards all metrics
+	 */
+	void reset();
+}
@@ -0,0 +1,390 @@
+package org.sevensource.commons.web.filter.minify;
+
+/* jsmin.c
+ 2013-03-29
+
+ Copyright (c) 2002 Douglas Crockford  (www.crockford.com)
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy of
+ this software and associated documentation files (the "Software"), to deal in
+ the Software without restriction, including without limitation the rights to
+ use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ of the Software, and to permit persons to whom the Software is furnished to do
+ so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ The Software shall be used for Good, not Evil.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+
+/**
+ * A variant of {@link JSMin}, which minifies a {@link CharSequence} directly into a
+ * {@link StringBuilder}. It needs neither streams nor a conversion between characters and bytes.
+ * <p>
+ * This work is a translation from C to Java of jsmin.c published by Douglas
+ * Crockford. See www.inconspicuous.org and www.crockford.com for more
+ * information. Now available on Github :
+ * https://github.com/douglascrockford/JSMin
+ * <p>
+ * The output is the same as the output of {@link JSMin} for the same script in UTF-8.
+ *
+ * @author (Original) John Reilly - Douglas Crockford
+ * @author Jordi Hernández Sellés
+ * @author ibrahim Chaehoi
+ * @author pgaschuetz
+ */
+public final class CharSequenceJSMin {
+	private static final int EOF = -1;
+
+	private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+	/** The input, a String to avoid megamorphic calls to CharSequence#charAt */
+	private final String in;
+	private final int length;
+	private int position = 0;
+
+	/** The output */
+	private final StringBuilder out;
+
+	private int theA;
+	private int theB;
+	private int theLookahead = EOF;
+	private int theX = EOF;
+	private int theY = EOF;
+
+	/** The flag indicating if the first character has been written */
+	private boolean firstCharacterWritten;
+
+	/** The current line number */
+	private int line = 0;
+
+	/** The current column number */
+	private int column = 0;
+
+	private CharSequenceJSMin(CharSequence in, StringBuilder out) {
+		this.in = in.toString();
+		this.length = this.in.length();
+		this.out = out;
+	}
+
+	/**
+	 * @param script the script to minify
+	 * @return the minified script
+	 * @throws JSMinException if the script cannot be minified
+	 */
+	public static String minify(CharSequence script) throws JSMinException {
+		final StringBuilder sb = new StringBuilder(script.length());
+		minify(script, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * @param script the script to minify
+	 * @param out the builder to append the minified script to
+	 * @throws JSMinException if the script cannot be minified
+	 */
+	public static void minify(CharSequence script, StringBuilder out) throws JSMinException {
+		new CharSequenceJSMin(script, out).jsmin();
+	}
+
+	/*
+	 * isAlphanum -- return true if the character is a letter, digit,
+	 * underscore, dollar sign, or non-ASCII character.
+	 */
+	private static boolean isAlphanum(int c) {
+		return ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$'
+				|| c == '\\' || c > 126);
+	}
+
+	private int get() {
+		return get(false);
+	}
+
+	/*
+	 * get -- return the next character. Watch out for lookahead. If
+	 * the character is a control character, translate it to a space or
+	 * linefeed.
+	 */
+	private int get(boolean inStringLiteral) {
+		int c = theLookahead;
+		theLookahead = EOF;
+		if (c == EOF && position < length) {
+			c = in.charAt(position++);
+		}
+		if (c == '\n') {
+			line++;
+			column = 0;
+		} else {
+			column++;
+		}
+		// tabs are kept inside string literals
+		if (c >= ' ' || c == '\n' || c == EOF || (inStringLiteral && c == '\t')) {
+			return c;
+		}
+
+		if (c == '\r') {
+			return '\n';
+		}
+		return ' ';
+	}
+
+	/*
+	 * peek -- get the next character without getting it.
+	 */
+	private int peek() {
+		theLookahead = get();
+		return theLookahead;
+	}
+
+	/*
+	 * next -- get the next character, excluding comments. peek() is used to see
+	 * if a '/' is followed by a '/' or '*'.
+	 */
+	private int next() throws JSMinException {
+		int c = get();
+		if (c == '/') {
+			switch (peek()) {
+			case '/':
+				for (;;) {
+					c = get();
+					if (c <= '\n') {
+						break;
+					}
+				}
+				break;
+			case '*':
+				get();
+				while (c != ' ') {
+					switch (get()) {
+					case '*':
+						if (peek() == '/') {
+							get();
+							c = ' ';
+						}
+						break;
+					case EOF:
+						throw exception("Unterminated comment");
+					}
+				}
+				break;
+			}
+		}
+		theY = theX;
+		theX = c;
+		return c;
+	}
+
+	/*
+	 * action -- do something! What you do is determined by the argument: 1
+	 * Output A. Copy B to A. Get the next B. 2 Copy B to A. Get the next B.
+	 * (Delete A). 3 Get the next B. (Delete B). action treats a string as a
+	 * single character. action recognizes a regular expression if it is
+	 * preceded by ( or , or =.
+	 */
+	private void action(int d) throws JSMinException {
+		switch (d) {
+		case 1:
+			write(theA);
+			if ((theY == '\n' || theY == ' ') && (theA == '+' || theA == '-' || theA == '*' || theA == '/')
+					&& (theB == '+' || theB == '-' || theB == '*' || theB == '/')) {
+				write(theY);
+			}
+		case 2:
+			theA = theB;
+			if (theA == '\'' || theA == '"' || theA == '`') {
+				for (;;) {
+					write(theA);
+					theA = get(true);
+					if (theA == theB) {
+						break;
+					}
+					if (theA == '\\') {
+						write(theA);
+						theA = get(true);
+					}
+					if (theA == EOF) {
+						throw exception("Unterminated string literal");
+					}
+				}
+			}
+		case 3:
+			theB = next();
+			if (theB == '/' && (theA == '(' || theA == ',' || theA == '=' || theA == ':' || theA == '[' || theA == '!'
+					|| theA == '&' || theA == '|' || theA == '?' || theA == '+' || theA == '-' || theA == '~'
+					|| theA == '*' || theA == '/' || theA == '{' || theA == '\n')) {
+				write(theA);
+				if (theA == '/' || theA == '*') {
+					write(' ');
+				}
+				write(theB);
+				for (;;) {
+					theA = get();
+					if (theA == '[') {
+						for (;;) {
+							write(theA);
+							theA = get();
+							if (theA == ']') {
+								break;
+							}
+							if (theA == '\\') {
+								write(theA);
+								theA = get();
+							}
+							if (theA == EOF) {
+								throw exception("Unterminated set in regular expression literal");
+							}
+						}
+					} else if (theA == '/') {
+						switch (peek()) {
+						case '/':
+						case '*':
+							throw exception("Unterminated regular expression literal");
+						}
+						break;
+					} else if (theA == '\\') {
+						write(theA);
+						theA = get();
+					}
+					if (theA == EOF) {
+						throw exception("Unterminated regular expression literal");
+					}
+					write(theA);
+				}
+				theB = next();
+			}
+		}
+	}
+
+	private void write(int c) {
+		if (!firstCharacterWritten) {
+			if (c != '\n') {
+				out.append((char) c);
+				firstCharacterWritten = true;
+			}
+		} else {
+			out.append((char) c);
+		}
+	}
+
+	private JSMinException exception(String message) {
+		return new JSMinException(message, position, line, column);
+	}
+
+	/*
+	 * jsmin -- Copy the input to the output, deleting the characters which are
+	 * insignificant to JavaScript. Comments will be removed. Tabs will be
+	 * replaced with spaces. Carriage returns will be replaced with linefeeds.
+	 * Most spaces and linefeeds will be removed.
+	 */
+	private void jsmin() throws JSMinException {
+		if (length > 0 && in.charAt(0) == BYTE_ORDER_MARK) {
+			position++;
+		}
+		theA = '\n';
+		action(3);
+		while (theA != EOF) {
+			switch (theA) {
+			case ' ':
+				action(isAlphanum(theB) ? 1 : 2);
+				break;
+			case '\n':
+				switch (theB) {
+				case '{':
+				case '[':
+				case '(':
+				case '+':
+				case '-':
+				case '!':
+				case '~':
+					action(1);
+					break;
+				case ' ':
+					action(3);
+					break;
+				default:
+					action(isAlphanum(theB) ? 1 : 2);
+				}
+				break;
+			default:
+				switch (theB) {
+				case ' ':
+					action(isAlphanum(theA) ? 1 : 3);
+					break;
+				case '\n':
+					switch (theA) {
+					case '}':
+					case ']':
+					case ')':
+					case '+':
+					case '-':
+					case '"':
+					case '\'':
+					case '`':
+						action(1);
+						break;
+					default:
+						action(isAlphanum(theA) ? 1 : 3);
+					}
+					break;
+				default:
+					action(1);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Thrown if a script cannot be minified
+	 */
+	public static class JSMinException extends Exception {
+
+		private static final long serialVersionUID = 2617324950394416270L;
+
+		/** the character index where the exception occured */
+		private final int index;
+
+		/** the line where the exception occured */
+		private final int line;
+
+		/** the column where the exception occured */
+		private final int column;
+
+		public JSMinException(String message, int index, int line, int column) {
+			super(String.format("%s at line %d, column %d", message, line, column));
+			this.index = index;
+			this.line = line;
+			this.column = column;
+		}
+
+		/**
+		 * @return the character index where the exception occured
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * @return the line where the exception occured
+		 */
+		public int getLine() {
+			return line;
+		}
+
+		/**
+		 * @return the column where the exception occured
+		 */
+		public int getColumn() {
+			return column;
+		}
+	}
+}
@@ -0,0 +1,317 @@
+package org.sevensource.commons.web.filter.minify;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A single pass CSS minifier, which
+ * <ul>
+ *   <li>removes comments
+ *   <li>collapses white space and removes it where it is not significant
+ *   <li>removes the last semicolon of a declaration block
+ *   <li>removes the unit of zero lengths, i.e. <code>0px</code> becomes <code>0</code>
+ *   <li>shortens colours, i.e. <code>#aabbcc</code> becomes <code>#abc</code>
+ * </ul>
+ * Strings and <code>url()</code> values are copied as they are.
+ * Units and colours are only changed in declaration values, never in selectors,
+ * and zero lengths are left alone in custom properties and inside functions like <code>calc()</code>.
+ *
+ * @author pgaschuetz
+ *
+ */
+public final class CssMinifier {
+
+	private static final Set<String> ZERO_UNITS = new HashSet<>(Arrays.asList(
+			"px", "em", "rem", "ex", "ch", "pt", "pc", "cm", "mm", "in", "vh", "vw", "vmin", "vmax"));
+
+	// at-rules, whose block contains declarations instead of rules
+	private static final String[] DECLARATION_AT_RULES = {
+			"@font-face", "@page", "@viewport", "@counter-style", "@property" };
+
+	private final String in;
+	private final int length;
+	private int position = 0;
+
+	private final StringBuilder out;
+
+	// for each open block, whether it contains declarations
+	private final Deque<Boolean> blocks = new ArrayDeque<>();
+
+	// the position in out, where the current selector, at-rule or declaration begins
+	private int statementBegin;
+	private String property = null;
+	private int parenthesesDepth = 0;
+	private boolean pendingWhiteSpace = false;
+
+	private CssMinifier(CharSequence in, StringBuilder out, boolean declarations) {
+		this.in = in.toString();
+		this.length = this.in.length();
+		this.out = out;
+		this.statementBegin = out.length();
+		if (declarations) {
+			blocks.push(Boolean.TRUE);
+		}
+	}
+
+	/**
+	 * @param css a style sheet, i.e. the content of a &lt;style&gt; element
+	 * @return the minified style sheet
+	 */
+	public static String minify(CharSequence css) {
+		final StringBuilder sb = new StringBuilder(css.length());
+		new CssMinifier(css, sb, false).minify();
+		return sb.toString();
+	}
+
+	/**
+	 * @param declarations a list of declarations, i.e. the value of a style attribute
+	 * @return the minified declarations
+	 */
+	public static String minifyDeclarations(CharSequence declarations) {
+		final StringBuilder sb = new StringBuilder(declarations.length());
+		new CssMinifier(declarations, sb, true).minify();
+		removeTrailingSemicolon(sb);
+		return sb.toString();
+	}
+
+	private void minify() {
+		while (position < length) {
+			final char c = in.charAt(position);
+
+			if (c == '/' && position + 1 < length && in.charAt(position + 1) == '*') {
+				skipComment();
+			} else if (isWhiteSpace(c)) {
+				pendingWhiteSpace = true;
+				position++;
+			} else {
+				if (pendingWhiteSpace) {
+					pendingWhiteSpace = false;
+					// white space before the colon of a declaration is not significant, unlike in a selector
+					final boolean declarationColon = c == ':' && isInDeclarationBlock() && !isInValue();
+					if (out.length() > statementBegin && !isSpaceAfter(lastChar()) && !isSpaceBefore(c) && !declarationColon) {
+						out.append(' ');
+					}
+				}
+
+				switch (c) {
+				case '"':
+				case '\'':
+					copyString(c);
+					break;
+				case '{':
+					blocks.push(isDeclarationBlock());
+					append(c);
+					endStatement();
+					break;
+				case '}':
+					removeTrailingSemicolon(out);
+					blocks.poll();
+					append(c);
+					endStatement();
+					break;
+				case ';':
+					if (out.length() > 0 && lastChar() != ';' && lastChar() != '{') {
+						append(c);
+					} else {
+						position++;
+					}
+					endStatement();
+					break;
+				case ':':
+					if (isInDeclarationBlock() && property == null) {
+						property = out.substring(statementBegin).trim().toLowerCase();
+					}
+					append(c);
+					break;
+				case '(':
+					parenthesesDepth++;
+					final boolean url = endsWithUrl();
+					append(c);
+					if (url) {
+						copyUrl();
+					}
+					break;
+				case ')':
+					parenthesesDepth = Math.max(0, parenthesesDepth - 1);
+					append(c);
+					break;
+				case '#':
+					if (!isInValue() || !shortenColour()) {
+						append(c);
+					}
+					break;
+				case '0':
+					if (!isInValue() || !removeZeroUnit()) {
+						append(c);
+					}
+					break;
+				default:
+					append(c);
+				}
+			}
+		}
+	}
+
+	private void append(char c) {
+		out.append(c);
+		position++;
+	}
+
+	private char lastChar() {
+		return out.charAt(out.length() - 1);
+	}
+
+	private void endStatement() {
+		statementBegin = out.length();
+		property = null;
+		parenthesesDepth = 0;
+	}
+
+	private boolean isInDeclarationBlock() {
+		return Boolean.TRUE.equals(blocks.peek());
+	}
+
+	private boolean isInValue() {
+		return property != null;
+	}
+
+	private boolean isDeclarationBlock() {
+		final String prelude = out.substring(statementBegin).trim().toLowerCase();
+		if (prelude.startsWith("@")) {
+			for (String atRule : DECLARATION_AT_RULES) {
+				if (prelude.startsWith(atRule)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return true;
+	}
+
+	private void skipComment() {
+		final int end = in.indexOf("*/", position + 2);
+		position = end < 0 ? length : end + 2;
+		// a comment separates tokens, which must not be glued together, i.e. 1px/**/2px
+		if (out.length() > 0 && position < length && isNameChar(lastChar()) && isNameChar(in.charAt(position))) {
+			pendingWhiteSpace = true;
+		}
+	}
+
+	private void copyString(char quote) {
+		out.append(quote);
+		position++;
+		while (position < length) {
+			final char c = in.charAt(position++);
+			out.append(c);
+			if (c == '\\' && position < length) {
+				out.append(in.charAt(position++));
+			} else if (c == quote || c == '\n') {
+				break;
+			}
+		}
+	}
+
+	private boolean endsWithUrl() {
+		final int l = out.length();
+		return l >= 3 && out.substring(l - 3).equalsIgnoreCase("url");
+	}
+
+	private void copyUrl() {
+		final int end = in.indexOf(')', position);
+		final int urlEnd = end < 0 ? length : end;
+		out.append(in, position, urlEnd);
+		position = urlEnd;
+	}
+
+	/**
+	 * @return true if a six digit colour has been written in its three digit form
+	 */
+	private boolean shortenColour() {
+		final int end = position + 7;
+		if (end > length || (end < length && isNameChar(in.charAt(end)))) {
+			return false;
+		}
+		for (int i = position + 1; i < end; i++) {
+			if (Character.digit(in.charAt(i), 16) < 0) {
+				return false;
+			}
+		}
+		for (int i = position + 1; i < end; i += 2) {
+			if (Character.toLowerCase(in.charAt(i)) != Character.toLowerCase(in.charAt(i + 1))) {
+				return false;
+			}
+		}
+
+		out.append('#').append(in.charAt(position + 1)).append(in.charAt(position + 3)).append(in.charAt(position + 5));
+		position = end;
+		return true;
+	}
+
+	/**
+	 * @return true if a zero length has been written without its unit
+	 */
+	private boolean removeZeroUnit() {
+		if (parenthesesDepth > 0 || property.startsWith("--")) {
+			// math functions like calc() require units, and the value of a custom property
+			// may end up in one through var()
+			return false;
+		} else if (property.equals("flex") || property.endsWith("-flex")) {
+			// the flex shorthand, vendor prefixed or not, keeps the unit of its flex-basis,
+			// as some browsers do not take a unitless zero in it for a length. The flex-basis property is not affected
+			return false;
+		}
+		if (out.length() > 0) {
+			final char previous = lastChar();
+			if (isNameChar(previous) || previous == '.') {
+				return false;
+			}
+		}
+
+		int unitEnd = position + 1;
+		while (unitEnd < length && Character.isLetter(in.charAt(unitEnd))) {
+			unitEnd++;
+		}
+		if (unitEnd == position + 1 || (unitEnd < length && (isNameChar(in.charAt(unitEnd)) || in.charAt(unitEnd) == '.'))) {
+			return false;
+		}
+		if (!ZERO_UNITS.contains(in.substring(position + 1, unitEnd).toLowerCase())) {
+			return false;
+		}
+
+		out.append('0');
+		position = unitEnd;
+		return true;
+	}
+
+	private static void removeTrailingSemicolon(StringBuilder sb) {
+		final int l = sb.length();
+		if (l > 0 && sb.charAt(l - 1) == ';') {
+			sb.setLength(l - 1);
+		}
+	}
+
+	private static boolean isWhiteSpace(char c) {
+		return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f';
+	}
+
+	private static boolean isNameChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '%' || c > 126;
+	}
+
+	/**
+	 * @return true if white space after the given character is not significant
+	 */
+	private static boolean isSpaceAfter(char c) {
+		return c == '{' || c == '}' || c == ';' || c == ',' || c == '>' || c == '(' || c == ':';
+	}
+
+	/**
+	 * @return true if white space before the given character is not significant
+	 */
+	private static boolean isSpaceBefore(char c) {
+		return c == '{' || c == '}' || c == ';' || c == ',' || c == '>' || c == ')' || c == '!';
+	}
+}
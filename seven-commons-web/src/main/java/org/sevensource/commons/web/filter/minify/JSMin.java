@@ -41,7 +41,9 @@ import java.io.PushbackInputStream;
  * @author (Original) John Reilly - Douglas Crockford
  * @author Jordi Hernández Sellés
  * @author ibrahim Chaehoi
+ * @deprecated use {@link CharSequenceJSMin}, which produces the same output without streams
  */
+@Deprecated
 public class JSMin {
 	private static final int EOF = -1;
 
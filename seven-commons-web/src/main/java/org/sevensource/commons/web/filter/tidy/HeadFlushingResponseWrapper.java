@@ -0,0 +1,214 @@
+package org.sevensource.commons.web.filter.tidy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Predicate;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.sevensource.commons.web.servlet.BufferingHttpResponseWrapper;
+import org.sevensource.commons.web.util.SegmentedOutputStream;
+import org.sevensource.commons.web.util.Streams;
+
+/**
+ * A {@link BufferingHttpResponseWrapper}, which processes the documents <i>head</i>
+ * and sends it to the client as soon as the closing head tag has been buffered.
+ * This allows the client to fetch the stylesheets and scripts referenced in <i>head</i>
+ * while the <i>body</i> is still being rendered.
+ * <p>
+ * Everything after the closing head tag stays buffered and is processed once the
+ * response is complete. Closing head tags within comments, scripts and styles are ignored. The response is sent without a Content-Length header
+ * once the head has been flushed.
+ *
+ * @see HtmlTidyProcessor#supportsStreaming()
+ *
+ * @author pgaschuetz
+ *
+ */
+class HeadFlushingResponseWrapper extends BufferingHttpResponseWrapper {
+
+	/**
+	 * the number of bytes buffered before searching for the closing head tag again
+	 */
+	static final int SCAN_INTERVAL = 1024;
+
+	private static final Token HEAD_END_TAG = new Token("</head>");
+	private static final Token COMMENT_START = new Token("<!--");
+	private static final Token COMMENT_END = new Token("-->");
+	private static final Token SCRIPT_START_TAG = new Token("<script");
+	private static final Token SCRIPT_END_TAG = new Token("</script");
+	private static final Token STYLE_START_TAG = new Token("<style");
+	private static final Token STYLE_END_TAG = new Token("</style");
+
+	private final HtmlTidyProcessor processor;
+	private final Predicate<BufferingHttpResponseWrapper> flushCondition;
+
+	private final byte[] scanBuffer = new byte[SCAN_INTERVAL];
+	private int scanned = 0;
+	// the last 8 scanned bytes in lower case, the latest one in the lowest byte
+	private long window = 0;
+	// the token ending the comment, script or style being scanned, null if scanning markup
+	private Token skipUntil = null;
+
+	private boolean scanning = true;
+	private boolean headFlushed = false;
+
+	/**
+	 * @param response the response to wrap
+	 * @param buffer the stream to buffer the response in
+	 * @param processor the processor to process the head with
+	 * @param flushCondition tested once the closing head tag has been found.
+	 * If it does not match, the response is buffered as a whole
+	 */
+	HeadFlushingResponseWrapper(HttpServletResponse response, SegmentedOutputStream buffer,
+			HtmlTidyProcessor processor, Predicate<BufferingHttpResponseWrapper> flushCondition) {
+		super(response, buffer);
+		this.processor = processor;
+		this.flushCondition = flushCondition;
+	}
+
+	@Override
+	protected void bufferUpdated(boolean flush) throws IOException {
+		if (! scanning) {
+			return;
+		}
+
+		final SegmentedOutputStream buffer = getOutputBuffer();
+		if (flush || buffer.size() - scanned >= SCAN_INTERVAL) {
+			final int headEnd = findHeadEnd(buffer);
+			if (headEnd > 0) {
+				scanning = false;
+				if (flushCondition.test(this)) {
+					flushHead(buffer, headEnd);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if the head has already been sent to the client
+	 */
+	boolean isHeadFlushed() {
+		return headFlushed;
+	}
+
+	@Override
+	public void setContentLength(int len) {
+		// the length of the processed response is not known in advance
+	}
+
+	@Override
+	public void setContentLengthLong(long len) {
+		// the length of the processed response is not known in advance
+	}
+
+	/**
+	 * searches the content buffered since the last call for the closing head tag
+	 *
+	 * @param buffer
+	 * @return the position after the closing head tag, or -1 if it has not been buffered yet
+	 * @throws IOException
+	 */
+	private int findHeadEnd(SegmentedOutputStream buffer) throws IOException {
+		try (InputStream is = buffer.getInputStream()) {
+			Streams.skipFully(is, scanned);
+
+			int n;
+			while (-1 != (n = is.read(scanBuffer))) {
+				for (int i = 0; i < n; i++) {
+					if (scan(scanBuffer[i])) {
+						scanned += i + 1;
+						return scanned;
+					}
+				}
+				scanned += n;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param b the next byte of the document
+	 * @return true if the byte completes a closing head tag outside of comments, scripts and styles
+	 */
+	private boolean scan(byte b) {
+		if (b >= 'A' && b <= 'Z') {
+			b += 'a' - 'A';
+		}
+		// tag names are matched once the byte terminating them has been scanned
+		final long preceding = window;
+		window = (window << 8) | (b & 0xff);
+
+		if (skipUntil == COMMENT_END) {
+			if (COMMENT_END.endsWith(window)) {
+				skipUntil = null;
+			}
+		} else if (skipUntil != null) {
+			// the name of an end tag has to be terminated, so that </scripts> does not end a script
+			if (isTagNameEnd(b) && skipUntil.endsWith(preceding)) {
+				skipUntil = null;
+			}
+		} else if (HEAD_END_TAG.endsWith(window)) {
+			return true;
+		} else if (COMMENT_START.endsWith(window)) {
+			skipUntil = COMMENT_END;
+		} else if (isTagNameEnd(b)) {
+			if (SCRIPT_START_TAG.endsWith(preceding)) {
+				skipUntil = SCRIPT_END_TAG;
+			} else if (STYLE_START_TAG.endsWith(preceding)) {
+				skipUntil = STYLE_END_TAG;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isTagNameEnd(byte b) {
+		return b == '>' || b == '/' || b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+	}
+
+	private void flushHead(SegmentedOutputStream buffer, int headEnd) throws IOException {
+		final OutputStream os = getResponse().getOutputStream();
+		try (InputStream head = processor.process(Streams.limit(buffer.getInputStream(), headEnd))) {
+			Streams.copy(head, os);
+		}
+		getResponse().flushBuffer();
+		headFlushed = true;
+
+		// keep buffering everything after the head, which is at most what has been written since the last scan
+		final byte[] tail = new byte[buffer.size() - headEnd];
+		try (InputStream is = buffer.getInputStream()) {
+			Streams.skipFully(is, headEnd);
+			int read = 0;
+			int n;
+			while (read < tail.length && -1 != (n = is.read(tail, read, tail.length - read))) {
+				read += n;
+			}
+		}
+		buffer.reset();
+		buffer.write(tail);
+	}
+
+	/**
+	 * a sequence of up to 8 ASCII bytes, matched against the end of the scan window
+	 */
+	private static final class Token {
+		private final long bytes;
+		private final long mask;
+
+		Token(String token) {
+			final byte[] b = token.getBytes(StandardCharsets.US_ASCII);
+			long value = 0;
+			for (byte c : b) {
+				value = (value << 8) | c;
+			}
+			this.bytes = value;
+			this.mask = b.length == 8 ? -1L : (1L << (b.length * 8)) - 1;
+		}
+
+		boolean endsWith(long window) {
+			return (window & mask) == bytes;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package org.sevensource.commons.web.filter.tidy;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.sevensource.commons.web.util.ConcurrentHistogram;
+
+/**
+ * A {@link TidyInstrumentation} aggregating the time of each stage into a {@link ConcurrentHistogram}
+ * and summing up the sizes of the documents before and after it, so that the cost and the effect
+ * of each stage can be compared.
+ *
+ * <p>Register it as MXBean to read the statistics with JMX.
+ *
+ * @author pgaschuetz
+ */
+public class HistogramTidyInstrumentation implements TidyInstrumentation, HistogramTidyInstrumentationMXBean {
+
+	private final Map<Stage, StageRecorder> recorders = new EnumMap<>(Stage.class);
+
+	public HistogramTidyInstrumentation() {
+		for (Stage stage : Stage.values()) {
+			recorders.put(stage, new StageRecorder());
+		}
+	}
+
+	@Override
+	public void stageCompleted(Stage stage, long nanos, long inputSize, long outputSize) {
+		final StageRecorder recorder = recorders.get(stage);
+		recorder.nanos.record(nanos);
+		if (inputSize >= 0) {
+			recorder.inputSize.add(inputSize);
+		}
+		recorder.outputSize.add(outputSize);
+	}
+
+	@Override
+	public long getDocuments() {
+		return recorders.get(Stage.PARSE).nanos.getCount();
+	}
+
+	@Override
+	public List<StageStatistics> getStages() {
+		final List<StageStatistics> statistics = new ArrayList<>();
+		for (Map.Entry<Stage, StageRecorder> entry : recorders.entrySet()) {
+			final ConcurrentHistogram nanos = entry.getValue().nanos;
+			if (nanos.getCount() > 0) {
+				statistics.add(new StageStatistics(entry.getKey(), nanos,
+						entry.getValue().inputSize.sum(), entry.getValue().outputSize.sum()));
+			}
+		}
+		return statistics;
+	}
+
+	/**
+	 * @param stage a stage
+	 * @return the histogram of the time the given stage took in nanoseconds
+	 */
+	public ConcurrentHistogram getHistogram(Stage stage) {
+		return recorders.get(stage).nanos;
+	}
+
+	@Override
+	public void reset() {
+		for (StageRecorder recorder : recorders.values()) {
+			recorder.nanos.reset();
+			recorder.inputSize.reset();
+			recorder.outputSize.reset();
+		}
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		for (StageStatistics statistics : getStages()) {
+			sb.append(statistics).append('\n');
+		}
+		return sb.toString();
+	}
+
+
+	private static final class StageRecorder {
+		final ConcurrentHistogram nanos = new ConcurrentHistogram();
+		final LongAdder inputSize = new LongAdder();
+		final LongAdder outputSize = new LongAdder();
+	}
+
+	/**
+	 * A snapshot of the statistics of a stage
+	 */
+	public static final class StageStatistics {
+		private final String stage;
+		private final long count;
+		private final double meanNanos;
+		private final long p50Nanos;
+		private final long p90Nanos;
+		private final long p99Nanos;
+		private final long maxNanos;
+		private final long inputSize;
+		private final long outputSize;
+
+		StageStatistics(Stage stage, ConcurrentHistogram nanos, long inputSize, long outputSize) {
+			this.stage = stage.name();
+			this.count = nanos.getCount();
+			this.meanNanos = nanos.getMean();
+			this.p50Nanos = nanos.getValueAtPercentile(50);
+			this.p90Nanos = nanos.getValueAtPercentile(90);
+			this.p99Nanos = nanos.getValueAtPercentile(99);
+			this.maxNanos = nanos.getMax();
+			this.inputSize = inputSize;
+			this.outputSize = outputSize;
+		}
+
+		public String getStage() {
+			return stage;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMeanNanos() {
+			return meanNanos;
+		}
+
+		public long getP50Nanos() {
+			return p50Nanos;
+		}
+
+		public long getP90Nanos() {
+			return p90Nanos;
+		}
+
+		public long getP99Nanos() {
+			return p99Nanos;
+		}
+
+		public long getMaxNanos() {
+			return maxNanos;
+		}
+
+		/**
+		 * @return the summed up size of the documents before the stage
+		 */
+		public long getInputSize() {
+			return inputSize;
+		}
+
+		/**
+		 * @return the summed up size of the documents after the stage
+		 */
+		public long getOutputSize() {
+			return outputSize;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: count=%d, mean=%.0fns, p50=%dns, p90=%dns, p99=%dns, max=%dns, size %d -> %d",
+					stage, count, meanNanos, p50Nanos, p90Nanos, p99Nanos, maxNanos, inputSize, outputSize);
+		}
+	}
+}
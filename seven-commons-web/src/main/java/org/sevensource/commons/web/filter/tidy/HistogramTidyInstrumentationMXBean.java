@@ -0,0 +1,28 @@
+package org.sevensource.commons.web.filter.tidy;
+
+import java.util.List;
+
+import org.sevensource.commons.web.filter.tidy.HistogramTidyInstrumentation.StageStatistics;
+
+/**
+ * The management interface of {@link HistogramTidyInstrumentation}
+ *
+ * @author pgaschuetz
+ */
+public interface HistogramTidyInstrumentationMXBean {
+
+	/**
+	 * @return the number of parsed documents
+	 */
+	long getDocuments();
+
+	/**
+	 * @return the statistics of each stage, which has been completed at least once
+	 */
+	List<StageStatistics> getStages();
+
+	/**
+	 * discards all statistics
+	 */
+	void reset();
+}
@@ -1,19 +1,43 @@
 package org.sevensource.commons.web.filter.tidy;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
 
+import javax.management.ObjectName;
 import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.sevensource.commons.web.filter.AbstractContentChangingFilter;
+import org.sevensource.commons.web.filter.tidy.HtmlTidyProcessor.ProcessingTimeoutException;
 import org.sevensource.commons.web.filter.tidy.HtmlTidyProcessor.TidyProcessorFormatter;
 import org.sevensource.commons.web.filter.tidy.HtmlTidyProcessor.TidyProcessorOption;
 import org.sevensource.commons.web.servlet.BufferingHttpResponseWrapper;
+import org.sevensource.commons.web.util.BoundedExecutor;
+import org.sevensource.commons.web.util.MBeans;
+import org.sevensource.commons.web.util.MappedContentStore;
+import org.sevensource.commons.web.util.Streams;
+import org.sevensource.commons.web.util.UriPatternCounter;
+import org.sevensource.commons.web.util.WeightedLruCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,8 +53,119 @@ public class HtmlTidyFilter extends AbstractContentChangingFilter {
 
 	public static final String OPTIONS_PARAMETER = "options";
 	public static final String FORMATTER_PARAMETER = "formatter";
+	/**
+	 * if true, the documents head is processed and sent to the client as soon as it has been rendered.
+	 * Not supported with options relocating elements into head or removing duplicates.
+	 * The body is processed on its own, so the FORMAT formatter indents it relative to the body
+	 *
+	 * @see HtmlTidyProcessor#supportsStreaming()
+	 */
+	public static final String STREAMING_PARAMETER = "streaming";
+	/**
+	 * the maximum number of processed responses to cache, 0 (the default) disables caching.
+	 * Responses are cached by the digest of their content, so identical responses are processed only once
+	 */
+	public static final String CACHE_MAX_ENTRIES_PARAMETER = "cacheMaxEntries";
+	/**
+	 * the maximum total size in bytes of all cached responses
+	 */
+	public static final String CACHE_MAX_BYTES_PARAMETER = "cacheMaxBytes";
+	/**
+	 * the algorithm of the digest responses are cached and stored by: a {@link MessageDigest} algorithm
+	 * (SHA-256 by default) or CHECKSUM. CHECKSUM combines a CRC32 and an Adler32 checksum with the length
+	 * of the response, which is considerably faster. But two different responses of the same length share
+	 * a key with a probability of roughly 2<sup>-64</sup>, which adds up over many distinct responses,
+	 * and Adler32 is weak for short responses. A collision sends the processed content of one response
+	 * in place of another. CHECKSUM cannot be combined with {@value #STORE_FILE_PARAMETER}, so that a
+	 * collision does not outlive a restart
+	 */
+	public static final String CACHE_KEY_ALGORITHM_PARAMETER = "cacheKeyAlgorithm";
+	/**
+	 * the path of a file to store processed responses in, so that they survive a restart.
+	 * Not set by default, which disables the store.
+	 * Stored responses are written to disk when the filter is destroyed, so only a clean shutdown
+	 * is guaranteed to keep them. After a crash, responses stored since the start may be missing
+	 * and are processed again
+	 *
+	 * @see MappedContentStore
+	 */
+	public static final String STORE_FILE_PARAMETER = "storeFile";
+	/**
+	 * the maximum size in bytes of the store file. The file is extended to this size when it is opened
+	 */
+	public static final String STORE_MAX_BYTES_PARAMETER = "storeMaxBytes";
+	/**
+	 * where responses are processed: NONE (the default) processes them in the request thread,
+	 * PLATFORM in a pool of {@value #EXECUTOR_THREADS_PARAMETER} threads and VIRTUAL in a virtual thread
+	 * per response, which requires Java 21 or later. The request thread is released through the
+	 * async servlet API, so the filter and the servlet have to support async processing
+	 */
+	public static final String EXECUTOR_PARAMETER = "executor";
+	/**
+	 * the number of threads of the PLATFORM executor, the number of processors by default
+	 */
+	public static final String EXECUTOR_THREADS_PARAMETER = "executorThreads";
+	/**
+	 * the maximum number of responses waiting to be processed, twice the number of threads by default.
+	 * Once the executor is saturated, responses are sent as they are instead of waiting.
+	 * For the VIRTUAL executor, the number of threads plus this size limit the number of responses processed at once
+	 */
+	public static final String EXECUTOR_QUEUE_SIZE_PARAMETER = "executorQueueSize";
+	/**
+	 * the time in milliseconds processing a response may take, 0 (the default) for no limit.
+	 * Responses exceeding it are sent as they are and counted by URI pattern
+	 *
+	 * @see HtmlTidyProcessor#process(InputStream, long)
+	 */
+	public static final String PROCESSING_BUDGET_PARAMETER = "processingBudget";
+	/**
+	 * if true, the time and the size of the document are recorded for each stage of processing
+	 * and registered as MXBean of type {@value #INSTRUMENTATION_MBEAN_TYPE} with the filters name and the context path
+	 *
+	 * @see HistogramTidyInstrumentation
+	 */
+	public static final String INSTRUMENTATION_PARAMETER = "instrumentation";
+
+	public static final String INSTRUMENTATION_MBEAN_TYPE = "TidyInstrumentation";
+	/**
+	 * the type of the MXBean the cache of processed responses is registered as, if metrics are enabled
+	 *
+	 * @see #CACHE_MAX_ENTRIES_PARAMETER
+	 * @see #METRICS_PARAMETER
+	 */
+	public static final String CACHE_MBEAN_TYPE = "TidyCache";
+
+	private static final int DEFAULT_CACHE_MAX_BYTES = 16 * 1024 * 1024;
+	private static final int DEFAULT_STORE_MAX_BYTES = 64 * 1024 * 1024;
+	private static final String DEFAULT_CACHE_KEY_ALGORITHM = "SHA-256";
+	private static final String CHECKSUM_CACHE_KEY_ALGORITHM = "CHECKSUM";
+	private static final int MAX_TIMEOUT_PATTERNS = 256;
+
+	private enum ExecutorType {
+		NONE, PLATFORM, VIRTUAL
+	}
 
 	private HtmlTidyProcessor processor;
+	private boolean streaming = false;
+
+	// processed responses keyed by the digest of the unprocessed response.
+	// As the cache belongs to this filter, all entries have been processed with the same options and formatter
+	private WeightedLruCache<ByteBuffer, byte[]> cache;
+	// processed responses keyed by the same digest, which survive a restart.
+	// The digest includes the processor's configuration, as it may change between restarts
+	private MappedContentStore store;
+	private byte[] processorFingerprint;
+	private String cacheKeyAlgorithm = DEFAULT_CACHE_KEY_ALGORITHM;
+
+	private ExecutorService executorService;
+	private BoundedExecutor executor;
+
+	private long processingBudget = 0;
+	private final UriPatternCounter timeouts = new UriPatternCounter(MAX_TIMEOUT_PATTERNS);
+
+	private HistogramTidyInstrumentation instrumentation;
+	private ObjectName instrumentationName;
+	private ObjectName cacheName;
 
 	@Override
 	public void init(FilterConfig filterConfig) throws ServletException {
@@ -39,7 +174,148 @@ public class HtmlTidyFilter extends AbstractContentChangingFilter {
 		final Set<TidyProcessorOption> options = initOptions(filterConfig);
 		final TidyProcessorFormatter formatter = initFormatter(filterConfig);
 
-		this.processor = new HtmlTidyProcessor(options, formatter);
+		final String instrumentationParameter = filterConfig.getInitParameter(INSTRUMENTATION_PARAMETER);
+		if(instrumentationParameter != null && Boolean.parseBoolean(instrumentationParameter.trim())) {
+			this.instrumentation = new HistogramTidyInstrumentation();
+			this.instrumentationName = registerMBean(instrumentation, INSTRUMENTATION_MBEAN_TYPE);
+		}
+
+		this.processor = new HtmlTidyProcessor(options, formatter, getSegmentPool(),
+				instrumentation != null ? instrumentation : TidyInstrumentation.NONE);
+
+		final String streamingParameter = filterConfig.getInitParameter(STREAMING_PARAMETER);
+		this.streaming = streamingParameter != null && Boolean.parseBoolean(streamingParameter.trim());
+		if(streaming && !processor.supportsStreaming()) {
+			logger.warn("Streaming is not supported with options {} - disabling streaming for filter {}", options, getFilterName());
+			this.streaming = false;
+		}
+
+		this.cacheKeyAlgorithm = initCacheKeyAlgorithm(filterConfig);
+
+		final int cacheMaxEntries = getIntInitParameter(filterConfig, CACHE_MAX_ENTRIES_PARAMETER, 0);
+		if(cacheMaxEntries > 0) {
+			final int cacheMaxBytes = getIntInitParameter(filterConfig, CACHE_MAX_BYTES_PARAMETER, DEFAULT_CACHE_MAX_BYTES);
+			this.cache = new WeightedLruCache<>(cacheMaxEntries, cacheMaxBytes, content -> content.length);
+			if(getMetrics() != null) {
+				this.cacheName = registerMBean(cache, CACHE_MBEAN_TYPE);
+			}
+		}
+
+		final String storeFile = filterConfig.getInitParameter(STORE_FILE_PARAMETER);
+		if(storeFile != null && !storeFile.trim().isEmpty()) {
+			if(CHECKSUM_CACHE_KEY_ALGORITHM.equals(cacheKeyAlgorithm)) {
+				logger.error("Cache key algorithm {} cannot be used with a store file in filter {}", cacheKeyAlgorithm, getFilterName());
+				throw new IllegalArgumentException("Cache key algorithm " + cacheKeyAlgorithm + " cannot be used with " + STORE_FILE_PARAMETER);
+			}
+			final int storeMaxBytes = getIntInitParameter(filterConfig, STORE_MAX_BYTES_PARAMETER, DEFAULT_STORE_MAX_BYTES);
+			try {
+				this.store = new MappedContentStore(Paths.get(storeFile.trim()), storeMaxBytes);
+			} catch(IOException e) {
+				throw new ServletException(String.format("Cannot open store file %s for filter %s", storeFile, getFilterName()), e);
+			}
+			if(logger.isInfoEnabled()) {
+				logger.info("Opened {} for filter {}", store, getFilterName());
+			}
+		}
+
+		this.processorFingerprint = fingerprint(processor);
+
+		initExecutor(filterConfig);
+		this.processingBudget = getIntInitParameter(filterConfig, PROCESSING_BUDGET_PARAMETER, 0);
+	}
+
+	private void initExecutor(FilterConfig filterConfig) {
+		ExecutorType type = ExecutorType.NONE;
+		final String executorParameter = filterConfig.getInitParameter(EXECUTOR_PARAMETER);
+		if(executorParameter != null && !executorParameter.trim().isEmpty()) {
+			try {
+				type = ExecutorType.valueOf(executorParameter.trim().toUpperCase(Locale.ENGLISH));
+			} catch(IllegalArgumentException e) {
+				logger.error("No executor with name {}", executorParameter);
+				throw e;
+			}
+		}
+
+		if(type == ExecutorType.NONE) {
+			return;
+		}
+
+		final int threads = getIntInitParameter(filterConfig, EXECUTOR_THREADS_PARAMETER, Runtime.getRuntime().availableProcessors());
+		final int queueSize = getIntInitParameter(filterConfig, EXECUTOR_QUEUE_SIZE_PARAMETER, threads * 2);
+
+		if(type == ExecutorType.VIRTUAL) {
+			this.executorService = newVirtualThreadPerTaskExecutor();
+			if(executorService == null) {
+				logger.warn("Virtual threads are not supported by this JVM - using platform threads for filter {}", getFilterName());
+			}
+		}
+		if(executorService == null) {
+			final AtomicInteger threadNumber = new AtomicInteger();
+			final String threadNamePrefix = getFilterName() + "-";
+			this.executorService = Executors.newFixedThreadPool(threads, runnable -> {
+				final Thread thread = new Thread(runnable, threadNamePrefix + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+
+		this.executor = new BoundedExecutor(executorService, threads + queueSize);
+	}
+
+	/**
+	 * @return an executor starting a virtual thread per task, or null if the JVM does not support them
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch(ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if(cache != null && logger.isInfoEnabled()) {
+			logger.info("Cache statistics for filter {}: {}", getFilterName(), cache);
+		}
+		if(cacheName != null) {
+			MBeans.unregister(cacheName);
+			cacheName = null;
+		}
+		if(processor != null && processor.getProcessorOptions().contains(TidyProcessorOption.MINIFY_SCRIPTS) && logger.isInfoEnabled()) {
+			logger.info("Script minifier statistics: {}, {} characters saved", ScriptMinifier.getCache(), ScriptMinifier.getCharactersSaved());
+		}
+		if(store != null) {
+			if(logger.isInfoEnabled()) {
+				logger.info("Store statistics for filter {}: {}", getFilterName(), store);
+			}
+			try {
+				store.close();
+			} catch(IOException e) {
+				logger.warn("Cannot close store of filter {}", getFilterName(), e);
+			}
+			store = null;
+		}
+		if(timeouts.getTotal() > 0 && logger.isInfoEnabled()) {
+			logger.info("Responses exceeding the processing budget of filter {}: {}", getFilterName(), timeouts);
+		}
+		if(instrumentation != null) {
+			if(logger.isInfoEnabled()) {
+				logger.info("Processing statistics for filter {}:\n{}", getFilterName(), instrumentation);
+			}
+			MBeans.unregister(instrumentationName);
+			instrumentationName = null;
+		}
+		if(executorService != null) {
+			if(logger.isInfoEnabled()) {
+				logger.info("Executor statistics for filter {}: {}", getFilterName(), executor);
+			}
+			executorService.shutdown();
+			executorService = null;
+			executor = null;
+		}
+		super.destroy();
 	}
 
 	private static TidyProcessorFormatter initFormatter(FilterConfig filterConfig) {
@@ -61,6 +337,25 @@ public class HtmlTidyFilter extends AbstractContentChangingFilter {
 		return TidyProcessorFormatter.NONE;
 	}
 
+	private static String initCacheKeyAlgorithm(FilterConfig filterConfig) {
+		String algorithm = filterConfig.getInitParameter(CACHE_KEY_ALGORITHM_PARAMETER);
+		if(algorithm == null || algorithm.trim().isEmpty()) {
+			return DEFAULT_CACHE_KEY_ALGORITHM;
+		}
+
+		algorithm = algorithm.trim();
+		if(CHECKSUM_CACHE_KEY_ALGORITHM.equalsIgnoreCase(algorithm)) {
+			return CHECKSUM_CACHE_KEY_ALGORITHM;
+		}
+		try {
+			MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			logger.error("No MessageDigest algorithm with name {}", algorithm);
+			throw new IllegalArgumentException(e);
+		}
+		return algorithm;
+	}
+
 	private static Set<TidyProcessorOption> initOptions(FilterConfig filterConfig) {
 		final Set<TidyProcessorOption> options = new HashSet<>();
 
@@ -88,8 +383,144 @@ public class HtmlTidyFilter extends AbstractContentChangingFilter {
 	}
 
 
+	@Override
+	protected BufferingHttpResponseWrapper createResponseWrapper(HttpServletRequest request, HttpServletResponse response) {
+		if(streaming) {
+			return new HeadFlushingResponseWrapper(response, createBuffer(), processor,
+					wrapper -> !skipHandleResponse(request, wrapper));
+		}
+		return super.createResponseWrapper(request, response);
+	}
+
 	@Override
 	protected InputStream handleResponse(HttpServletRequest request, BufferingHttpResponseWrapper response) throws IOException {
-		return processor.process(response.getBuffer());
+		final long start = System.nanoTime();
+		final int originalBytes = response.getBufferSize();
+		try {
+			final InputStream processed = process(response);
+			// all streams returned by process know their exact size
+			recordProcessing(request, originalBytes, processed.available(), System.nanoTime() - start);
+			return processed;
+		} catch(ProcessingTimeoutException e) {
+			recordProcessing(request, originalBytes, originalBytes, System.nanoTime() - start);
+			timeouts.increment(request.getRequestURI());
+			if(logger.isDebugEnabled()) {
+				logger.debug("Sending unprocessed response of {}: {}", request.getRequestURI(), e.getMessage());
+			}
+			return response.getBuffer();
+		}
+	}
+
+	private InputStream process(BufferingHttpResponseWrapper response) throws IOException {
+		if(cache == null && store == null) {
+			return processor.process(response.getBuffer(), processingBudget);
+		}
+
+		final ByteBuffer key = cacheKey(response);
+		byte[] processed = cache != null ? cache.get(key) : null;
+		if(processed != null) {
+			return new ByteArrayInputStream(processed);
+		}
+
+		if(store != null) {
+			final InputStream stored = store.get(key);
+			if(stored != null) {
+				return stored;
+			}
+		}
+
+		processed = toByteArray(processor.process(response.getBuffer(), processingBudget));
+		if(cache != null) {
+			cache.put(key, processed);
+		}
+		if(store != null) {
+			store.put(key, processed);
+		}
+		return new ByteArrayInputStream(processed);
+	}
+
+	@Override
+	protected BoundedExecutor getResponseHandlerExecutor() {
+		return executor;
+	}
+
+	/**
+	 * @return the number of responses exceeding the processing budget by URI pattern
+	 */
+	protected UriPatternCounter getTimeouts() {
+		return timeouts;
+	}
+
+	/**
+	 * @return the instrumentation of the processor, or null if it is disabled
+	 */
+	protected HistogramTidyInstrumentation getInstrumentation() {
+		return instrumentation;
+	}
+
+	/**
+	 * @return the cache of processed responses, or null if caching is disabled
+	 */
+	protected WeightedLruCache<ByteBuffer, byte[]> getCache() {
+		return cache;
+	}
+
+	/**
+	 * @return the store of processed responses, or null if it is disabled
+	 */
+	protected MappedContentStore getStore() {
+		return store;
+	}
+
+	private ByteBuffer cacheKey(BufferingHttpResponseWrapper response) throws IOException {
+		if(CHECKSUM_CACHE_KEY_ALGORITHM.equals(cacheKeyAlgorithm)) {
+			final CRC32 crc = new CRC32();
+			crc.update(processorFingerprint, 0, processorFingerprint.length);
+			response.updateChecksum(crc);
+
+			final Adler32 adler = new Adler32();
+			adler.update(processorFingerprint, 0, processorFingerprint.length);
+			response.updateChecksum(adler);
+
+			final ByteBuffer key = ByteBuffer.allocate(12);
+			key.putInt((int) crc.getValue()).putInt((int) adler.getValue()).putInt(response.getBufferSize());
+			key.flip();
+			return key;
+		}
+
+		final MessageDigest messageDigest;
+		try {
+			messageDigest = MessageDigest.getInstance(cacheKeyAlgorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		messageDigest.update(processorFingerprint);
+		response.updateMessageDigest(messageDigest);
+		// ByteBuffer implements equals and hashCode based on its content
+		return ByteBuffer.wrap(messageDigest.digest());
+	}
+
+	/**
+	 * @return the options, the formatter and the version of the processor,
+	 * which determine the output for a given response
+	 */
+	private static byte[] fingerprint(HtmlTidyProcessor processor) {
+		final String version = HtmlTidyProcessor.class.getPackage() != null ?
+				HtmlTidyProcessor.class.getPackage().getImplementationVersion() : null;
+		final String fingerprint = String.format("%s;%s;%s;",
+				new TreeSet<>(processor.getProcessorOptions()), processor.getProcessorFormatter(), version);
+		return fingerprint.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] toByteArray(InputStream is) throws IOException {
+		try {
+			// processed responses are held in memory, so their size is usually known
+			final int remaining = Streams.remaining(is);
+			final ByteArrayOutputStream os = new ByteArrayOutputStream(remaining > 0 ? remaining : 4096);
+			Streams.copy(is, os);
+			return os.toByteArray();
+		} finally {
+			is.close();
+		}
 	}
 }
@@ -4,15 +4,20 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
+import org.sevensource.commons.web.filter.tidy.TidyInstrumentation.Stage;
 import org.sevensource.commons.web.util.FastByteArrayOutputStream;
+import org.sevensource.commons.web.util.SegmentPool;
 
 import net.htmlparser.jericho.MicrosoftConditionalCommentTagTypes;
 import net.htmlparser.jericho.OutputDocument;
+import net.htmlparser.jericho.Segment;
 import net.htmlparser.jericho.Source;
-import net.htmlparser.jericho.SourceCompactor;
 import net.htmlparser.jericho.StartTag;
 import net.htmlparser.jericho.StartTagType;
 import net.htmlparser.jericho.WhiteSpaceRespectingSourceFormatter;
@@ -33,10 +38,12 @@ import net.htmlparser.jericho.WhiteSpaceRespectingSourceFormatter;
  *   	</ul>
  *   <li>Removes duplicated &lt;script&gt;, &lt;link rel=stylesheet&gt; and &lt;style&gt; tags
  *   <li>Removes HTML comments
+ *   <li>Minifies inline scripts, &lt;style&gt; elements and style attributes
  *   <li>compacts or beautifies the resulting document
  *
  * @see TidyProcessorOption
  * @see TidyProcessorFormatter
+ * @see TidyInstrumentation
  *
  * @author pgaschuetz
  *
@@ -51,7 +58,9 @@ public class HtmlTidyProcessor {
 		REMOVE_DUPLICATE_STYLES,
 		RELOCATE_SCRIPTS,
 		REMOVE_DUPLICATE_SCRIPTS,
-		MINIFY_SCRIPTS
+		MINIFY_SCRIPTS,
+		MINIFY_STYLES,
+		MINIFY_STYLE_ATTRIBUTES
 	}
 
 	public enum TidyProcessorFormatter {
@@ -60,10 +69,15 @@ public class HtmlTidyProcessor {
 
 	private final Set<TidyProcessorOption> processorOptions;
 	private final TidyProcessorFormatter processorFormatter;
+	private final SegmentPool segmentPool;
+	private final TidyInstrumentation instrumentation;
+	private final boolean instrumented;
 
 	private final StyleRelocator styleRelocator;
 	private final ScriptRelocator scriptRelocator;
 	private final ScriptMinifier scriptMinifier = new ScriptMinifier();
+	private final StyleMinifier styleMinifier;
+	private final WhiteSpaceCompactor whiteSpaceCompactor = new WhiteSpaceCompactor();
 
 	static {
 		MicrosoftConditionalCommentTagTypes.register();
@@ -71,57 +85,175 @@ public class HtmlTidyProcessor {
 	}
 
 	public HtmlTidyProcessor(Set<TidyProcessorOption> processorOptions, TidyProcessorFormatter processorFormatter) {
+		this(processorOptions, processorFormatter, null);
+	}
+
+	/**
+	 * @param processorOptions the options to apply
+	 * @param processorFormatter the formatter to apply
+	 * @param segmentPool the pool to take output buffers from, may be null.
+	 * If set, the {@link InputStream} returned by {@link #process(InputStream)} must be closed
+	 */
+	public HtmlTidyProcessor(Set<TidyProcessorOption> processorOptions, TidyProcessorFormatter processorFormatter, SegmentPool segmentPool) {
+		this(processorOptions, processorFormatter, segmentPool, TidyInstrumentation.NONE);
+	}
+
+	/**
+	 * @param processorOptions the options to apply
+	 * @param processorFormatter the formatter to apply
+	 * @param segmentPool the pool to take output buffers from, may be null.
+	 * If set, the {@link InputStream} returned by {@link #process(InputStream)} must be closed
+	 * @param instrumentation receives the time and size of each stage of processing a document
+	 */
+	public HtmlTidyProcessor(Set<TidyProcessorOption> processorOptions, TidyProcessorFormatter processorFormatter, SegmentPool segmentPool,
+			TidyInstrumentation instrumentation) {
 		this.processorOptions = processorOptions;
 		this.processorFormatter = processorFormatter;
+		this.segmentPool = segmentPool;
+		this.instrumentation = instrumentation != null ? instrumentation : TidyInstrumentation.NONE;
+		this.instrumented = this.instrumentation != TidyInstrumentation.NONE;
 		this.styleRelocator = new StyleRelocator(this.processorOptions);
 		this.scriptRelocator = new ScriptRelocator(this.processorOptions);
+		this.styleMinifier = new StyleMinifier(this.processorOptions);
 	}
 
 
+	public Set<TidyProcessorOption> getProcessorOptions() {
+		return processorOptions;
+	}
+
+	public TidyProcessorFormatter getProcessorFormatter() {
+		return processorFormatter;
+	}
+
+	public TidyInstrumentation getInstrumentation() {
+		return instrumentation;
+	}
+
+	/**
+	 * The documents head can be processed independently of its body, if no option
+	 * relocates elements into head or needs to see the whole document to remove duplicates.
+	 *
+	 * @return true if the head and the body of a document may be processed separately
+	 */
+	public boolean supportsStreaming() {
+		return !(processorOptions.contains(TidyProcessorOption.RELOCATE_STYLES_TO_HEAD) ||
+				processorOptions.contains(TidyProcessorOption.RELOCATE_STYLESHEETS) ||
+				processorOptions.contains(TidyProcessorOption.REMOVE_DUPLICATE_STYLES) ||
+				processorOptions.contains(TidyProcessorOption.RELOCATE_SCRIPTS) ||
+				processorOptions.contains(TidyProcessorOption.REMOVE_DUPLICATE_SCRIPTS));
+	}
+
+	/**
+	 * @param is the document to process
+	 * @return the processed document, which should be closed after being consumed
+	 * @throws IOException
+	 */
 	public InputStream process(InputStream is) throws IOException {
+		return process(is, 0);
+	}
+
+	/**
+	 * @param is the document to process
+	 * @param budgetMillis the time processing may take in milliseconds, 0 for no limit.
+	 * The time is checked between the stages of processing, so a single stage may exceed it
+	 * @return the processed document, which should be closed after being consumed
+	 * @throws ProcessingTimeoutException if processing has exceeded the budget
+	 * @throws IOException
+	 */
+	public InputStream process(InputStream is, long budgetMillis) throws IOException {
+		final StageTracker tracker = new StageTracker(budgetMillis);
 		final Source source = new Source(is);
-		return doProcess(source);
+		source.fullSequentialParse();
+		tracker.completed(Stage.PARSE, source.getEnd());
+		return doProcess(source, tracker);
 	}
 
-	private InputStream doProcess(Source source) throws IOException {
+	private InputStream doProcess(Source source, StageTracker tracker) throws IOException {
 
 		final OutputDocument outputDocument = new OutputDocument(source);
 
 		if (processorOptions.contains(TidyProcessorOption.REMOVE_COMMENTS)) {
 			removeComments(source, outputDocument);
+			tracker.completed(Stage.REMOVE_COMMENTS, outputDocument, null);
+		}
+
+		// minified elements are collected first, so relocated elements are inserted in their minified form
+		final Map<Segment, CharSequence> replacements = new LinkedHashMap<>();
+
+		if (processorOptions.contains(TidyProcessorOption.MINIFY_SCRIPTS)) {
+			scriptMinifier.minify(source, replacements);
+			tracker.completed(Stage.MINIFY_SCRIPTS, outputDocument, replacements);
+		}
+
+		if (processorOptions.contains(TidyProcessorOption.MINIFY_STYLES) ||
+				processorOptions.contains(TidyProcessorOption.MINIFY_STYLE_ATTRIBUTES)) {
+			styleMinifier.minify(source, replacements);
+			tracker.completed(Stage.MINIFY_STYLES, outputDocument, replacements);
 		}
 
 		if (processorOptions.contains(TidyProcessorOption.RELOCATE_STYLES_TO_HEAD) ||
 				processorOptions.contains(TidyProcessorOption.RELOCATE_STYLESHEETS) ||
 				processorOptions.contains(TidyProcessorOption.REMOVE_DUPLICATE_STYLES)) {
-			styleRelocator.relocate(source, outputDocument);
+			styleRelocator.relocate(source, outputDocument, replacements);
+			tracker.completed(Stage.RELOCATE_STYLES, outputDocument, replacements);
 		}
 
 		if (processorOptions.contains(TidyProcessorOption.RELOCATE_SCRIPTS) ||
 				processorOptions.contains(TidyProcessorOption.REMOVE_DUPLICATE_SCRIPTS)) {
-			scriptRelocator.relocate(source, outputDocument);
+			scriptRelocator.relocate(source, outputDocument, replacements);
+			tracker.completed(Stage.RELOCATE_SCRIPTS, outputDocument, replacements);
 		}
 
-		if (processorOptions.contains(TidyProcessorOption.MINIFY_SCRIPTS)) {
-			scriptMinifier.minify(source, outputDocument);
+		for (Map.Entry<Segment, CharSequence> replacement : replacements.entrySet()) {
+			outputDocument.replace(replacement.getKey(), replacement.getValue());
+		}
+
+		if (processorFormatter == TidyProcessorFormatter.COMPACT) {
+			whiteSpaceCompactor.compact(source, outputDocument);
+			tracker.completed(Stage.COMPACT, outputDocument, null);
 		}
 
 		final int bufferSize = Math.max(source.getEnd() / 10, 1024);
 
-		final FastByteArrayOutputStream os = new FastByteArrayOutputStream(bufferSize);
-		final OutputStreamWriter writer = new OutputStreamWriter(os, StandardCharsets.UTF_8.name());
-		outputDocument.writeTo(writer);
-		writer.flush();
+		final FastByteArrayOutputStream os = createOutputStream(bufferSize);
+		try {
+			final OutputStreamWriter writer = new OutputStreamWriter(os, StandardCharsets.UTF_8.name());
+			outputDocument.writeTo(writer);
+			writer.flush();
+		} catch(IOException | RuntimeException e) {
+			// the pooled segments are only handed back by the releasing input stream
+			os.release();
+			throw e;
+		}
+		tracker.record(Stage.OUTPUT, os.size());
 
 		final long estimatedSize = outputDocument.getEstimatedMaximumOutputLength();
-		return format(os.getInputStream(), estimatedSize);
+		return format(os.getReleasingInputStream(), estimatedSize, tracker);
+	}
+
+	private FastByteArrayOutputStream createOutputStream(int bufferSize) {
+		return segmentPool != null ?
+				new FastByteArrayOutputStream(segmentPool) :
+				new FastByteArrayOutputStream(bufferSize);
 	}
 
-	private InputStream format(InputStream is, long estimatedSize) throws IOException {
-		if(processorFormatter == TidyProcessorFormatter.NONE) {
+	/**
+	 * The FORMAT formatter needs to parse the processed document again,
+	 * whereas COMPACT has already been applied to the original document
+	 */
+	private InputStream format(InputStream is, long estimatedSize, StageTracker tracker) throws IOException {
+		if(processorFormatter != TidyProcessorFormatter.FORMAT) {
 			return is;
 		}
 
+		try {
+			tracker.check(Stage.OUTPUT);
+		} catch(ProcessingTimeoutException e) {
+			is.close();
+			throw e;
+		}
+
 		int bufferSize;
 		if(estimatedSize > Integer.MAX_VALUE || estimatedSize < 1) {
 			bufferSize = 1024*4;
@@ -129,25 +261,29 @@ public class HtmlTidyProcessor {
 			bufferSize = (int) estimatedSize / 10;
 		}
 
-		final Source source = new Source(is);
-		final FastByteArrayOutputStream os = new FastByteArrayOutputStream(bufferSize);
+		final Source source;
+		try {
+			source = new Source(is);
+		} finally {
+			is.close();
+		}
+
+		final FastByteArrayOutputStream os = createOutputStream(bufferSize);
 		final OutputStreamWriter writer = new OutputStreamWriter(os, StandardCharsets.UTF_8.name());
 
 		try {
-			if (processorFormatter == TidyProcessorFormatter.FORMAT) {
-				new WhiteSpaceRespectingSourceFormatter(source)
-					.setIndentString(" ")
-					.setTidyTags(true)
-					.setCollapseWhiteSpace(true)
-					.writeTo(writer);
-			} else if (processorFormatter == TidyProcessorFormatter.COMPACT) {
-				new SourceCompactor(source).writeTo(writer);
-			} else {
-				throw new IllegalArgumentException("Don't know how to handle processorFormatter " + processorFormatter);
-			}
+			new WhiteSpaceRespectingSourceFormatter(source)
+				.setIndentString(" ")
+				.setTidyTags(true)
+				.setCollapseWhiteSpace(true)
+				.writeTo(writer);
 
 			writer.flush();
-			return os.getInputStream();
+			tracker.completed(Stage.FORMAT, os.size());
+			return os.getReleasingInputStream();
+		} catch(IOException | RuntimeException e) {
+			os.release();
+			throw e;
 		} finally {
 			os.close();
 			writer.close();
@@ -165,4 +301,86 @@ public class HtmlTidyProcessor {
 		outputDocument.remove(commentStartTags);
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Thrown if processing a document takes longer than its budget
+	 */
+	public static class ProcessingTimeoutException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		private final String stage;
+
+		ProcessingTimeoutException(String stage, long elapsedMillis, long budgetMillis) {
+			super(String.format("Processing exceeded its budget of %dms after %s (%dms)", budgetMillis, stage, elapsedMillis));
+			this.stage = stage;
+		}
+
+		/**
+		 * @return the stage of processing, after which the budget has been exceeded
+		 */
+		public String getStage() {
+			return stage;
+		}
+	}
+
+	/**
+	 * Tracks the stages of processing a document, to check its budget
+	 * and to report the stages to the instrumentation
+	 */
+	private final class StageTracker {
+		private final long budgetMillis;
+		private final long start;
+		private long stageStart;
+		private long size = -1;
+
+		StageTracker(long budgetMillis) {
+			this.budgetMillis = budgetMillis;
+			this.start = budgetMillis > 0 || instrumented ? System.nanoTime() : 0;
+			this.stageStart = start;
+		}
+
+		/**
+		 * @param replacements pending replacements, may be null
+		 */
+		void completed(Stage stage, OutputDocument outputDocument, Map<Segment, CharSequence> replacements) throws ProcessingTimeoutException {
+			if (instrumented) {
+				record(stage, estimatedSize(outputDocument, replacements));
+			}
+			check(stage);
+		}
+
+		void completed(Stage stage, long outputSize) throws ProcessingTimeoutException {
+			record(stage, outputSize);
+			check(stage);
+		}
+
+		void record(Stage stage, long outputSize) {
+			if (!instrumented) {
+				return;
+			}
+			instrumentation.stageCompleted(stage, System.nanoTime() - stageStart, size, outputSize);
+			size = outputSize;
+			// the instrumentation is not part of the next stage
+			stageStart = System.nanoTime();
+		}
+
+		void check(Stage stage) throws ProcessingTimeoutException {
+			if (budgetMillis <= 0) {
+				return;
+			}
+			final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			if (elapsedMillis > budgetMillis) {
+				throw new ProcessingTimeoutException(stage.getDescription(), elapsedMillis, budgetMillis);
+			}
+		}
+
+		private long estimatedSize(OutputDocument outputDocument, Map<Segment, CharSequence> replacements) {
+			long estimatedSize = outputDocument.getEstimatedMaximumOutputLength();
+			if (replacements != null) {
+				for (Map.Entry<Segment, CharSequence> replacement : replacements.entrySet()) {
+					estimatedSize += replacement.getValue().length() - replacement.getKey().length();
+				}
+			}
+			return estimatedSize;
+		}
+	}
+}
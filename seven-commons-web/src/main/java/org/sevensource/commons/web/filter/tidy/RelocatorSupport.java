@@ -13,7 +13,9 @@ import net.htmlparser.jericho.Attribute;
 import net.htmlparser.jericho.Element;
 import net.htmlparser.jericho.HTMLElementName;
 import net.htmlparser.jericho.OutputDocument;
+import net.htmlparser.jericho.Segment;
 import net.htmlparser.jericho.Source;
+import net.htmlparser.jericho.StartTag;
 
 abstract class RelocatorSupport {
 		
@@ -36,7 +38,13 @@ abstract class RelocatorSupport {
 		END_OF_BODY;
 	}
 	
-	void relocate(Source source, OutputDocument outputDocument) {
+	/**
+	 * @param source
+	 * @param outputDocument
+	 * @param replacements pending replacements of elements, i.e. minified ones.
+	 * Relocated elements are inserted in their replaced form and removed from the map
+	 */
+	void relocate(Source source, OutputDocument outputDocument, Map<Segment, CharSequence> replacements) {
 		final Element head = source.getFirstElement(HTMLElementName.HEAD);
 		final Element body = source.getFirstElement(HTMLElementName.BODY); 
 		
@@ -54,7 +62,7 @@ abstract class RelocatorSupport {
 			final boolean alreadySeen = ctx.removeDuplicates && seen.contains(ctx.contentHash);			
 			seen.add(ctx.contentHash);
 			
-			CharSequence outTag = startTag;
+			CharSequence outTag = replacements.getOrDefault(startTag, startTag);
 			
 			if(! alreadySeen) {
 				if(ctx.relocate && ctx.relocateTo == null) {
@@ -62,24 +70,41 @@ abstract class RelocatorSupport {
 				}
 				
 				if(ctx.removeAsyncDeferAttributes && ctx.hasAsyncOrDefer) {
-					outTag = removeAttributesFromTag(startTag, deferAndAsyncAttrs);
+					outTag = removeAttributesFromTag(startTag, outTag, deferAndAsyncAttrs);
 				}
 			}
 			
 			if(alreadySeen) {
 				outputDocument.remove(startTag);
+				replacements.remove(startTag);
 			} else if(ctx.relocateTo == RelocateLocation.END_OF_HEAD) {
-				outputDocument.insert(head.getEndTag().getBegin() - 1, outTag);
+				outputDocument.insert(head.getEndTag().getBegin(), outTag);
 				outputDocument.remove(startTag);
+				replacements.remove(startTag);
 			} else if(ctx.relocateTo == RelocateLocation.END_OF_BODY) {
-				outputDocument.insert(body.getEndTag().getBegin() - 1, outTag);
+				outputDocument.insert(body.getEndTag().getBegin(), outTag);
 				outputDocument.remove(startTag);
+				replacements.remove(startTag);
 			}
 		}
 	}
 	
 	
-	private static CharSequence removeAttributesFromTag(Element tag, Set<String> attrs) {
+	/**
+	 * @param element the element to remove the attributes from
+	 * @param content the element or its pending replacement, which starts with the original start tag
+	 * @param attrs the names of the attributes to remove
+	 * @return the content with the attributes removed from its start tag
+	 */
+	private static CharSequence removeAttributesFromTag(Element element, CharSequence content, Set<String> attrs) {
+		final StartTag tag = element.getStartTag();
+		final String originalTag = tag.toString();
+		final String originalContent = content.toString();
+		if(! originalContent.startsWith(originalTag)) {
+			// a replacement not keeping the start tag is left as it is, rather than losing its content
+			return content;
+		}
+
 		final Map<String, String> attributesMap = new LinkedHashMap<>();
 		tag.getAttributes().populateMap(attributesMap, false);
 		
@@ -93,7 +118,7 @@ abstract class RelocatorSupport {
 		
 		final OutputDocument tmpOutDoc = new OutputDocument(tag);
 		tmpOutDoc.replace(tag.getAttributes(), attributesMap);
-		final StringBuilder sb = new StringBuilder(tag.getEnd() - tag.getBegin());
+		final StringBuilder sb = new StringBuilder(originalContent.length());
 		
 		try {
 			tmpOutDoc.appendTo(sb);
@@ -101,7 +126,7 @@ abstract class RelocatorSupport {
 			throw new RuntimeException(e);
 		}
 		
-		return sb;
+		return sb.append(originalContent, originalTag.length(), originalContent.length());
 	}
 	
 	private static void buildContextForAsyncAndDefer(Element tag, RelocatorContext ctx) {
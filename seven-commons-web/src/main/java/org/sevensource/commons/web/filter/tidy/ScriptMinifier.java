@@ -1,27 +1,49 @@
 package org.sevensource.commons.web.filter.tidy;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
-import org.sevensource.commons.web.filter.minify.JSMin;
+import org.sevensource.commons.web.filter.minify.CharSequenceJSMin;
+import org.sevensource.commons.web.util.WeightedLruCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.htmlparser.jericho.Element;
 import net.htmlparser.jericho.HTMLElementName;
-import net.htmlparser.jericho.OutputDocument;
+import net.htmlparser.jericho.Segment;
 import net.htmlparser.jericho.Source;
 
 class ScriptMinifier {
 
 	private static final Logger logger = LoggerFactory.getLogger(ScriptMinifier.class);
 
+	// scripts shorter than this are minified on every request
+	static final int MIN_CACHEABLE_LENGTH = 256;
+	static final int CACHE_MAX_ENTRIES = 1024;
+	static final long CACHE_MAX_BYTES = 4 * 1024 * 1024;
+
+	private static final String CACHE_DIGEST_ALGORITHM = "SHA-256";
+
+	// minified scripts keyed by the digest of the original script. Minifying does not depend
+	// on any option, so the cache is shared by all processors in this JVM
+	private static final WeightedLruCache<ByteBuffer, String> cache =
+			new WeightedLruCache<>(CACHE_MAX_ENTRIES, CACHE_MAX_BYTES, minified -> 2 * minified.length());
+
+	private static final LongAdder charactersSaved = new LongAdder();
+
 	ScriptMinifier() {
 	}
 
-	void minify(Source source, OutputDocument outputDocument) {
+	/**
+	 * @param source
+	 * @param replacements receives the minified replacement of each inline script element
+	 */
+	void minify(Source source, Map<Segment, CharSequence> replacements) {
 		final List<Element> elements = source.getAllElements(HTMLElementName.SCRIPT);
 
 		for(Element el : elements) {
@@ -29,23 +51,55 @@ class ScriptMinifier {
 
 			if (src == null || "".equals(src)) {
 				final String content = el.getContent().toString();
-				final String minified = minifyJs(content);
+				final String minified = minifyCached(content);
+				charactersSaved.add(content.length() - minified.length());
 
-				final String result = buildReplacement(el, minified);
-				outputDocument.replace(el, result);
+				replacements.put(el, buildReplacement(el, minified));
 			}
 		}
 	}
 
-	private String minifyJs(String content) {
+	/**
+	 * @return the cache of minified scripts shared by all processors
+	 */
+	static WeightedLruCache<ByteBuffer, String> getCache() {
+		return cache;
+	}
+
+	/**
+	 * @return the number of characters removed by minifying scripts
+	 */
+	static long getCharactersSaved() {
+		return charactersSaved.sum();
+	}
+
+	private String minifyCached(String content) {
+		if (content.length() < MIN_CACHEABLE_LENGTH) {
+			return minifyJs(content);
+		}
+
+		final ByteBuffer key = digest(content);
+		String minified = cache.get(key);
+		if (minified == null) {
+			minified = minifyJs(content);
+			cache.put(key, minified);
+		}
+		return minified;
+	}
+
+	private static ByteBuffer digest(String content) {
 		try {
-			final InputStream is = new ByteArrayInputStream(content.getBytes());
-			final ByteArrayOutputStream os = new ByteArrayOutputStream();
-			final JSMin jsMinAlt = new JSMin(is, os);
-			jsMinAlt.jsmin();
+			final MessageDigest messageDigest = MessageDigest.getInstance(CACHE_DIGEST_ALGORITHM);
+			// ByteBuffer implements equals and hashCode based on its content
+			return ByteBuffer.wrap(messageDigest.digest(content.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
 
-			final String result = new String(os.toByteArray());
-			return result;
+	private String minifyJs(String content) {
+		try {
+			return CharSequenceJSMin.minify(content);
 		} catch(Exception e) {
 			logger.error("Cannot minify javascript", e);
 			return content;
@@ -0,0 +1,68 @@
+package org.sevensource.commons.web.filter.tidy;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.sevensource.commons.web.filter.minify.CssMinifier;
+import org.sevensource.commons.web.filter.tidy.HtmlTidyProcessor.TidyProcessorOption;
+
+import net.htmlparser.jericho.Attribute;
+import net.htmlparser.jericho.Attributes;
+import net.htmlparser.jericho.CharacterReference;
+import net.htmlparser.jericho.Element;
+import net.htmlparser.jericho.HTMLElementName;
+import net.htmlparser.jericho.Segment;
+import net.htmlparser.jericho.Source;
+import net.htmlparser.jericho.StartTag;
+
+class StyleMinifier {
+
+	private final boolean minifyStyles;
+	private final boolean minifyStyleAttributes;
+
+	StyleMinifier(Set<TidyProcessorOption> processorOptions) {
+		this.minifyStyles = processorOptions.contains(TidyProcessorOption.MINIFY_STYLES);
+		this.minifyStyleAttributes = processorOptions.contains(TidyProcessorOption.MINIFY_STYLE_ATTRIBUTES);
+	}
+
+	/**
+	 * @param source
+	 * @param replacements receives the minified replacement of each style element and style attribute
+	 */
+	void minify(Source source, Map<Segment, CharSequence> replacements) {
+		if (minifyStyles) {
+			for (Element el : source.getAllElements(HTMLElementName.STYLE)) {
+				if (el.getEndTag() == null) {
+					continue;
+				}
+				final Segment content = el.getContent();
+				final String minified = CssMinifier.minify(content);
+				if (minified.length() < content.length()) {
+					replacements.put(el, buildReplacement(el, minified));
+				}
+			}
+		}
+
+		if (minifyStyleAttributes) {
+			for (StartTag tag : source.getAllStartTags()) {
+				final Attributes attributes = tag.getAttributes();
+				final Attribute style = attributes != null ? attributes.get("style") : null;
+
+				if (style != null && style.getValue() != null) {
+					final String minified = CharacterReference.encode(CssMinifier.minifyDeclarations(style.getValue()));
+					if (minified.length() < style.getValueSegment().length()) {
+						replacements.put(style, style.getName() + "=\"" + minified + '"');
+					}
+				}
+			}
+		}
+	}
+
+	private static String buildReplacement(Element el, String body) {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(el.getStartTag().toString());
+		sb.append(body);
+		sb.append(el.getEndTag().toString());
+		return sb.toString();
+	}
+}
@@ -0,0 +1,63 @@
+package org.sevensource.commons.web.filter.tidy;
+
+/**
+ * Receives the time and the size of the document for each stage of processing a document
+ * with a {@link HtmlTidyProcessor}. Stages disabled by the processors options are not reported.
+ *
+ * <p>Implementations are called by the thread processing the document and
+ * must be thread-safe, as documents are processed concurrently.
+ *
+ * @see HistogramTidyInstrumentation
+ * @author pgaschuetz
+ */
+public interface TidyInstrumentation {
+
+	/**
+	 * the default, which does not record anything. The processor does not even measure
+	 * the stages of a document with this instrumentation
+	 */
+	TidyInstrumentation NONE = new TidyInstrumentation() {
+		@Override
+		public void stageCompleted(Stage stage, long nanos, long inputSize, long outputSize) {
+			// no-op
+		}
+	};
+
+	/**
+	 * The stages of processing a document, in the order they are applied
+	 */
+	enum Stage {
+		PARSE("parse"),
+		REMOVE_COMMENTS("comment removal"),
+		MINIFY_SCRIPTS("script minification"),
+		MINIFY_STYLES("style minification"),
+		RELOCATE_STYLES("style relocation"),
+		RELOCATE_SCRIPTS("script relocation"),
+		COMPACT("compaction"),
+		OUTPUT("output"),
+		FORMAT("formatting");
+
+		private final String description;
+
+		Stage(String description) {
+			this.description = description;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+	}
+
+	/**
+	 * Called after a stage of processing a document has been completed.
+	 *
+	 * <p>Up to {@link Stage#OUTPUT} the size of the document is its estimated length in characters,
+	 * from then on its size in UTF-8 encoded bytes.
+	 *
+	 * @param stage the completed stage
+	 * @param nanos the time the stage took in nanoseconds
+	 * @param inputSize the size of the document before the stage, -1 for {@link Stage#PARSE}
+	 * @param outputSize the size of the document after the stage
+	 */
+	void stageCompleted(Stage stage, long nanos, long inputSize, long outputSize);
+}
@@ -0,0 +1,93 @@
+package org.sevensource.commons.web.filter.tidy;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.htmlparser.jericho.Element;
+import net.htmlparser.jericho.EndTagType;
+import net.htmlparser.jericho.HTMLElementName;
+import net.htmlparser.jericho.HTMLElements;
+import net.htmlparser.jericho.OutputDocument;
+import net.htmlparser.jericho.Source;
+import net.htmlparser.jericho.StartTag;
+import net.htmlparser.jericho.StartTagType;
+import net.htmlparser.jericho.Tag;
+
+/**
+ * Compacts the white space of a document the way {@link net.htmlparser.jericho.SourceCompactor} does,
+ * but registers its changes with the {@link OutputDocument} of the original {@link Source}.
+ * This way the document does not need to be written and parsed again after it has been processed.
+ * <ul>
+ *   <li>white space following a tag, which is not an inline element, is removed
+ *   <li>any other white space is collapsed into a single space
+ *   <li>the content of &lt;pre&gt;, &lt;textarea&gt;, &lt;script&gt; and &lt;style&gt; is left untouched
+ * </ul>
+ *
+ * @author pgaschuetz
+ *
+ */
+class WhiteSpaceCompactor {
+
+	private static final Set<String> PRESERVE_WHITE_SPACE_ELEMENTS = new HashSet<>(Arrays.asList(
+			HTMLElementName.PRE, HTMLElementName.TEXTAREA, HTMLElementName.SCRIPT, HTMLElementName.STYLE));
+
+	WhiteSpaceCompactor() {
+	}
+
+	void compact(Source source, OutputDocument outputDocument) {
+		int textBegin = 0;
+		boolean afterInlineTag = false;
+
+		for (Tag tag : source.getAllTags()) {
+			if (tag.getBegin() < textBegin) {
+				// nested inside a previous tag or an element whose content is preserved
+				continue;
+			}
+
+			compactText(source, textBegin, tag.getBegin(), afterInlineTag, outputDocument);
+			textBegin = tag.getEnd();
+			afterInlineTag = isInlineTag(tag);
+
+			if (tag instanceof StartTag && PRESERVE_WHITE_SPACE_ELEMENTS.contains(tag.getName())) {
+				final Element element = tag.getElement();
+				if (element.getEndTag() != null) {
+					textBegin = element.getEnd();
+					afterInlineTag = isInlineTag(element.getEndTag());
+				}
+			}
+		}
+
+		compactText(source, textBegin, source.getEnd(), afterInlineTag, outputDocument);
+	}
+
+	private static void compactText(Source source, int begin, int end, boolean afterInlineTag, OutputDocument outputDocument) {
+		int i = begin;
+		while (i < end) {
+			if (! isWhiteSpace(source.charAt(i))) {
+				i++;
+				continue;
+			}
+
+			final int whiteSpaceBegin = i;
+			while (i < end && isWhiteSpace(source.charAt(i))) {
+				i++;
+			}
+
+			if (whiteSpaceBegin == begin && !afterInlineTag) {
+				outputDocument.replace(whiteSpaceBegin, i, "");
+			} else if (i - whiteSpaceBegin > 1 || source.charAt(whiteSpaceBegin) != ' ') {
+				outputDocument.replace(whiteSpaceBegin, i, " ");
+			}
+		}
+	}
+
+	private static boolean isInlineTag(Tag tag) {
+		return (tag.getTagType() == StartTagType.NORMAL || tag.getTagType() == EndTagType.NORMAL) &&
+				HTMLElements.getInlineLevelElementNames().contains(tag.getName());
+	}
+
+	private static boolean isWhiteSpace(char c) {
+		return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f';
+	}
+}
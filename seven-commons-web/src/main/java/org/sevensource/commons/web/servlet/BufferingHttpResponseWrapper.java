@@ -1,10 +1,16 @@
 package org.sevensource.commons.web.servlet;
 
+import java.io.CharConversionException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.function.Predicate;
+import java.util.zip.Checksum;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.WriteListener;
@@ -12,20 +18,50 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
 
 import org.sevensource.commons.web.util.FastByteArrayOutputStream;
+import org.sevensource.commons.web.util.SegmentPool;
+import org.sevensource.commons.web.util.SegmentedOutputStream;
 
 
 public class BufferingHttpResponseWrapper extends HttpServletResponseWrapper {
 
 	private static final int INITIAL_BUFFER_SIZE = 1024;
+	private static final String CONTENT_TYPE_HEADER = "Content-Type";
 
-	private final FastByteArrayOutputStream buffer;
+	private final SegmentedOutputStream buffer;
 
 	private ServletOutputStream servletOutputStream;
 	private PrintWriter writer;
 
+	private int passThroughThreshold = 0;
+	private Predicate<String> bufferedContentTypes = null;
+	private boolean passThroughRequested = false;
+	// the stream of the wrapped response, once passing through
+	private OutputStream passThroughStream;
+
 	public BufferingHttpResponseWrapper(HttpServletResponse response) {
+		this(response, (SegmentPool) null);
+	}
+
+	/**
+	 * @param response the response to wrap
+	 * @param segmentPool the pool to take buffers from, may be null.
+	 * If set, the buffers must be handed back by calling {@link #release()}
+	 */
+	public BufferingHttpResponseWrapper(HttpServletResponse response, SegmentPool segmentPool) {
+		this(response, segmentPool != null ?
+				new FastByteArrayOutputStream(segmentPool) :
+				new FastByteArrayOutputStream(INITIAL_BUFFER_SIZE));
+	}
+
+	/**
+	 * @param response the response to wrap
+	 * @param buffer the stream to buffer the response in, i.e. a
+	 * {@link org.sevensource.commons.web.util.DirectByteBufferOutputStream} to buffer off-heap.
+	 * Pooled buffers must be handed back by calling {@link #release()}
+	 */
+	public BufferingHttpResponseWrapper(HttpServletResponse response, SegmentedOutputStream buffer) {
 		super(response);
-		buffer = new FastByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+		this.buffer = buffer;
 	}
 
 	@Override
@@ -35,33 +71,7 @@ public class BufferingHttpResponseWrapper extends HttpServletResponseWrapper {
 		}
 
 		if (this.servletOutputStream == null) {
-			this.servletOutputStream = new ServletOutputStream() {
-
-				@Override
-				public void write(int b) throws IOException {
-					buffer.write(b);
-				}
-
-				@Override
-				public void flush() throws IOException {
-					buffer.flush();
-				}
-
-				@Override
-				public void close() throws IOException {
-					buffer.close();
-				}
-
-				@Override
-				public boolean isReady() {
-					return true;
-				}
-
-				@Override
-				public void setWriteListener(WriteListener listener) {
-					// no-op - we should never have a reason to call any of the listeners methods
-				}
-			};
+			this.servletOutputStream = new BufferOutputStream();
 		}
 
 		return servletOutputStream;
@@ -74,12 +84,94 @@ public class BufferingHttpResponseWrapper extends HttpServletResponseWrapper {
 		}
 
 		if (this.writer == null) {
-			this.writer = new PrintWriter(new OutputStreamWriter(buffer, getCharacterEncoding()));
+			this.writer = new PrintWriter(new OutputStreamWriter(new BufferOutputStream(), getCharacterEncoding()));
 		}
 
 		return writer;
 	}
 
+	/**
+	 * Stop buffering once the buffered content exceeds the given size. The buffered content is
+	 * written to the wrapped response and everything written afterwards is passed through.
+	 *
+	 * @param passThroughThreshold the maximum number of bytes to buffer, 0 (the default) for no limit
+	 */
+	public void setPassThroughThreshold(int passThroughThreshold) {
+		this.passThroughThreshold = passThroughThreshold;
+	}
+
+	/**
+	 * Stop buffering if a content type not matching the given predicate is set.
+	 *
+	 * @param bufferedContentTypes tests the content types to buffer, null (the default) to buffer all
+	 */
+	public void setBufferedContentTypes(Predicate<String> bufferedContentTypes) {
+		this.bufferedContentTypes = bufferedContentTypes;
+	}
+
+	/**
+	 * @return true if the response is not buffered anymore, but passed through to the wrapped response.
+	 * The buffer does not contain the response then
+	 */
+	public boolean isPassingThrough() {
+		return passThroughRequested || passThroughStream != null;
+	}
+
+	@Override
+	public void setContentType(String type) {
+		super.setContentType(type);
+		checkContentType(type);
+	}
+
+	@Override
+	public void setHeader(String name, String value) {
+		super.setHeader(name, value);
+		if (CONTENT_TYPE_HEADER.equalsIgnoreCase(name)) {
+			checkContentType(value);
+		}
+	}
+
+	@Override
+	public void addHeader(String name, String value) {
+		super.addHeader(name, value);
+		if (CONTENT_TYPE_HEADER.equalsIgnoreCase(name)) {
+			checkContentType(value);
+		}
+	}
+
+	private void checkContentType(String type) {
+		if (type != null && bufferedContentTypes != null && !bufferedContentTypes.test(type)) {
+			// the buffer is written with the next write or flush, as setting a content type cannot fail
+			passThroughRequested = true;
+		}
+	}
+
+	/**
+	 * @return the stream of the wrapped response if passing through, null if buffering
+	 */
+	private OutputStream getPassThroughStream() throws IOException {
+		if (passThroughStream == null && passThroughRequested) {
+			startPassThrough();
+		}
+		return passThroughStream;
+	}
+
+	private void startPassThrough() throws IOException {
+		final OutputStream os = getResponse().getOutputStream();
+		buffer.writeTo(os);
+		buffer.reset();
+		passThroughRequested = true;
+		passThroughStream = os;
+	}
+
+	private void afterWrite() throws IOException {
+		if (passThroughThreshold > 0 && buffer.size() > passThroughThreshold) {
+			startPassThrough();
+		} else {
+			bufferUpdated(false);
+		}
+	}
+
 	@Override
 	public void flushBuffer() throws IOException {
 		if (writer != null) {
@@ -106,16 +198,69 @@ public class BufferingHttpResponseWrapper extends HttpServletResponseWrapper {
 		buffer.reset();
 	}
 
+	/**
+	 * called after content has been written to the buffer.
+	 * The writer returned by {@link #getWriter()} only writes to the buffer when its own buffer is full or it is flushed.
+	 *
+	 * @param flush true if the content was written due to the application flushing its stream or writer
+	 * @throws IOException
+	 */
+	protected void bufferUpdated(boolean flush) throws IOException {
+		// no-op
+	}
+
+	/**
+	 * @return the stream the response is buffered in
+	 */
+	protected SegmentedOutputStream getOutputBuffer() {
+		return buffer;
+	}
+
 	public void writeBufferTo(OutputStream os) throws IOException {
 		close();
 		buffer.writeTo(os);
 	}
 
+	public void writeBufferTo(WritableByteChannel channel) throws IOException {
+		close();
+		buffer.writeTo(channel);
+	}
+
 	public InputStream getBuffer() {
 		close();
 		return buffer.getInputStream();
 	}
 
+	/**
+	 * update the given {@link MessageDigest} with the buffered content
+	 *
+	 * @param messageDigest the message digest to update
+	 * @throws IOException
+	 */
+	public void updateMessageDigest(MessageDigest messageDigest) throws IOException {
+		close();
+		buffer.updateMessageDigest(messageDigest);
+	}
+
+	/**
+	 * update the given {@link Checksum} with the buffered content
+	 *
+	 * @param checksum the checksum to update
+	 * @throws IOException
+	 */
+	public void updateChecksum(Checksum checksum) throws IOException {
+		close();
+		buffer.updateChecksum(checksum);
+	}
+
+	/**
+	 * discards the buffered content and hands pooled buffers back to their pool.
+	 * The buffer must not be accessed afterwards.
+	 */
+	public void release() {
+		buffer.release();
+	}
+
 	private void close() {
 		if (writer != null) {
 			writer.close();
@@ -127,4 +272,87 @@ public class BufferingHttpResponseWrapper extends HttpServletResponseWrapper {
 			}
 		}
 	}
-}
\ No newline at end of file
+
+
+	/**
+	 * the stream handed to the application, writing to the buffer
+	 */
+	private final class BufferOutputStream extends ServletOutputStream {
+
+		@Override
+		public void write(int b) throws IOException {
+			final OutputStream os = getPassThroughStream();
+			if (os != null) {
+				os.write(b);
+				return;
+			}
+			buffer.write(b);
+			afterWrite();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			final OutputStream os = getPassThroughStream();
+			if (os != null) {
+				os.write(b, off, len);
+				return;
+			}
+			buffer.write(b, off, len);
+			afterWrite();
+		}
+
+		@Override
+		public void print(String s) throws IOException {
+			if (s == null) {
+				s = "null";
+			}
+			// ServletOutputStream#print(String) is specified to write ISO-8859-1 only
+			for (int i = 0; i < s.length(); i++) {
+				if (s.charAt(i) > 0xff) {
+					throw new CharConversionException(String.format("Not an ISO 8859-1 character: %c", s.charAt(i)));
+				}
+			}
+			final OutputStream os = getPassThroughStream();
+			if (os != null) {
+				os.write(s.getBytes(StandardCharsets.ISO_8859_1));
+				return;
+			}
+			buffer.write(s, StandardCharsets.ISO_8859_1);
+			afterWrite();
+		}
+
+		@Override
+		public void flush() throws IOException {
+			final OutputStream os = getPassThroughStream();
+			if (os != null) {
+				os.flush();
+				return;
+			}
+			buffer.flush();
+			bufferUpdated(true);
+		}
+
+		@Override
+		public void close() throws IOException {
+			buffer.close();
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener listener) {
+			if (listener == null) {
+				throw new NullPointerException("WriteListener must not be null");
+			}
+			// the buffer is always ready, so the application may write everything at once
+			try {
+				listener.onWritePossible();
+			} catch (IOException | RuntimeException e) {
+				listener.onError(e);
+			}
+		}
+	}
+}
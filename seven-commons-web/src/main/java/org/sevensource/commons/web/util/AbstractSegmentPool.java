@@ -0,0 +1,223 @@
+package org.sevensource.commons.web.util;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, thread-safe pool of fixed-size segments.
+ *
+ * <p>Segments are kept in a small per-thread cache first and in a shared queue
+ * second. The shared queue never holds more than {@code maxSegments} segments -
+ * segments released into a full pool are left to the garbage collector.
+ * Each thread caches up to {@code threadCacheSize} segments on top of that. Thread caches
+ * are not counted, so the segments cached by a thread, which has died, do not occupy the pool.
+ *
+ * <p>Once {@link #close() closed}, the pool stops pooling segments. Segments still cached by
+ * other threads than the closing one are left to the garbage collector along with the pool.
+ *
+ * @param <T> the type of segment
+ *
+ * @author pgaschuetz
+ * @see SegmentPool
+ * @see DirectBufferPool
+ */
+public abstract class AbstractSegmentPool<T> implements SegmentPoolMXBean {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024;
+	public static final int DEFAULT_THREAD_CACHE_SIZE = 4;
+
+	private final int segmentSize;
+	private final int maxSegments;
+	private final int threadCacheSize;
+
+	private final Queue<T> segments = new ConcurrentLinkedQueue<>();
+	private final ThreadLocal<ArrayDeque<T>> threadCache;
+
+	// the number of segments currently held by the shared queue
+	private final AtomicInteger pooledSegments = new AtomicInteger();
+	private volatile boolean closed = false;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder discards = new LongAdder();
+
+
+	/**
+	 * @param segmentSize the size of each segment in bytes
+	 * @param maxSegments the maximum number of segments held by the shared queue of this pool
+	 * @param threadCacheSize the maximum number of segments cached per thread
+	 */
+	protected AbstractSegmentPool(int segmentSize, int maxSegments, int threadCacheSize) {
+		if (segmentSize <= 0) {
+			throw new IllegalArgumentException("segmentSize must be greater than 0");
+		} else if (maxSegments < 0) {
+			throw new IllegalArgumentException("maxSegments must be 0 or greater");
+		} else if (threadCacheSize < 0) {
+			throw new IllegalArgumentException("threadCacheSize must be 0 or greater");
+		}
+
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+		this.threadCacheSize = Math.min(threadCacheSize, maxSegments);
+		this.threadCache = ThreadLocal.withInitial(() -> new ArrayDeque<>(this.threadCacheSize));
+	}
+
+	/**
+	 * Take a segment from the pool or allocate a new one, if the pool is empty
+	 * @return a segment of {@link #getSegmentSize()} bytes with undefined contents
+	 */
+	public T acquire() {
+		T segment = null;
+
+		if (threadCacheSize > 0 && !closed) {
+			segment = threadCache.get().pollFirst();
+		}
+		if (segment == null) {
+			segment = segments.poll();
+			if (segment != null) {
+				pooledSegments.decrementAndGet();
+			}
+		}
+
+		if (segment != null) {
+			hits.increment();
+			return segment;
+		} else {
+			misses.increment();
+			return allocate(segmentSize);
+		}
+	}
+
+	/**
+	 * Return a segment to the pool.
+	 * <p>The segment must not be used by the caller afterwards.
+	 * @param segment a segment previously obtained by {@link #acquire()}
+	 */
+	public void release(T segment) {
+		if (segment == null || capacity(segment) != segmentSize) {
+			throw new IllegalArgumentException("Segment was not acquired from this pool");
+		}
+
+		if (closed) {
+			discards.increment();
+			return;
+		}
+
+		if (threadCacheSize > 0) {
+			final ArrayDeque<T> cache = threadCache.get();
+			if (cache.size() < threadCacheSize) {
+				recycle(segment);
+				cache.addFirst(segment);
+				return;
+			}
+		}
+
+		if (pooledSegments.incrementAndGet() > maxSegments) {
+			pooledSegments.decrementAndGet();
+			discards.increment();
+			return;
+		}
+
+		recycle(segment);
+		segments.offer(segment);
+	}
+
+	/**
+	 * Discard the pooled segments and the thread cache of the calling thread and stop pooling.
+	 * Segments are allocated on every {@link #acquire()} afterwards
+	 */
+	public void close() {
+		closed = true;
+		threadCache.remove();
+		while (segments.poll() != null) {
+			pooledSegments.decrementAndGet();
+		}
+	}
+
+	/**
+	 * allocate a new segment
+	 * @param size the size of the segment in bytes
+	 * @return the new segment
+	 */
+	protected abstract T allocate(int size);
+
+	/**
+	 * @param segment
+	 * @return the capacity of the given segment in bytes
+	 */
+	protected abstract int capacity(T segment);
+
+	/**
+	 * prepare a released segment for being handed out again
+	 * @param segment
+	 */
+	protected void recycle(T segment) {
+	}
+
+	@Override
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+
+	@Override
+	public int getMaxSegments() {
+		return maxSegments;
+	}
+
+	/**
+	 * @return the number of segments currently held by the shared queue of this pool,
+	 * not counting the segments cached by threads
+	 */
+	@Override
+	public int getPooledSegments() {
+		return pooledSegments.get();
+	}
+
+	/**
+	 * @return the ratio of currently pooled segments to {@link #getMaxSegments()}
+	 */
+	@Override
+	public double getOccupancy() {
+		return maxSegments == 0 ? 0d : (double) getPooledSegments() / maxSegments;
+	}
+
+	/**
+	 * @return the number of {@link #acquire()} calls served from the pool
+	 */
+	@Override
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of {@link #acquire()} calls, which had to allocate a new segment
+	 */
+	@Override
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the ratio of {@link #getHitCount()} to all {@link #acquire()} calls
+	 */
+	@Override
+	public double getHitRate() {
+		final long h = getHitCount();
+		final long total = h + getMissCount();
+		return total == 0 ? 0d : (double) h / total;
+	}
+
+	@Override
+	public long getDiscardCount() {
+		return discards.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s[segmentSize=%d, pooled=%d/%d, hitRate=%.2f, discards=%d]",
+				getClass().getSimpleName(), segmentSize, getPooledSegments(), maxSegments, getHitRate(), getDiscardCount());
+	}
+}
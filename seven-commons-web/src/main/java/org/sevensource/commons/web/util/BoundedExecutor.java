@@ -0,0 +1,107 @@
+package org.sevensource.commons.web.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the number of tasks running or waiting in an {@link Executor}.
+ *
+ * <p>Instead of queueing without bounds or blocking the caller, a task is refused
+ * once the limit has been reached, so that the caller can fall back to a cheaper way
+ * of doing its work. The limit applies to any executor, i.e. also to one starting
+ * a new thread per task.
+ *
+ * @author pgaschuetz
+ */
+public class BoundedExecutor {
+
+	private final Executor executor;
+	private final int maxTasks;
+	private final Semaphore permits;
+
+	private final LongAdder executed = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+
+	/**
+	 * @param executor the executor to run tasks in
+	 * @param maxTasks the maximum number of tasks running or waiting to run
+	 */
+	public BoundedExecutor(Executor executor, int maxTasks) {
+		if (executor == null) {
+			throw new IllegalArgumentException("executor must not be null");
+		} else if (maxTasks <= 0) {
+			throw new IllegalArgumentException("maxTasks must be greater than 0");
+		}
+
+		this.executor = executor;
+		this.maxTasks = maxTasks;
+		this.permits = new Semaphore(maxTasks);
+	}
+
+	/**
+	 * Run the given task in the executor, unless the maximum number of tasks has been reached
+	 *
+	 * @param task
+	 * @return true if the task has been handed to the executor, false if it has been refused
+	 */
+	public boolean tryExecute(Runnable task) {
+		if (!permits.tryAcquire()) {
+			rejected.increment();
+			return false;
+		}
+
+		try {
+			executor.execute(() -> {
+				try {
+					task.run();
+				} finally {
+					permits.release();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// i.e. the executor has been shut down
+			permits.release();
+			rejected.increment();
+			return false;
+		}
+
+		executed.increment();
+		return true;
+	}
+
+	/**
+	 * @return the number of tasks currently running or waiting to run
+	 */
+	public int getActiveTasks() {
+		return maxTasks - permits.availablePermits();
+	}
+
+	/**
+	 * @return the maximum number of tasks running or waiting to run
+	 */
+	public int getMaxTasks() {
+		return maxTasks;
+	}
+
+	/**
+	 * @return the number of tasks handed to the executor
+	 */
+	public long getExecutedCount() {
+		return executed.sum();
+	}
+
+	/**
+	 * @return the number of tasks refused
+	 */
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s[active=%d/%d, executed=%d, rejected=%d]",
+				getClass().getSimpleName(), getActiveTasks(), maxTasks, getExecutedCount(), getRejectedCount());
+	}
+}
@@ -0,0 +1,112 @@
+package org.sevensource.commons.web.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * {@link ByteBuffer} related helpers
+ *
+ * @author pgaschuetz
+ *
+ */
+final class ByteBuffers {
+
+	/**
+	 * the public <code>write(ByteBuffer)</code> method of an {@link OutputStream} class, if it has one
+	 */
+	private static final ClassValue<MethodHandle> WRITE_BYTE_BUFFER = new ClassValue<MethodHandle>() {
+		@Override
+		protected MethodHandle computeValue(Class<?> type) {
+			try {
+				final Method method = type.getMethod("write", ByteBuffer.class);
+				return MethodHandles.publicLookup().unreflect(method);
+			} catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+				return null;
+			}
+		}
+	};
+
+	private ByteBuffers() {
+	}
+
+	/**
+	 * Get a channel writing {@link ByteBuffer}s to the given stream as they are.
+	 * <p>The servlet API offers <code>ServletOutputStream.write(ByteBuffer)</code> only from
+	 * version 6.1 on, but several containers' streams have such a method earlier, i.e.
+	 * Jetty's and Tomcat's. These accept direct buffers without copying them onto the heap.
+	 * @param out the stream to write to
+	 * @return a channel writing to the stream, or null if the stream cannot write {@link ByteBuffer}s
+	 */
+	static WritableByteChannel channel(OutputStream out) {
+		if (out instanceof WritableByteChannel) {
+			return (WritableByteChannel) out;
+		}
+		final MethodHandle write = WRITE_BYTE_BUFFER.get(out.getClass());
+		return write != null ? new OutputStreamChannel(out, write) : null;
+	}
+
+	/**
+	 * write all remaining bytes of the given buffers to the channel, using
+	 * gathering writes if the channel supports it
+	 * @param channel the channel to write to
+	 * @param buffers the buffers to write
+	 * @throws IOException
+	 */
+	static void writeFully(WritableByteChannel channel, ByteBuffer[] buffers) throws IOException {
+		if (channel instanceof GatheringByteChannel) {
+			final GatheringByteChannel gatheringChannel = (GatheringByteChannel) channel;
+			int offset = 0;
+			while (offset < buffers.length) {
+				gatheringChannel.write(buffers, offset, buffers.length - offset);
+				while (offset < buffers.length && ! buffers[offset].hasRemaining()) {
+					offset++;
+				}
+			}
+		} else {
+			for (ByteBuffer buffer : buffers) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+		}
+	}
+
+	private static final class OutputStreamChannel implements WritableByteChannel {
+		private final OutputStream out;
+		private final MethodHandle write;
+
+		OutputStreamChannel(OutputStream out, MethodHandle write) {
+			this.out = out;
+			this.write = write;
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			final int remaining = src.remaining();
+			try {
+				write.invoke(out, src);
+			} catch (IOException | RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new IOException(e);
+			}
+			return remaining - src.remaining();
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package org.sevensource.commons.web.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative long values, i.e. latencies in nanoseconds.
+ *
+ * <p>Like an HdrHistogram, values are counted in buckets growing exponentially, each split into
+ * {@value #SUB_BUCKETS} linear sub-buckets, so that percentiles are reported with a relative
+ * error of at most 1/{@value #SUB_BUCKETS} across the whole range of long values in a fixed
+ * amount of memory. Recording a value neither locks nor allocates.
+ *
+ * <p>Recording and reading may happen concurrently, in which case a reading
+ * may include some of the values recorded meanwhile.
+ *
+ * @author pgaschuetz
+ */
+public class ConcurrentHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = Long.SIZE - SUB_BUCKET_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS * SUB_BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+	/**
+	 * @param value the value to record, negative values are recorded as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(index(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * @return the number of recorded values
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return the sum of the recorded values
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * @return the largest recorded value, 0 if none has been recorded
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return the mean of the recorded values, 0 if none has been recorded
+	 */
+	public double getMean() {
+		final long n = getCount();
+		return n == 0 ? 0 : (double) getSum() / n;
+	}
+
+	/**
+	 * @param percentile the percentile between 0 and 100, i.e. 99 for the 99th percentile
+	 * @return the value, which the given percentage of the recorded values do not exceed,
+	 * 0 if none has been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			total += counts.get(i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		final double fraction = Math.min(Math.max(percentile, 0), 100) / 100;
+		final long rank = Math.max(1, (long) Math.ceil(fraction * total));
+
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValue(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * discards all recorded values
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		count.reset();
+		sum.reset();
+		max.reset();
+	}
+
+	/**
+	 * @return the current statistics of this histogram
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+		final int shift = exponent - SUB_BUCKET_BITS;
+		final int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @return the highest value counted in the bucket with the given index
+	 */
+	static long highestValue(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		final int shift = index / SUB_BUCKETS - 1;
+		final long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	@Override
+	public String toString() {
+		return snapshot().toString();
+	}
+
+
+	/**
+	 * The statistics of a histogram at a point in time, i.e. to expose them through JMX
+	 */
+	public static final class Snapshot {
+		private final long count;
+		private final double mean;
+		private final long p50;
+		private final long p90;
+		private final long p99;
+		private final long p999;
+		private final long max;
+
+		Snapshot(ConcurrentHistogram histogram) {
+			this.count = histogram.getCount();
+			this.mean = histogram.getMean();
+			this.p50 = histogram.getValueAtPercentile(50);
+			this.p90 = histogram.getValueAtPercentile(90);
+			this.p99 = histogram.getValueAtPercentile(99);
+			this.p999 = histogram.getValueAtPercentile(99.9);
+			this.max = histogram.getMax();
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMean() {
+			return mean;
+		}
+
+		public long getP50() {
+			return p50;
+		}
+
+		public long getP90() {
+			return p90;
+		}
+
+		public long getP99() {
+			return p99;
+		}
+
+		public long getP999() {
+			return p999;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("count=%d, mean=%.1f, p50=%d, p90=%d, p99=%d, p99.9=%d, max=%d",
+					count, mean, p50, p90, p99, p999, max);
+		}
+	}
+}
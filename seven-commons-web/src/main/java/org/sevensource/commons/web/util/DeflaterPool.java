@@ -0,0 +1,111 @@
+package org.sevensource.commons.web.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+/**
+ * A bounded, thread-safe pool of {@link Deflater}s producing raw deflate data
+ * with the same compression level.
+ *
+ * <p>A {@link Deflater} holds native memory, which is only freed by {@link Deflater#end()}
+ * or the finalizer. Pooling them avoids allocating and freeing this memory for every response.
+ *
+ * @author pgaschuetz
+ * @see PooledGzipOutputStream
+ */
+public class DeflaterPool {
+
+	private final int level;
+	private final int maxDeflaters;
+
+	private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pooledDeflaters = new AtomicInteger();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param level the compression level, 0-9 or {@link Deflater#DEFAULT_COMPRESSION}
+	 * @param maxDeflaters the maximum number of deflaters held by this pool
+	 */
+	public DeflaterPool(int level, int maxDeflaters) {
+		if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+			throw new IllegalArgumentException("level must be between 0 and 9 or " + Deflater.DEFAULT_COMPRESSION);
+		} else if (maxDeflaters < 0) {
+			throw new IllegalArgumentException("maxDeflaters must be 0 or greater");
+		}
+
+		this.level = level;
+		this.maxDeflaters = maxDeflaters;
+	}
+
+	/**
+	 * Take a deflater from the pool or create a new one, if the pool is empty
+	 * @return a deflater ready to compress new data
+	 */
+	public Deflater acquire() {
+		final Deflater deflater = deflaters.poll();
+		if (deflater != null) {
+			pooledDeflaters.decrementAndGet();
+			hits.increment();
+			return deflater;
+		}
+
+		misses.increment();
+		// nowrap, as the gzip header and trailer are written by the caller
+		return new Deflater(level, true);
+	}
+
+	/**
+	 * Return a deflater to the pool. Deflaters released into a full pool are ended.
+	 * <p>The deflater must not be used by the caller afterwards.
+	 * @param deflater a deflater previously obtained by {@link #acquire()}
+	 */
+	public void release(Deflater deflater) {
+		if (pooledDeflaters.incrementAndGet() > maxDeflaters) {
+			pooledDeflaters.decrementAndGet();
+			deflater.end();
+			return;
+		}
+
+		deflater.reset();
+		deflaters.offer(deflater);
+	}
+
+	/**
+	 * @return the compression level of the pooled deflaters
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return the number of deflaters currently held by this pool
+	 */
+	public int getPooledDeflaters() {
+		return pooledDeflaters.get();
+	}
+
+	/**
+	 * @return the number of times a deflater has been taken from the pool
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of times a new deflater had to be created
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s[level=%d, pooled=%d/%d, hits=%d, misses=%d]",
+				getClass().getSimpleName(), level, getPooledDeflaters(), maxDeflaters, getHitCount(), getMissCount());
+	}
+}
@@ -0,0 +1,50 @@
+package org.sevensource.commons.web.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A bounded, thread-safe pool of fixed-size direct {@link ByteBuffer} segments,
+ * used by {@link DirectByteBufferOutputStream} to keep buffered content off the heap.
+ *
+ * <p>Direct buffers are expensive to allocate and are only freed once their
+ * owning object is garbage collected, so the pool should be sized to cover the
+ * expected number of concurrently buffered bytes.
+ *
+ * @author pgaschuetz
+ * @see AbstractSegmentPool
+ */
+public class DirectBufferPool extends AbstractSegmentPool<ByteBuffer> {
+
+	/**
+	 * Create a new <code>DirectBufferPool</code> with segments of {@value #DEFAULT_SEGMENT_SIZE} bytes
+	 * @param maxSegments the maximum number of segments held by the shared queue of this pool
+	 */
+	public DirectBufferPool(int maxSegments) {
+		this(DEFAULT_SEGMENT_SIZE, maxSegments, DEFAULT_THREAD_CACHE_SIZE);
+	}
+
+	/**
+	 * Create a new <code>DirectBufferPool</code>
+	 * @param segmentSize the size of each segment in bytes
+	 * @param maxSegments the maximum number of segments held by the shared queue of this pool
+	 * @param threadCacheSize the maximum number of segments cached per thread
+	 */
+	public DirectBufferPool(int segmentSize, int maxSegments, int threadCacheSize) {
+		super(segmentSize, maxSegments, threadCacheSize);
+	}
+
+	@Override
+	protected ByteBuffer allocate(int size) {
+		return ByteBuffer.allocateDirect(size);
+	}
+
+	@Override
+	protected int capacity(ByteBuffer segment) {
+		return segment.capacity();
+	}
+
+	@Override
+	protected void recycle(ByteBuffer segment) {
+		segment.clear();
+	}
+}
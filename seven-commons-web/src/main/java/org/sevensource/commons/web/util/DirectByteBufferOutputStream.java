@@ -0,0 +1,276 @@
+package org.sevensource.commons.web.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link SegmentedOutputStream} backed by pooled, direct {@link ByteBuffer}s,
+ * which keeps the buffered content off the heap.
+ *
+ * <p>Content can be written to a {@link WritableByteChannel} without copying it
+ * onto the heap first. So can content written to an {@link OutputStream}, which has a public
+ * <code>write(ByteBuffer)</code> method, as the output streams of Servlet 6.1 containers and
+ * of Jetty and Tomcat. Other {@link OutputStream}s get the content copied through a small
+ * intermediate {@code byte[]}.
+ *
+ * <p>The buffers must be handed back to the pool by calling {@link #release()}.
+ *
+ * @author pgaschuetz
+ * @see DirectBufferPool
+ */
+public class DirectByteBufferOutputStream extends SegmentedOutputStream {
+
+	private static final int TRANSFER_BUFFER_SIZE = 8 * 1024;
+
+	private final DirectBufferPool pool;
+
+	// The segments used to store the content bytes, each positioned after its last byte
+	private final List<ByteBuffer> buffers = new ArrayList<>();
+
+	// The number of bytes in all but the last segment
+	private int alreadyBufferedSize = 0;
+
+	private boolean closed = false;
+
+
+	/**
+	 * Create a new <code>DirectByteBufferOutputStream</code>
+	 * taking its buffers from the given {@link DirectBufferPool}.
+	 * @param pool the pool to take buffers from
+	 */
+	public DirectByteBufferOutputStream(DirectBufferPool pool) {
+		if (pool == null) {
+			throw new IllegalArgumentException("DirectBufferPool must not be null");
+		}
+		this.pool = pool;
+	}
+
+
+	@Override
+	public void write(int datum) throws IOException {
+		final ByteBuffer segment = writableSegment(1);
+		segment.put((byte) datum);
+		segmentWritten(segment);
+	}
+
+	@Override
+	public void write(byte[] data, int offset, int length) throws IOException {
+		if (offset < 0 || offset + length > data.length || length < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		while (length > 0) {
+			final ByteBuffer segment = writableSegment(length);
+			final int copyLength = Math.min(length, segment.remaining());
+			segment.put(data, offset, copyLength);
+			segmentWritten(segment);
+			offset += copyLength;
+			length -= copyLength;
+		}
+	}
+
+	@Override
+	protected ByteBuffer writableSegment(int minCapacity) throws IOException {
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+		if (this.buffers.isEmpty() || ! last().hasRemaining()) {
+			if (! this.buffers.isEmpty()) {
+				this.alreadyBufferedSize += last().position();
+			}
+			this.buffers.add(this.pool.acquire());
+		}
+		return last().duplicate();
+	}
+
+	@Override
+	protected void segmentWritten(ByteBuffer segment) {
+		last().position(segment.position());
+	}
+
+	@Override
+	public void close() {
+		this.closed = true;
+	}
+
+	@Override
+	public int size() {
+		return this.buffers.isEmpty() ? 0 : this.alreadyBufferedSize + last().position();
+	}
+
+	@Override
+	public void reset() {
+		for (ByteBuffer buffer : this.buffers) {
+			this.pool.release(buffer);
+		}
+		this.buffers.clear();
+		this.alreadyBufferedSize = 0;
+		this.closed = false;
+	}
+
+	@Override
+	public void release() {
+		reset();
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return new DirectByteBufferInputStream(this, false);
+	}
+
+	@Override
+	public InputStream getReleasingInputStream() {
+		return new DirectByteBufferInputStream(this, true);
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		final WritableByteChannel channel = ByteBuffers.channel(out);
+		if (channel != null) {
+			writeTo(channel);
+			return;
+		}
+
+		final byte[] transferBuffer = new byte[Math.min(TRANSFER_BUFFER_SIZE, Math.max(size(), 1))];
+		for (ByteBuffer buffer : readableBuffers()) {
+			while (buffer.hasRemaining()) {
+				final int length = Math.min(transferBuffer.length, buffer.remaining());
+				buffer.get(transferBuffer, 0, length);
+				out.write(transferBuffer, 0, length);
+			}
+		}
+	}
+
+	@Override
+	public void writeTo(WritableByteChannel channel) throws IOException {
+		ByteBuffers.writeFully(channel, readableBuffers());
+	}
+
+	private ByteBuffer last() {
+		return this.buffers.get(this.buffers.size() - 1);
+	}
+
+	/**
+	 * @return independent, readable views of all segments
+	 */
+	private ByteBuffer[] readableBuffers() {
+		final ByteBuffer[] readable = new ByteBuffer[this.buffers.size()];
+		for (int i = 0; i < readable.length; i++) {
+			readable[i] = (ByteBuffer) this.buffers.get(i).duplicate().flip();
+		}
+		return readable;
+	}
+
+
+	/**
+	 * An implementation of {@link java.io.InputStream} that reads from a given
+	 * <code>DirectByteBufferOutputStream</code>.
+	 */
+	private static final class DirectByteBufferInputStream extends UpdateMessageDigestInputStream {
+
+		private final DirectByteBufferOutputStream outputStream;
+		private final boolean releaseOnClose;
+
+		private final ByteBuffer[] buffers;
+		private int currentBuffer = 0;
+
+		DirectByteBufferInputStream(DirectByteBufferOutputStream outputStream, boolean releaseOnClose) {
+			this.outputStream = outputStream;
+			this.releaseOnClose = releaseOnClose;
+			this.buffers = outputStream.readableBuffers();
+		}
+
+		/**
+		 * @return the buffer to read from next, or null if the stream is exhausted
+		 */
+		private ByteBuffer current() {
+			while (this.currentBuffer < this.buffers.length) {
+				final ByteBuffer buffer = this.buffers[this.currentBuffer];
+				if (buffer.hasRemaining()) {
+					return buffer;
+				}
+				this.buffers[this.currentBuffer++] = null;
+			}
+			return null;
+		}
+
+		@Override
+		public int read() {
+			final ByteBuffer buffer = current();
+			return buffer == null ? -1 : (buffer.get() & 0xff);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (off < 0 || len < 0 || len > b.length - off) {
+				throw new IndexOutOfBoundsException();
+			}
+			else if (len == 0) {
+				return 0;
+			}
+
+			int bytesRead = 0;
+			ByteBuffer buffer;
+			while (bytesRead < len && (buffer = current()) != null) {
+				final int length = Math.min(len - bytesRead, buffer.remaining());
+				buffer.get(b, off + bytesRead, length);
+				bytesRead += length;
+			}
+			return bytesRead == 0 ? -1 : bytesRead;
+		}
+
+		@Override
+		public long skip(long n) {
+			long skipped = 0;
+			ByteBuffer buffer;
+			while (skipped < n && (buffer = current()) != null) {
+				final int length = (int) Math.min(n - skipped, buffer.remaining());
+				buffer.position(buffer.position() + length);
+				skipped += length;
+			}
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			int available = 0;
+			for (int i = this.currentBuffer; i < this.buffers.length; i++) {
+				available += this.buffers[i].remaining();
+			}
+			return available;
+		}
+
+		/**
+		 * Passes views of the remaining bytes of the segments without copying them
+		 */
+		@Override
+		protected void readSegments(int len, SegmentConsumer consumer) throws IOException {
+			if (len < 0) {
+				throw new IllegalArgumentException("len must be 0 or greater: " + len);
+			}
+
+			int remaining = len;
+			ByteBuffer buffer;
+			while (remaining > 0 && (buffer = current()) != null) {
+				final int length = Math.min(remaining, buffer.remaining());
+				final ByteBuffer segment = buffer.duplicate();
+				segment.limit(segment.position() + length);
+				consumer.accept(segment);
+				buffer.position(buffer.position() + length);
+				remaining -= length;
+			}
+		}
+
+		@Override
+		public void close() {
+			if (this.releaseOnClose) {
+				this.currentBuffer = this.buffers.length;
+				this.outputStream.release();
+			}
+		}
+	}
+}
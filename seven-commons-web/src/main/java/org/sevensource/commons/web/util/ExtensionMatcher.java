@@ -0,0 +1,128 @@
+package org.sevensource.commons.web.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Matches the file extension of a request URI against a fixed set of extensions, case-insensitively.
+ *
+ * <p>The extensions are kept in a trie of their reversed characters, so a URI is matched by walking
+ * its last path segment backwards once, up to the last dot, without allocating.
+ *
+ * @author pgaschuetz
+ */
+public class ExtensionMatcher {
+
+	private final Node root = new Node();
+	private final Set<String> extensions;
+
+	/**
+	 * @param extensions the extensions to match, with or without a leading dot
+	 */
+	public ExtensionMatcher(Collection<String> extensions) {
+		final Set<String> normalized = new TreeSet<>();
+		for (String extension : extensions) {
+			String e = extension.trim().toLowerCase(Locale.ENGLISH);
+			if (e.startsWith(".")) {
+				e = e.substring(1);
+			}
+			if (e.isEmpty() || e.indexOf('.') >= 0 || e.indexOf('/') >= 0) {
+				throw new IllegalArgumentException(String.format("Not a file extension: '%s'", extension));
+			}
+			normalized.add(e);
+		}
+
+		for (String extension : normalized) {
+			Node node = root;
+			for (int i = extension.length() - 1; i >= 0; i--) {
+				node = node.add(extension.charAt(i));
+			}
+			node.terminal = true;
+		}
+		this.extensions = Collections.unmodifiableSet(normalized);
+	}
+
+	/**
+	 * @param extensions a comma separated list of extensions
+	 * @return a matcher for the given extensions
+	 */
+	public static ExtensionMatcher parse(String extensions) {
+		final Collection<String> list = new ArrayList<>();
+		for (String extension : extensions.split(",")) {
+			if (!extension.trim().isEmpty()) {
+				list.add(extension);
+			}
+		}
+		return new ExtensionMatcher(list);
+	}
+
+	/**
+	 * @param uri a request URI without query string
+	 * @return true if the last path segment of the URI ends with a dot followed by one of the extensions
+	 */
+	public boolean matches(String uri) {
+		if (uri == null) {
+			return false;
+		}
+
+		Node node = root;
+		for (int i = uri.length() - 1; i >= 0; i--) {
+			final char c = uri.charAt(i);
+			if (c == '.') {
+				return node.terminal;
+			} else if (c == '/') {
+				return false;
+			}
+			node = node.child(Character.toLowerCase(c));
+			if (node == null) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the lowercase extensions matched, without leading dot
+	 */
+	public Set<String> getExtensions() {
+		return extensions;
+	}
+
+	@Override
+	public String toString() {
+		return extensions.toString();
+	}
+
+
+	private static final class Node {
+		private char[] keys = new char[0];
+		private Node[] children = new Node[0];
+		boolean terminal;
+
+		Node child(char c) {
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] == c) {
+					return children[i];
+				}
+			}
+			return null;
+		}
+
+		Node add(char c) {
+			Node child = child(c);
+			if (child == null) {
+				child = new Node();
+				keys = Arrays.copyOf(keys, keys.length + 1);
+				children = Arrays.copyOf(children, children.length + 1);
+				keys[keys.length - 1] = c;
+				children[children.length - 1] = child;
+			}
+			return child;
+		}
+	}
+}
@@ -19,7 +19,9 @@ package org.sevensource.commons.web.util;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.security.MessageDigest;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -37,13 +39,16 @@ import java.util.LinkedList;
  * There is also no copying of the internal buffer if its contents is extracted
  * with the {@link #writeTo(OutputStream)} method.
  *
+ * <p>If created with a {@link SegmentPool}, all buffers are fixed-size segments
+ * taken from the pool, which are handed back on {@link #release()} or {@link #reset()}.
+ *
  * @author Craig Andrews
  * @author Juergen Hoeller
  * @since 4.2
  * @see #resize
  * @see ResizableByteArrayOutputStream
  */
-public class FastByteArrayOutputStream extends OutputStream {
+public class FastByteArrayOutputStream extends SegmentedOutputStream {
 
 	private static final int DEFAULT_BLOCK_SIZE = 256;
 
@@ -67,6 +72,13 @@ public class FastByteArrayOutputStream extends OutputStream {
 	// Is the stream closed?
 	private boolean closed = false;
 
+	// The pool to take buffers from, or null
+	private final SegmentPool pool;
+
+	// Is the first buffer not taken from the pool? (i.e. created by resize)
+	private boolean firstBufferUnpooled = false;
+
+
 
 	/**
 	 * Create a new <code>FastByteArrayOutputStream</code>
@@ -85,6 +97,20 @@ public class FastByteArrayOutputStream extends OutputStream {
 		Assert.isTrue(initialBlockSize > 0, "Initial block size must be greater than 0");
 		this.initialBlockSize = initialBlockSize;
 		this.nextBlockSize = initialBlockSize;
+		this.pool = null;
+	}
+
+	/**
+	 * Create a new <code>FastByteArrayOutputStream</code>
+	 * taking its buffers from the given {@link SegmentPool}.
+	 * <p>The buffers must be handed back to the pool by calling {@link #release()}.
+	 * @param pool the pool to take buffers from
+	 */
+	public FastByteArrayOutputStream(SegmentPool pool) {
+		Assert.isTrue(pool != null, "SegmentPool must not be null");
+		this.initialBlockSize = pool.getSegmentSize();
+		this.nextBlockSize = pool.getSegmentSize();
+		this.pool = pool;
 	}
 
 
@@ -141,6 +167,23 @@ public class FastByteArrayOutputStream extends OutputStream {
 		}
 	}
 
+	@Override
+	protected ByteBuffer writableSegment(int minCapacity) throws IOException {
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+		if (this.buffers.peekLast() == null || this.buffers.getLast().length == this.index) {
+			addBuffer(minCapacity);
+		}
+		final byte[] current = this.buffers.getLast();
+		return ByteBuffer.wrap(current, this.index, current.length - this.index);
+	}
+
+	@Override
+	protected void segmentWritten(ByteBuffer segment) {
+		this.index = segment.position();
+	}
+
 	@Override
 	public void close() {
 		this.closed = true;
@@ -214,8 +257,10 @@ public class FastByteArrayOutputStream extends OutputStream {
 	 * Reset the contents of this <code>FastByteArrayOutputStream</code>.
 	 * <p>All currently accumulated output in the output stream is discarded.
 	 * The output stream can be used again.
+	 * <p>If this stream uses a {@link SegmentPool}, its buffers are returned to the pool.
 	 */
 	public void reset() {
+		releaseBuffers();
 		this.buffers.clear();
 		this.nextBlockSize = this.initialBlockSize;
 		this.closed = false;
@@ -223,6 +268,17 @@ public class FastByteArrayOutputStream extends OutputStream {
 		this.alreadyBufferedSize = 0;
 	}
 
+	/**
+	 * Release the contents of this <code>FastByteArrayOutputStream</code>.
+	 * <p>If this stream uses a {@link SegmentPool}, its buffers are returned to
+	 * the pool and must not be accessed any longer - neither directly, nor
+	 * through an {@link InputStream} obtained by {@link #getInputStream()}.
+	 * <p>Equivalent to {@link #reset()}.
+	 */
+	public void release() {
+		reset();
+	}
+
 	/**
 	 * Get an {@link InputStream} to retrieve the data in this OutputStream.
 	 * <p>Note that if any methods are called on the OutputStream
@@ -232,7 +288,17 @@ public class FastByteArrayOutputStream extends OutputStream {
 	 * @return {@link InputStream} of the contents of this OutputStream
 	 */
 	public InputStream getInputStream() {
-		return new FastByteArrayInputStream(this);
+		return new FastByteArrayInputStream(this, false);
+	}
+
+	/**
+	 * Get an {@link InputStream} to retrieve the data in this OutputStream,
+	 * which {@link #release() releases} this OutputStream when being closed.
+	 * @return {@link InputStream} of the contents of this OutputStream
+	 * @see #getInputStream()
+	 */
+	public InputStream getReleasingInputStream() {
+		return new FastByteArrayInputStream(this, true);
 	}
 
 	/**
@@ -252,6 +318,23 @@ public class FastByteArrayOutputStream extends OutputStream {
 		}
 	}
 
+	/**
+	 * Write the buffers content to the given channel.
+	 * <p>Uses a single gathering write, if the channel is a {@link GatheringByteChannel}.
+	 * @param channel the channel to write to
+	 */
+	@Override
+	public void writeTo(WritableByteChannel channel) throws IOException {
+		final ByteBuffer[] byteBuffers = new ByteBuffer[this.buffers.size()];
+		int i = 0;
+		Iterator<byte[]> it = this.buffers.iterator();
+		while (it.hasNext()) {
+			byte[] bytes = it.next();
+			byteBuffers[i++] = ByteBuffer.wrap(bytes, 0, it.hasNext() ? bytes.length : this.index);
+		}
+		ByteBuffers.writeFully(channel, byteBuffers);
+	}
+
 	/**
 	 * Resize the internal buffer size to a specified capacity.
 	 * @param targetCapacity the desired size of the buffer
@@ -282,22 +365,46 @@ public class FastByteArrayOutputStream extends OutputStream {
 					System.arraycopy(bytes, 0, data, pos, this.index);
 				}
 			}
+			releaseBuffers();
 			this.buffers.clear();
 			this.buffers.add(data);
+			this.firstBufferUnpooled = (this.pool != null);
 			this.index = totalSize;
 			this.alreadyBufferedSize = 0;
 		}
 	}
 
+	/**
+	 * Hand the buffers back to the pool, if this stream uses one
+	 */
+	private void releaseBuffers() {
+		if (this.pool != null) {
+			Iterator<byte[]> it = this.buffers.iterator();
+			if (this.firstBufferUnpooled && it.hasNext()) {
+				it.next();
+			}
+			while (it.hasNext()) {
+				this.pool.release(it.next());
+			}
+			this.firstBufferUnpooled = false;
+		}
+	}
+
 	/**
 	 * Create a new buffer and store it in the LinkedList
-	 * <p>Adds a new buffer that can store at least {@code minCapacity} bytes.
+	 * <p>Adds a new buffer that can store at least {@code minCapacity} bytes,
+	 * or a segment of the pool, if this stream uses one.
 	 */
 	private void addBuffer(int minCapacity) {
 		if (this.buffers.peekLast() != null) {
 			this.alreadyBufferedSize += this.index;
 			this.index = 0;
 		}
+		if (this.pool != null) {
+			// fixed-size segments - larger writes span multiple buffers
+			this.buffers.add(this.pool.acquire());
+			return;
+		}
 		if (this.nextBlockSize < minCapacity) {
 			this.nextBlockSize = nextPowerOf2(minCapacity);
 		}
@@ -346,12 +453,15 @@ public class FastByteArrayOutputStream extends OutputStream {
 
 		private int totalBytesRead = 0;
 
+		private final boolean releaseOnClose;
+
 		/**
 		 * Create a new <code>FastByteArrayOutputStreamInputStream</code> backed
 		 * by the given <code>FastByteArrayOutputStream</code>.
 		 */
-		public FastByteArrayInputStream(FastByteArrayOutputStream fastByteArrayOutputStream) {
+		public FastByteArrayInputStream(FastByteArrayOutputStream fastByteArrayOutputStream, boolean releaseOnClose) {
 			this.fastByteArrayOutputStream = fastByteArrayOutputStream;
+			this.releaseOnClose = releaseOnClose;
 			this.buffersIterator = fastByteArrayOutputStream.buffers.iterator();
 			if (this.buffersIterator.hasNext()) {
 				this.currentBuffer = this.buffersIterator.next();
@@ -373,7 +483,7 @@ public class FastByteArrayOutputStream extends OutputStream {
 			else {
 				if (this.nextIndexInCurrentBuffer < this.currentBufferLength) {
 					this.totalBytesRead++;
-					return this.currentBuffer[this.nextIndexInCurrentBuffer++];
+					return this.currentBuffer[this.nextIndexInCurrentBuffer++] & 0xFF;
 				}
 				else {
 					if (this.buffersIterator.hasNext()) {
@@ -476,51 +586,43 @@ public class FastByteArrayOutputStream extends OutputStream {
 
 		@Override
 		public int available() {
-			return (this.fastByteArrayOutputStream.size() - this.totalBytesRead);
+			return Math.max(this.fastByteArrayOutputStream.size() - this.totalBytesRead, 0);
 		}
 
-		/**
-		 * Update the message digest with the remaining bytes in this stream.
-		 * @param messageDigest The message digest to update
-		 */
-		public void updateMessageDigest(MessageDigest messageDigest) {
-			updateMessageDigest(messageDigest, available());
+		@Override
+		public void close() {
+			if (this.releaseOnClose) {
+				this.currentBuffer = null;
+				this.fastByteArrayOutputStream.release();
+			}
 		}
 
 		/**
-		 * Update the message digest with the next len bytes in this stream.
-		 * Avoids creating new byte arrays and use internal buffers for performance.
-		 * @param messageDigest The message digest to update
-		 * @param len how many bytes to read from this stream and use to update the message digest
+		 * Passes the remaining bytes of the current buffer and the following buffers
+		 * without copying them
 		 */
-		public void updateMessageDigest(MessageDigest messageDigest, int len) {
-			if (this.currentBuffer == null) {
-				// This stream doesn't have any data in it...
-				return;
-			}
-			else if (len == 0) {
-				return;
-			}
-			else if (len < 0) {
+		@Override
+		protected void readSegments(int len, SegmentConsumer consumer) throws IOException {
+			if (len < 0) {
 				throw new IllegalArgumentException("len must be 0 or greater: " + len);
 			}
-			else {
+
+			int remaining = len;
+			while (remaining > 0 && this.currentBuffer != null) {
 				if (this.nextIndexInCurrentBuffer < this.currentBufferLength) {
-					int bytesToCopy = Math.min(len, this.currentBufferLength - this.nextIndexInCurrentBuffer);
-					messageDigest.update(this.currentBuffer, this.nextIndexInCurrentBuffer, bytesToCopy);
+					final int bytesToCopy = Math.min(remaining, this.currentBufferLength - this.nextIndexInCurrentBuffer);
+					consumer.accept(ByteBuffer.wrap(this.currentBuffer, this.nextIndexInCurrentBuffer, bytesToCopy));
 					this.nextIndexInCurrentBuffer += bytesToCopy;
-					updateMessageDigest(messageDigest, len - bytesToCopy);
+					this.totalBytesRead += bytesToCopy;
+					remaining -= bytesToCopy;
+				}
+				else if (this.buffersIterator.hasNext()) {
+					this.currentBuffer = this.buffersIterator.next();
+					updateCurrentBufferLength();
+					this.nextIndexInCurrentBuffer = 0;
 				}
 				else {
-					if (this.buffersIterator.hasNext()) {
-						this.currentBuffer = this.buffersIterator.next();
-						updateCurrentBufferLength();
-						this.nextIndexInCurrentBuffer = 0;
-					}
-					else {
-						this.currentBuffer = null;
-					}
-					updateMessageDigest(messageDigest, len);
+					this.currentBuffer = null;
 				}
 			}
 		}
@@ -0,0 +1,113 @@
+package org.sevensource.commons.web.util;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers MBeans with the platform MBean server. Failing to register or unregister
+ * an MBean is logged, but not thrown, as monitoring must not prevent the application from running.
+ *
+ * @author pgaschuetz
+ */
+public final class MBeans {
+
+	private static final Logger logger = LoggerFactory.getLogger(MBeans.class);
+
+	/**
+	 * the domain of all MBeans registered by this library
+	 */
+	public static final String DOMAIN = "org.sevensource.commons.web";
+
+	private MBeans() {
+	}
+
+	/**
+	 * @param type the type of the MBean, i.e. the simple name of the class it monitors
+	 * @param name the name of the MBean, i.e. the name of the filter it monitors
+	 * @return the name of the MBean
+	 */
+	public static ObjectName objectName(String type, String name) throws JMException {
+		return objectName(type, null, name);
+	}
+
+	/**
+	 * @param type the type of the MBean, i.e. the simple name of the class it monitors
+	 * @param context the context path of the web application the MBean belongs to, may be null.
+	 * The root context is named <code>/</code>
+	 * @param name the name of the MBean, i.e. the name of the filter it monitors
+	 * @return the name of the MBean
+	 */
+	public static ObjectName objectName(String type, String context, String name) throws JMException {
+		final StringBuilder sb = new StringBuilder(DOMAIN).append(":type=").append(type);
+		if (context != null) {
+			sb.append(",context=").append(quoteIfNecessary(context.isEmpty() ? "/" : context));
+		}
+		sb.append(",name=").append(quoteIfNecessary(String.valueOf(name)));
+		return new ObjectName(sb.toString());
+	}
+
+	/**
+	 * @param mbean the MBean or MXBean to register
+	 * @param type the type of the MBean
+	 * @param name the name of the MBean
+	 * @return the name the MBean has been registered with, null if it could not be registered
+	 */
+	public static ObjectName register(Object mbean, String type, String name) {
+		return register(mbean, type, null, name);
+	}
+
+	/**
+	 * @param mbean the MBean or MXBean to register
+	 * @param type the type of the MBean
+	 * @param context the context path of the web application the MBean belongs to, may be null
+	 * @param name the name of the MBean
+	 * @return the name the MBean has been registered with, null if it could not be registered
+	 * @see #objectName(String, String, String)
+	 */
+	public static ObjectName register(Object mbean, String type, String context, String name) {
+		try {
+			final ObjectName objectName = objectName(type, context, name);
+			getServer().registerMBean(mbean, objectName);
+			if (logger.isDebugEnabled()) {
+				logger.debug("Registered MBean {}", objectName);
+			}
+			return objectName;
+		} catch (JMException | RuntimeException e) {
+			logger.warn("Cannot register MBean of type {} in context {} with name {}", type, context, name, e);
+			return null;
+		}
+	}
+
+	/**
+	 * @param objectName the name of a registered MBean, may be null
+	 */
+	public static void unregister(ObjectName objectName) {
+		if (objectName == null) {
+			return;
+		}
+		try {
+			getServer().unregisterMBean(objectName);
+		} catch (JMException | RuntimeException e) {
+			logger.warn("Cannot unregister MBean {}", objectName, e);
+		}
+	}
+
+	private static String quoteIfNecessary(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			if (",=:\"*?\n".indexOf(value.charAt(i)) >= 0) {
+				return ObjectName.quote(value);
+			}
+		}
+		return value;
+	}
+
+	private static MBeanServer getServer() {
+		return ManagementFactory.getPlatformMBeanServer();
+	}
+}
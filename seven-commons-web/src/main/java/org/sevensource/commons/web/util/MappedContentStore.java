@@ -0,0 +1,302 @@
+package org.sevensource.commons.web.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only key value store backed by a memory-mapped file, which survives restarts.
+ *
+ * <p>Values are only guaranteed to be on disk after {@link #force()} or {@link #close()}.
+ * Until then they are held in the operating system's page cache, which writes them back at
+ * its own discretion. The store survives a clean shutdown, but values stored since the store
+ * was opened or last forced may be lost if the process or the machine crashes.
+ *
+ * <p>Values are appended to the file and never removed. The index is kept in memory and
+ * rebuilt from the file when the store is opened, so stored values are available
+ * immediately after a restart - usually straight from the operating system's page cache.
+ * Once the file is full, no more values are stored.
+ *
+ * <p>The marker of a record is written after its content, and a missing marker or
+ * a checksum mismatch ends the rebuild. This way a record torn by a crash is ignored.
+ *
+ * <p>File layout:
+ * <pre>
+ * header: long magic
+ * record: int marker, int key length, int value length, int value CRC32, key, value
+ * </pre>
+ *
+ * @author pgaschuetz
+ */
+public class MappedContentStore implements Closeable {
+
+	private static final long FILE_MAGIC = 0x37434f4e54000001L; // "7CONT", version 1
+	private static final int RECORD_MARKER = 0x52454331; // "REC1"
+	private static final int HEADER_SIZE = 8;
+	private static final int RECORD_HEADER_SIZE = 16;
+
+	private final Path file;
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final int capacity;
+
+	private final Map<ByteBuffer, Record> index = new ConcurrentHashMap<>();
+	// guarded by this
+	private int position;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+
+	/**
+	 * Open the store in the given file, creating it if it does not exist.
+	 * The file is mapped and thereby extended to maxBytes right away, regardless of its current size.
+	 * On most file systems the unused part does not occupy disk space. If the file has been
+	 * created with a larger size, records beyond maxBytes are ignored
+	 *
+	 * @param file the file to store values in
+	 * @param maxBytes the maximum size of the file
+	 * @throws IOException if the file cannot be opened or mapped
+	 */
+	public MappedContentStore(Path file, int maxBytes) throws IOException {
+		if (maxBytes <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+			throw new IllegalArgumentException("maxBytes must be greater than " + (HEADER_SIZE + RECORD_HEADER_SIZE));
+		}
+
+		this.file = file;
+		this.capacity = maxBytes;
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, maxBytes);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+
+		if (buffer.getLong(0) == FILE_MAGIC) {
+			this.position = rebuildIndex();
+		} else {
+			buffer.putLong(0, FILE_MAGIC);
+			this.position = HEADER_SIZE;
+			buffer.putInt(position, 0);
+		}
+	}
+
+	private int rebuildIndex() {
+		int offset = HEADER_SIZE;
+		final CRC32 crc = new CRC32();
+
+		while (offset + RECORD_HEADER_SIZE <= capacity && buffer.getInt(offset) == RECORD_MARKER) {
+			final int keyLength = buffer.getInt(offset + 4);
+			final int valueLength = buffer.getInt(offset + 8);
+			final int checksum = buffer.getInt(offset + 12);
+			final int keyOffset = offset + RECORD_HEADER_SIZE;
+
+			if (keyLength <= 0 || valueLength < 0 || (long) keyOffset + keyLength + valueLength > capacity) {
+				break;
+			}
+
+			final int valueOffset = keyOffset + keyLength;
+			crc.reset();
+			crc.update(slice(valueOffset, valueLength));
+			if ((int) crc.getValue() != checksum) {
+				break;
+			}
+
+			final byte[] key = new byte[keyLength];
+			slice(keyOffset, keyLength).get(key);
+			index.put(ByteBuffer.wrap(key), new Record(valueOffset, valueLength));
+
+			offset = valueOffset + valueLength;
+		}
+		return offset;
+	}
+
+	/**
+	 * @param key
+	 * @return a stream of the stored value, or null if there is none
+	 */
+	public InputStream get(ByteBuffer key) {
+		final Record record = index.get(key);
+		if (record == null) {
+			misses.increment();
+			return null;
+		}
+
+		hits.increment();
+		return new ByteBufferInputStream(slice(record.offset, record.length));
+	}
+
+	/**
+	 * Append the given value to the store
+	 *
+	 * @param key
+	 * @param value
+	 * @return true if the value has been stored, false if the key is already
+	 * present or the store is full
+	 */
+	public synchronized boolean put(ByteBuffer key, byte[] value) {
+		final int keyLength = key.remaining();
+		if (keyLength == 0) {
+			throw new IllegalArgumentException("key must not be empty");
+		} else if (index.containsKey(key)) {
+			return false;
+		}
+
+		final long end = (long) position + RECORD_HEADER_SIZE + keyLength + value.length;
+		if (end > capacity) {
+			return false;
+		}
+
+		final CRC32 crc = new CRC32();
+		crc.update(value, 0, value.length);
+
+		final int keyOffset = position + RECORD_HEADER_SIZE;
+		final int valueOffset = keyOffset + keyLength;
+		buffer.putInt(position + 4, keyLength);
+		buffer.putInt(position + 8, value.length);
+		buffer.putInt(position + 12, (int) crc.getValue());
+		slice(keyOffset, keyLength).put(key.duplicate());
+		slice(valueOffset, value.length).put(value);
+
+		// clear the marker following this record, so that no stale record is picked up after a restart
+		if (end + RECORD_HEADER_SIZE <= capacity) {
+			buffer.putInt((int) end, 0);
+		}
+		buffer.putInt(position, RECORD_MARKER);
+
+		final byte[] keyCopy = new byte[keyLength];
+		key.duplicate().get(keyCopy);
+		index.put(ByteBuffer.wrap(keyCopy), new Record(valueOffset, value.length));
+
+		position = (int) end;
+		return true;
+	}
+
+	private ByteBuffer slice(int offset, int length) {
+		final ByteBuffer slice = buffer.duplicate();
+		slice.limit(offset + length).position(offset);
+		return slice.slice();
+	}
+
+	/**
+	 * @return the number of stored values
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * @return the number of bytes used in the file
+	 */
+	public synchronized int getUsedBytes() {
+		return position;
+	}
+
+	/**
+	 * @return the maximum size of the file
+	 */
+	public int getMaxBytes() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of times a value has been found
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of times no value has been found
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Write all changes to the file, so that stored values survive a crash
+	 *
+	 * @throws IOException if the store has been closed
+	 */
+	public synchronized void force() throws IOException {
+		if (!channel.isOpen()) {
+			throw new IOException("Store has been closed: " + file);
+		}
+		buffer.force();
+	}
+
+	/**
+	 * Write all changes to the file and close it.
+	 * Streams obtained by {@link #get(ByteBuffer)} stay readable until the mapping is garbage collected
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel.isOpen()) {
+			buffer.force();
+			channel.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s[file=%s, entries=%d, bytes=%d/%d, hits=%d, misses=%d]",
+				getClass().getSimpleName(), file, size(), getUsedBytes(), capacity, getHitCount(), getMissCount());
+	}
+
+	private static final class Record {
+		final int offset;
+		final int length;
+
+		Record(int offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	private static final class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			} else if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			final int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) {
+			final int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package org.sevensource.commons.web.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A gzip compressing {@link OutputStream} like {@link java.util.zip.GZIPOutputStream},
+ * which takes its {@link Deflater} from a {@link DeflaterPool} and returns it on {@link #close()}.
+ * <p>
+ * Closing this stream does not close the underlying stream.
+ *
+ * @author pgaschuetz
+ */
+public class PooledGzipOutputStream extends DeflaterOutputStream {
+
+	private static final int GZIP_MAGIC = 0x8b1f;
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final byte[] HEADER = {
+			(byte) GZIP_MAGIC,        // magic number
+			(byte) (GZIP_MAGIC >> 8),
+			Deflater.DEFLATED,        // compression method
+			0,                        // flags
+			0, 0, 0, 0,               // modification time
+			0,                        // extra flags
+			(byte) 0xff               // operating system: unknown
+	};
+
+	private final DeflaterPool pool;
+	private final CRC32 crc = new CRC32();
+	private boolean finished = false;
+	private boolean closed = false;
+
+	/**
+	 * @param out the stream to write the compressed data to
+	 * @param pool the pool to take the deflater from
+	 * @throws IOException if the gzip header cannot be written
+	 */
+	public PooledGzipOutputStream(OutputStream out, DeflaterPool pool) throws IOException {
+		super(out, pool.acquire(), BUFFER_SIZE);
+		this.pool = pool;
+		out.write(HEADER);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		super.write(b, off, len);
+		crc.update(b, off, len);
+	}
+
+	/**
+	 * Finish writing compressed data and write the gzip trailer
+	 * without closing the underlying stream
+	 */
+	@Override
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		super.finish();
+		writeInt((int) crc.getValue());
+		// the size of the uncompressed data modulo 2^32
+		writeInt((int) def.getBytesRead());
+		finished = true;
+	}
+
+	/**
+	 * Finish writing compressed data and return the deflater to its pool.
+	 * The underlying stream is left open
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			finish();
+			out.flush();
+		} finally {
+			closed = true;
+			pool.release(def);
+		}
+	}
+
+	private void writeInt(int i) throws IOException {
+		out.write(i & 0xff);
+		out.write((i >> 8) & 0xff);
+		out.write((i >> 16) & 0xff);
+		out.write((i >> 24) & 0xff);
+	}
+}
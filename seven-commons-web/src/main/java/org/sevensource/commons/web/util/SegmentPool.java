@@ -0,0 +1,43 @@
+package org.sevensource.commons.web.util;
+
+/**
+ * A bounded, thread-safe pool of fixed-size {@code byte[]} segments, which can
+ * be used by {@link FastByteArrayOutputStream} instead of allocating new
+ * buffers for every stream.
+ *
+ * <p>Using fixed-size segments well below the G1 region size keeps large
+ * buffered responses out of humongous regions.
+ *
+ * @author pgaschuetz
+ * @see AbstractSegmentPool
+ */
+public class SegmentPool extends AbstractSegmentPool<byte[]> {
+
+	/**
+	 * Create a new <code>SegmentPool</code> with segments of {@value #DEFAULT_SEGMENT_SIZE} bytes
+	 * @param maxSegments the maximum number of segments held by the shared queue of this pool
+	 */
+	public SegmentPool(int maxSegments) {
+		this(DEFAULT_SEGMENT_SIZE, maxSegments, DEFAULT_THREAD_CACHE_SIZE);
+	}
+
+	/**
+	 * Create a new <code>SegmentPool</code>
+	 * @param segmentSize the size of each segment in bytes
+	 * @param maxSegments the maximum number of segments held by the shared queue of this pool
+	 * @param threadCacheSize the maximum number of segments cached per thread
+	 */
+	public SegmentPool(int segmentSize, int maxSegments, int threadCacheSize) {
+		super(segmentSize, maxSegments, threadCacheSize);
+	}
+
+	@Override
+	protected byte[] allocate(int size) {
+		return new byte[size];
+	}
+
+	@Override
+	protected int capacity(byte[] segment) {
+		return segment.length;
+	}
+}
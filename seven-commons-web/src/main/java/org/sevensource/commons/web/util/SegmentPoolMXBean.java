@@ -0,0 +1,49 @@
+package org.sevensource.commons.web.util;
+
+/**
+ * The management interface of the {@link AbstractSegmentPool}s
+ *
+ * @author pgaschuetz
+ */
+public interface SegmentPoolMXBean {
+
+	/**
+	 * @return the size of a segment in bytes
+	 */
+	int getSegmentSize();
+
+	/**
+	 * @return the maximum number of segments held by the shared queue of the pool
+	 */
+	int getMaxSegments();
+
+	/**
+	 * @return the number of segments currently held by the shared queue of the pool
+	 */
+	int getPooledSegments();
+
+	/**
+	 * @return the ratio of the pooled segments to the maximum number of segments
+	 */
+	double getOccupancy();
+
+	/**
+	 * @return the number of segments served from the pool
+	 */
+	long getHitCount();
+
+	/**
+	 * @return the number of segments, which had to be allocated
+	 */
+	long getMissCount();
+
+	/**
+	 * @return the ratio of hits to all segments acquired
+	 */
+	double getHitRate();
+
+	/**
+	 * @return the number of segments, which could not be pooled because the pool was full or closed
+	 */
+	long getDiscardCount();
+}
@@ -0,0 +1,250 @@
+package org.sevensource.commons.web.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.security.MessageDigest;
+import java.util.zip.Checksum;
+
+/**
+ * Base class for {@link OutputStream}s, which keep their content in memory
+ * in a list of segments and allow it to be read or transferred without
+ * creating a contiguous copy.
+ *
+ * @author pgaschuetz
+ * @see FastByteArrayOutputStream
+ * @see DirectByteBufferOutputStream
+ */
+public abstract class SegmentedOutputStream extends OutputStream {
+
+	// The encoder used by the last call to write(CharSequence, Charset), reused for the same charset
+	private CharsetEncoder encoder;
+
+	/**
+	 * Encode the given characters with the given {@link Charset} and append the
+	 * resulting bytes to this stream.
+	 * <p>Characters are encoded directly into the segments, avoiding the
+	 * intermediate {@code byte[]} created by {@link String#getBytes(Charset)}.
+	 * Malformed input and unmappable characters are replaced with the charset's
+	 * default replacement.
+	 * @param chars the characters to write
+	 * @param charset the charset to encode the characters with
+	 * @throws IOException if the stream is closed
+	 */
+	public void write(CharSequence chars, Charset charset) throws IOException {
+		if (chars.length() == 0) {
+			return;
+		}
+
+		final CharsetEncoder enc = getEncoder(charset);
+		final CharBuffer in = CharBuffer.wrap(chars);
+
+		// 0: encoding, 1: encoding the end of input, 2: flushing the encoder
+		int phase = 0;
+		while (phase < 3) {
+			final ByteBuffer out = writableSegment(estimateLength(enc, in));
+			final CoderResult result = encode(enc, in, out, phase);
+			segmentWritten(out);
+
+			if (result.isOverflow()) {
+				if (out.hasRemaining()) {
+					// the next character does not fit into the remaining space of the
+					// current segment - encode it separately, so that it is split across segments
+					final ByteBuffer scratch = ByteBuffer.allocate((int) Math.ceil(enc.maxBytesPerChar()) * 2);
+					final int limit = in.limit();
+					if (phase == 0) {
+						in.limit(Math.min(limit, in.position() + (Character.isHighSurrogate(in.get(in.position())) ? 2 : 1)));
+					}
+					encode(enc, in, scratch, phase);
+					in.limit(limit);
+					write(scratch.array(), 0, scratch.position());
+				}
+			}
+			else {
+				phase++;
+			}
+		}
+	}
+
+	/**
+	 * Read the given {@link InputStream} to its end and append its content to this stream.
+	 * <p>The content is read straight into the segments of this stream, or, if the
+	 * given stream is backed by segments itself, copied segment by segment.
+	 * @param in the stream to read from
+	 * @return the number of bytes read
+	 * @throws IOException if reading fails or this stream is closed
+	 */
+	public long readFrom(InputStream in) throws IOException {
+		if (in instanceof UpdateMessageDigestInputStream) {
+			return ((UpdateMessageDigestInputStream) in).transferTo(this);
+		}
+
+		long total = 0;
+		byte[] transferBuffer = null;
+		int n;
+		do {
+			final ByteBuffer segment = writableSegment(Math.max(in.available(), 1));
+			if (segment.hasArray()) {
+				n = in.read(segment.array(), segment.arrayOffset() + segment.position(), segment.remaining());
+				if (n > 0) {
+					segment.position(segment.position() + n);
+				}
+			}
+			else {
+				if (transferBuffer == null) {
+					transferBuffer = new byte[4096];
+				}
+				n = in.read(transferBuffer, 0, Math.min(transferBuffer.length, segment.remaining()));
+				if (n > 0) {
+					segment.put(transferBuffer, 0, n);
+				}
+			}
+			segmentWritten(segment);
+			total += Math.max(n, 0);
+		}
+		while (n != -1);
+
+		return total;
+	}
+
+	/**
+	 * Return the segment to write to next, positioned at the current write
+	 * index and limited to the end of the segment. Adds a new segment, if the
+	 * current one is full.
+	 * @param minCapacity the number of bytes expected to be written
+	 * @return a view of the segment to write to
+	 * @throws IOException if the stream is closed
+	 */
+	protected abstract ByteBuffer writableSegment(int minCapacity) throws IOException;
+
+	/**
+	 * Called after bytes have been put into a segment obtained from {@link #writableSegment(int)}
+	 * @param segment the segment view, positioned after the last byte written
+	 */
+	protected abstract void segmentWritten(ByteBuffer segment);
+
+	private static int estimateLength(CharsetEncoder enc, CharBuffer in) {
+		return (int) Math.min(Integer.MAX_VALUE / 2, (long) Math.ceil(in.remaining() * enc.averageBytesPerChar()) + 1);
+	}
+
+	private static CoderResult encode(CharsetEncoder enc, CharBuffer in, ByteBuffer out, int phase) throws IOException {
+		final CoderResult result = (phase < 2 ? enc.encode(in, out, phase == 1) : enc.flush(out));
+		if (result.isError()) {
+			try {
+				result.throwException();
+			}
+			catch (CharacterCodingException e) {
+				throw new IOException(e);
+			}
+		}
+		return result;
+	}
+
+	private CharsetEncoder getEncoder(Charset charset) {
+		if (this.encoder == null || ! this.encoder.charset().equals(charset)) {
+			this.encoder = charset.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+		else {
+			this.encoder.reset();
+		}
+		return this.encoder;
+	}
+
+	/**
+	 * @return the number of bytes stored in this stream
+	 */
+	public abstract int size();
+
+	/**
+	 * Discard the contents of this stream, so that it can be used again.
+	 * Pooled segments are returned to their pool.
+	 */
+	public abstract void reset();
+
+	/**
+	 * Discard the contents of this stream and return pooled segments to their pool.
+	 * The contents must not be accessed afterwards.
+	 */
+	public abstract void release();
+
+	/**
+	 * Get an {@link InputStream} to retrieve the data in this OutputStream.
+	 * <p>The {@link InputStream}'s behavior is undefined, if this stream is
+	 * modified afterwards.
+	 * @return {@link InputStream} of the contents of this OutputStream
+	 */
+	public abstract InputStream getInputStream();
+
+	/**
+	 * Get an {@link InputStream} to retrieve the data in this OutputStream,
+	 * which {@link #release() releases} this OutputStream when being closed.
+	 * @return {@link InputStream} of the contents of this OutputStream
+	 * @see #getInputStream()
+	 */
+	public abstract InputStream getReleasingInputStream();
+
+	/**
+	 * Update the given {@link MessageDigest} with the contents of this stream
+	 * @param messageDigest the message digest to update
+	 * @throws IOException
+	 */
+	public void updateMessageDigest(MessageDigest messageDigest) throws IOException {
+		final InputStream is = getInputStream();
+		if (is instanceof UpdateMessageDigestInputStream) {
+			((UpdateMessageDigestInputStream) is).updateMessageDigest(messageDigest);
+		}
+		else {
+			final byte[] buffer = new byte[4096];
+			int n;
+			while ((n = is.read(buffer)) != -1) {
+				messageDigest.update(buffer, 0, n);
+			}
+		}
+	}
+
+	/**
+	 * Update the given {@link Checksum} with the contents of this stream.
+	 * <p>A checksum like {@link java.util.zip.CRC32} is much faster than a {@link MessageDigest},
+	 * but unsuitable where collisions must be ruled out.
+	 * @param checksum the checksum to update
+	 * @throws IOException
+	 */
+	public void updateChecksum(Checksum checksum) throws IOException {
+		final InputStream is = getInputStream();
+		if (is instanceof UpdateMessageDigestInputStream) {
+			((UpdateMessageDigestInputStream) is).updateChecksum(checksum);
+		}
+		else {
+			final byte[] buffer = new byte[4096];
+			int n;
+			while ((n = is.read(buffer)) != -1) {
+				checksum.update(buffer, 0, n);
+			}
+		}
+	}
+
+	/**
+	 * Write the contents of this stream to the given {@link OutputStream}
+	 * @param out the OutputStream to write to
+	 * @throws IOException
+	 */
+	public abstract void writeTo(OutputStream out) throws IOException;
+
+	/**
+	 * Write the contents of this stream to the given {@link WritableByteChannel}.
+	 * Uses a single gathering write, if the channel supports it.
+	 * @param channel the channel to write to
+	 * @throws IOException
+	 */
+	public abstract void writeTo(WritableByteChannel channel) throws IOException;
+}
@@ -0,0 +1,145 @@
+package org.sevensource.commons.web.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stream related helpers, aware of the segment buffers in this package
+ *
+ * @author pgaschuetz
+ *
+ */
+public final class Streams {
+
+	private static final int TRANSFER_BUFFER_SIZE = 8192;
+
+	private Streams() {
+	}
+
+	/**
+	 * Copy the rest of the given {@link InputStream} to the given {@link OutputStream}.
+	 * <p>Streams of a {@link SegmentedOutputStream} are copied segment by segment and
+	 * a {@link SegmentedOutputStream} reads straight into its segments. Only other streams
+	 * are copied through a transfer buffer.
+	 * Neither stream is closed.
+	 * @param in the stream to read from
+	 * @param out the stream to write to
+	 * @return the number of bytes copied
+	 * @throws IOException
+	 */
+	public static long copy(InputStream in, OutputStream out) throws IOException {
+		if (in instanceof UpdateMessageDigestInputStream) {
+			return ((UpdateMessageDigestInputStream) in).transferTo(out);
+		} else if (out instanceof SegmentedOutputStream) {
+			return ((SegmentedOutputStream) out).readFrom(in);
+		}
+
+		final byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+		long total = 0;
+		int n;
+		while (-1 != (n = in.read(buffer))) {
+			out.write(buffer, 0, n);
+			total += n;
+		}
+		return total;
+	}
+
+	/**
+	 * Get the number of bytes left in the given stream, if it is held in memory, so that it is known exactly.
+	 * <p>That is the case for {@link java.io.ByteArrayInputStream}s and streams of a {@link SegmentedOutputStream},
+	 * whose {@link InputStream#available()} is exact.
+	 * @param in the stream
+	 * @return the number of bytes left in the stream, or -1 if unknown
+	 * @throws IOException
+	 */
+	public static int remaining(InputStream in) throws IOException {
+		if (in instanceof UpdateMessageDigestInputStream || in instanceof ByteArrayInputStream) {
+			return in.available();
+		}
+		return -1;
+	}
+
+	/**
+	 * Skip exactly the given number of bytes of the given stream.
+	 * <p>{@link InputStream#skip(long)} may skip fewer bytes, or none at all, without having
+	 * reached the end of the stream, so a byte is read whenever it skips nothing.
+	 * @param in the stream to skip bytes of
+	 * @param n the number of bytes to skip
+	 * @throws EOFException if the stream ends before all bytes have been skipped
+	 * @throws IOException
+	 */
+	public static void skipFully(InputStream in, long n) throws IOException {
+		while (n > 0) {
+			final long skipped = in.skip(n);
+			if (skipped > 0) {
+				n -= skipped;
+			} else if (in.read() != -1) {
+				n--;
+			} else {
+				throw new EOFException(n + " bytes left to skip at the end of the stream");
+			}
+		}
+	}
+
+	/**
+	 * Get a stream, which reads at most the given number of bytes from the given stream.
+	 * Closing it does not close the given stream.
+	 * @param in the stream to read from
+	 * @param limit the maximum number of bytes to read
+	 * @return the limited stream
+	 */
+	public static InputStream limit(InputStream in, long limit) {
+		return new LimitedInputStream(in, limit);
+	}
+
+	private static final class LimitedInputStream extends InputStream {
+		private final InputStream in;
+		private long remaining;
+
+		LimitedInputStream(InputStream in, long limit) {
+			this.in = in;
+			this.remaining = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			final int b = in.read();
+			if (b != -1) {
+				remaining--;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			} else if (remaining <= 0) {
+				return -1;
+			}
+			final int n = in.read(b, off, (int) Math.min(len, remaining));
+			if (n > 0) {
+				remaining -= n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			final long skipped = in.skip(Math.min(n, remaining));
+			remaining -= skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(in.available(), remaining);
+		}
+	}
+}
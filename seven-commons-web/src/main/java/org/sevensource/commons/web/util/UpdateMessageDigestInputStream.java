@@ -18,17 +18,27 @@ package org.sevensource.commons.web.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
 
 /**
  * Extension of {@link java.io.InputStream} that allows for optimized
  * implementations of message digesting.
+ * <p>Digests and checksums are fed whole blocks of bytes. Implementations backed by
+ * segments override {@link #readSegments(int, SegmentConsumer)} to pass their segments
+ * without copying them. The same way, {@link #transferTo(OutputStream)} writes whole segments.
  *
  * @author Craig Andrews
  * @since 4.2
  */
 abstract class UpdateMessageDigestInputStream extends InputStream {
 
+	private static final int TRANSFER_BUFFER_SIZE = 4096;
+
 	/**
 	 * Update the message digest with the rest of the bytes in this stream.
 	 * <p>Using this method is more optimized since it avoids creating new
@@ -37,10 +47,7 @@ abstract class UpdateMessageDigestInputStream extends InputStream {
 	 * @throws IOException when propagated from {@link #read()}
 	 */
 	public void updateMessageDigest(MessageDigest messageDigest) throws IOException {
-		int data;
-		while ((data = read()) != -1){
-			messageDigest.update((byte) data);
-		}
+		updateMessageDigest(messageDigest, Integer.MAX_VALUE);
 	}
 
 	/**
@@ -52,12 +59,106 @@ abstract class UpdateMessageDigestInputStream extends InputStream {
 	 * @throws IOException when propagated from {@link #read()}
 	 */
 	public void updateMessageDigest(MessageDigest messageDigest, int len) throws IOException {
-		int data;
-		int bytesRead = 0;
-		while (bytesRead < len && (data = read()) != -1){
-			messageDigest.update((byte) data);
-			bytesRead++;
+		readSegments(len, messageDigest::update);
+	}
+
+	/**
+	 * Update the checksum with the rest of the bytes in this stream.
+	 * <p>{@link CRC32} and {@link Adler32} are updated from direct buffers without copying them.
+	 * @param checksum the checksum to update
+	 * @throws IOException when propagated from {@link #read()}
+	 */
+	public void updateChecksum(Checksum checksum) throws IOException {
+		readSegments(Integer.MAX_VALUE, segment -> update(checksum, segment));
+	}
+
+	/**
+	 * Write the rest of the bytes in this stream to the given {@link OutputStream}.
+	 * <p>Segments backed by an array are written without an intermediate copy.
+	 * Overrides <code>InputStream.transferTo</code> on Java 9 and later.
+	 * @param out the stream to write to
+	 * @return the number of bytes written
+	 * @throws IOException when propagated from {@link #read()} or the {@link OutputStream}
+	 */
+	public long transferTo(OutputStream out) throws IOException {
+		final Transfer transfer = new Transfer(out);
+		readSegments(Integer.MAX_VALUE, transfer);
+		return transfer.transferred;
+	}
+
+	/**
+	 * Read the next len bytes of this stream and pass them on in as few blocks as possible.
+	 * <p>The default implementation reads through a transfer buffer. The consumer must not keep
+	 * a reference to the blocks passed to it.
+	 * @param len how many bytes to read from this stream
+	 * @param consumer the consumer of the blocks read, each block's remaining bytes being the data
+	 * @throws IOException when propagated from {@link #read()}
+	 */
+	protected void readSegments(int len, SegmentConsumer consumer) throws IOException {
+		if (len < 0) {
+			throw new IllegalArgumentException("len must be 0 or greater: " + len);
+		}
+
+		final byte[] buffer = new byte[Math.min(len, TRANSFER_BUFFER_SIZE)];
+		int remaining = len;
+		int n;
+		while (remaining > 0 && (n = read(buffer, 0, Math.min(remaining, buffer.length))) != -1) {
+			consumer.accept(ByteBuffer.wrap(buffer, 0, n));
+			remaining -= n;
+		}
+	}
+
+	private static void update(Checksum checksum, ByteBuffer segment) {
+		if (segment.hasArray()) {
+			checksum.update(segment.array(), segment.arrayOffset() + segment.position(), segment.remaining());
+		} else if (checksum instanceof CRC32) {
+			((CRC32) checksum).update(segment);
+		} else if (checksum instanceof Adler32) {
+			((Adler32) checksum).update(segment);
+		} else {
+			final byte[] buffer = new byte[Math.min(segment.remaining(), TRANSFER_BUFFER_SIZE)];
+			while (segment.hasRemaining()) {
+				final int length = Math.min(buffer.length, segment.remaining());
+				segment.get(buffer, 0, length);
+				checksum.update(buffer, 0, length);
+			}
 		}
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Consumes the segments read by {@link UpdateMessageDigestInputStream#readSegments(int, SegmentConsumer)}
+	 */
+	@FunctionalInterface
+	protected interface SegmentConsumer {
+		void accept(ByteBuffer segment) throws IOException;
+	}
+
+	private static final class Transfer implements SegmentConsumer {
+		private final OutputStream out;
+		private byte[] transferBuffer;
+		long transferred = 0;
+
+		Transfer(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void accept(ByteBuffer segment) throws IOException {
+			final int length = segment.remaining();
+			if (segment.hasArray()) {
+				out.write(segment.array(), segment.arrayOffset() + segment.position(), length);
+			} else {
+				if (transferBuffer == null) {
+					// sized for the largest segment, not the first one, which may be short
+					transferBuffer = new byte[TRANSFER_BUFFER_SIZE];
+				}
+				while (segment.hasRemaining()) {
+					final int n = Math.min(transferBuffer.length, segment.remaining());
+					segment.get(transferBuffer, 0, n);
+					out.write(transferBuffer, 0, n);
+				}
+			}
+			transferred += length;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package org.sevensource.commons.web.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events by the pattern of the request URI they occurred for.
+ *
+ * <p>The pattern of a URI replaces all path segments containing a digit with <code>*</code>,
+ * so that <code>/articles/2017/42</code> and <code>/articles/2018/7</code> are counted together.
+ * The number of patterns is limited; once it has been reached, events for new patterns
+ * are counted as {@value #OTHER_PATTERN}.
+ *
+ * @author pgaschuetz
+ */
+public class UriPatternCounter {
+
+	/**
+	 * the pattern events are counted as, once the maximum number of patterns has been reached
+	 */
+	public static final String OTHER_PATTERN = "*";
+
+	private final int maxPatterns;
+	private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+
+	/**
+	 * @param maxPatterns the maximum number of patterns to count separately
+	 */
+	public UriPatternCounter(int maxPatterns) {
+		if (maxPatterns <= 0) {
+			throw new IllegalArgumentException("maxPatterns must be greater than 0");
+		}
+		this.maxPatterns = maxPatterns;
+	}
+
+	/**
+	 * Count an event for the given request URI
+	 *
+	 * @param uri a request URI without query string
+	 */
+	public void increment(String uri) {
+		String pattern = pattern(uri);
+		LongAdder count = counts.get(pattern);
+		if (count == null) {
+			if (counts.size() >= maxPatterns) {
+				pattern = OTHER_PATTERN;
+			}
+			count = counts.computeIfAbsent(pattern, p -> new LongAdder());
+		}
+		count.increment();
+	}
+
+	/**
+	 * @return the number of events by pattern, sorted by pattern
+	 */
+	public Map<String, Long> getCounts() {
+		final Map<String, Long> snapshot = new TreeMap<>();
+		counts.forEach((pattern, count) -> snapshot.put(pattern, count.sum()));
+		return snapshot;
+	}
+
+	/**
+	 * @return the total number of events
+	 */
+	public long getTotal() {
+		long total = 0;
+		for (LongAdder count : counts.values()) {
+			total += count.sum();
+		}
+		return total;
+	}
+
+	/**
+	 * @param uri a request URI without query string
+	 * @return the pattern of the given URI, the URI itself if none of its segments contains a digit
+	 */
+	public static String pattern(String uri) {
+		if (uri == null || uri.isEmpty()) {
+			return "/";
+		} else if (!containsDigit(uri)) {
+			return uri;
+		}
+
+		final StringBuilder sb = new StringBuilder(uri.length());
+		int segmentBegin = 0;
+		boolean digit = false;
+		for (int i = 0; i <= uri.length(); i++) {
+			final char c = i < uri.length() ? uri.charAt(i) : '/';
+			if (c == '/') {
+				if (digit) {
+					sb.append('*');
+				} else {
+					sb.append(uri, segmentBegin, i);
+				}
+				if (i < uri.length()) {
+					sb.append('/');
+				}
+				segmentBegin = i + 1;
+				digit = false;
+			} else if (c >= '0' && c <= '9') {
+				digit = true;
+			}
+		}
+		return sb.toString();
+	}
+
+	private static boolean containsDigit(String uri) {
+		for (int i = 0; i < uri.length(); i++) {
+			final char c = uri.charAt(i);
+			if (c >= '0' && c <= '9') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return getCounts().toString();
+	}
+}
@@ -0,0 +1,194 @@
+package org.sevensource.commons.web.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * A thread-safe, least recently used cache bounded by both the number of
+ * entries and the total weight of its values, i.e. their size in bytes.
+ *
+ * <p>Values weighing more than the maximum weight are not cached at all.
+ *
+ * @param <K> the type of key
+ * @param <V> the type of value
+ *
+ * @author pgaschuetz
+ */
+public class WeightedLruCache<K, V> implements WeightedLruCacheMXBean {
+
+	private final int maxEntries;
+	private final long maxWeight;
+	private final ToIntFunction<V> weigher;
+
+	// access ordered, so the eldest entry is the least recently used one
+	private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long weight = 0;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+
+	/**
+	 * @param maxEntries the maximum number of entries held by this cache
+	 * @param maxWeight the maximum total weight of all values held by this cache
+	 * @param weigher calculates the weight of a value
+	 */
+	public WeightedLruCache(int maxEntries, long maxWeight, ToIntFunction<V> weigher) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("maxEntries must be greater than 0");
+		} else if (maxWeight <= 0) {
+			throw new IllegalArgumentException("maxWeight must be greater than 0");
+		} else if (weigher == null) {
+			throw new IllegalArgumentException("weigher must not be null");
+		}
+
+		this.maxEntries = maxEntries;
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+	}
+
+	/**
+	 * @param key
+	 * @return the cached value, or null if there is none
+	 */
+	public V get(K key) {
+		final V value;
+		synchronized (entries) {
+			value = entries.get(key);
+		}
+
+		if (value != null) {
+			hits.increment();
+		} else {
+			misses.increment();
+		}
+		return value;
+	}
+
+	/**
+	 * Cache the given value, evicting the least recently used entries if the cache is full
+	 * @param key
+	 * @param value
+	 * @return true if the value has been cached, false if it weighs more than the maximum weight
+	 */
+	public boolean put(K key, V value) {
+		final int valueWeight = weigher.applyAsInt(value);
+		if (valueWeight > maxWeight) {
+			return false;
+		}
+
+		synchronized (entries) {
+			final V previous = entries.put(key, value);
+			if (previous != null) {
+				weight -= weigher.applyAsInt(previous);
+			}
+			weight += valueWeight;
+
+			final Iterator<Map.Entry<K, V>> it = entries.entrySet().iterator();
+			while ((entries.size() > maxEntries || weight > maxWeight) && it.hasNext()) {
+				final Map.Entry<K, V> eldest = it.next();
+				if (eldest.getKey().equals(key)) {
+					continue;
+				}
+				weight -= weigher.applyAsInt(eldest.getValue());
+				it.remove();
+				evictions.increment();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * remove all entries from this cache
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+			weight = 0;
+		}
+	}
+
+	/**
+	 * @return the number of entries currently held by this cache
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	@Override
+	public int getSize() {
+		return size();
+	}
+
+	/**
+	 * @return the total weight of all values currently held by this cache
+	 */
+	@Override
+	public long getWeight() {
+		synchronized (entries) {
+			return weight;
+		}
+	}
+
+	/**
+	 * @return the maximum number of entries held by this cache
+	 */
+	@Override
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * @return the maximum total weight of all values held by this cache
+	 */
+	@Override
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	/**
+	 * @return the number of {@link #get(Object)} calls, which returned a cached value
+	 */
+	@Override
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of {@link #get(Object)} calls, which did not find a cached value
+	 */
+	@Override
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the ratio of {@link #getHitCount()} to all {@link #get(Object)} calls
+	 */
+	@Override
+	public double getHitRate() {
+		final long h = getHitCount();
+		final long total = h + getMissCount();
+		return total == 0 ? 0d : (double) h / total;
+	}
+
+	/**
+	 * @return the number of entries evicted to make room for new ones
+	 */
+	@Override
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s[entries=%d/%d, weight=%d/%d, hitRate=%.2f, evictions=%d]",
+				getClass().getSimpleName(), size(), maxEntries, getWeight(), maxWeight, getHitRate(), getEvictionCount());
+	}
+}
@@ -0,0 +1,49 @@
+package org.sevensource.commons.web.util;
+
+/**
+ * The management interface of the {@link WeightedLruCache}
+ *
+ * @author pgaschuetz
+ */
+public interface WeightedLruCacheMXBean {
+
+	/**
+	 * @return the number of entries currently held by the cache
+	 */
+	int getSize();
+
+	/**
+	 * @return the total weight of all values currently held by the cache
+	 */
+	long getWeight();
+
+	/**
+	 * @return the maximum number of entries held by the cache
+	 */
+	int getMaxEntries();
+
+	/**
+	 * @return the maximum total weight of all values held by the cache
+	 */
+	long getMaxWeight();
+
+	/**
+	 * @return the number of lookups, which returned a cached value
+	 */
+	long getHitCount();
+
+	/**
+	 * @return the number of lookups, which did not find a cached value
+	 */
+	long getMissCount();
+
+	/**
+	 * @return the ratio of hits to all lookups
+	 */
+	double getHitRate();
+
+	/**
+	 * @return the number of entries evicted to make room for new ones
+	 */
+	long getEvictionCount();
+}
@@ -0,0 +1,269 @@
+package org.sevensource.commons.web.filter;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.sevensource.commons.web.filter.FilterMetrics.Decision;
+import org.sevensource.commons.web.servlet.BufferingHttpResponseWrapper;
+
+public class AbstractOutputBufferingFilterTest {
+
+	@Test
+	public void accepts_gzip() {
+		assertThat(AbstractOutputBufferingFilter.acceptsGzip(request("gzip, deflate, br")), is(true));
+		assertThat(AbstractOutputBufferingFilter.acceptsGzip(request("deflate", "GZIP;q=0.5")), is(true));
+		assertThat(AbstractOutputBufferingFilter.acceptsGzip(request("x-gzip")), is(true));
+		assertThat(AbstractOutputBufferingFilter.acceptsGzip(request("*")), is(true));
+	}
+
+	@Test
+	public void does_not_accept_gzip() {
+		assertThat(AbstractOutputBufferingFilter.acceptsGzip(request()), is(false));
+		assertThat(AbstractOutputBufferingFilter.acceptsGzip(request("identity")), is(false));
+		assertThat(AbstractOutputBufferingFilter.acceptsGzip(request("gzip;q=0, deflate")), is(false));
+		assertThat(AbstractOutputBufferingFilter.acceptsGzip(request("gzip ; q=0.0, *")), is(false));
+		assertThat(AbstractOutputBufferingFilter.acceptsGzip(request("*;q=0")), is(false));
+	}
+
+	private static HttpServletRequest request(String... acceptEncoding) {
+		final HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+		when(request.getHeaders("Accept-Encoding")).thenReturn(Collections.enumeration(Arrays.asList(acceptEncoding)));
+		return request;
+	}
+
+	@Test
+	public void matches_if_none_match() {
+		assertThat(AbstractOutputBufferingFilter.matchesIfNoneMatch(ifNoneMatch("\"abc\""), "\"abc\""), is(true));
+		assertThat(AbstractOutputBufferingFilter.matchesIfNoneMatch(ifNoneMatch("\"xyz\", W/\"abc\""), "\"abc\""), is(true));
+		assertThat(AbstractOutputBufferingFilter.matchesIfNoneMatch(ifNoneMatch("\"xyz\"", "\"abc\""), "\"abc\""), is(true));
+		assertThat(AbstractOutputBufferingFilter.matchesIfNoneMatch(ifNoneMatch("*"), "\"abc\""), is(true));
+	}
+
+	@Test
+	public void does_not_match_if_none_match() {
+		assertThat(AbstractOutputBufferingFilter.matchesIfNoneMatch(ifNoneMatch(), "\"abc\""), is(false));
+		assertThat(AbstractOutputBufferingFilter.matchesIfNoneMatch(ifNoneMatch("\"abcd\""), "\"abc\""), is(false));
+		assertThat(AbstractOutputBufferingFilter.matchesIfNoneMatch(ifNoneMatch("abc"), "\"abc\""), is(false));
+	}
+
+	private static HttpServletRequest ifNoneMatch(String... ifNoneMatch) {
+		final HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+		when(request.getHeaders("If-None-Match")).thenReturn(Collections.enumeration(Arrays.asList(ifNoneMatch)));
+		return request;
+	}
+
+	@Test
+	public void handles_response_when_async_context_completes() throws IOException, ServletException {
+		final AsyncContext asyncContext = Mockito.mock(AsyncContext.class);
+		final HttpServletRequest request = asyncRequest(asyncContext, new HashMap<>(), DispatcherType.REQUEST);
+		final CapturingOutputStream os = new CapturingOutputStream();
+		final HttpServletResponse response = response(os);
+
+		final AsyncContext[] started = new AsyncContext[1];
+		final FilterChain chain = (req, res) -> {
+			started[0] = req.startAsync();
+			// the application writes through the response of the async context
+			started[0].getResponse().getOutputStream().write("Hello".getBytes(StandardCharsets.UTF_8));
+		};
+
+		final PassThroughFilter filter = new PassThroughFilter();
+		filter.init(null);
+		filter.doFilter(request, response, chain);
+
+		// the worker thread returns without handling the response
+		assertThat(os.toString(), equalTo(""));
+		verify(asyncContext).addListener(any());
+
+		started[0].complete();
+
+		assertThat(os.toString(), equalTo("Hello"));
+		verify(response).setContentLength(5);
+		verify(asyncContext, times(1)).complete();
+
+		// completing twice does not write twice
+		started[0].complete();
+		assertThat(os.toString(), equalTo("Hello"));
+	}
+
+	@Test
+	public void handles_response_when_async_dispatch_returns() throws IOException, ServletException {
+		final AsyncContext asyncContext = Mockito.mock(AsyncContext.class);
+		final Map<String, Object> attributes = new HashMap<>();
+		final HttpServletRequest request = asyncRequest(asyncContext, attributes, DispatcherType.REQUEST);
+		final CapturingOutputStream os = new CapturingOutputStream();
+		final HttpServletResponse response = response(os);
+
+		final PassThroughFilter filter = new PassThroughFilter();
+		filter.init(null);
+		filter.doFilter(request, response, (req, res) -> {
+			req.startAsync();
+			res.getOutputStream().write("Hello".getBytes(StandardCharsets.UTF_8));
+		});
+		assertThat(os.toString(), equalTo(""));
+
+		// the container dispatches the request again with the original response,
+		// after the async context has been dispatched
+		final HttpServletRequest dispatchedRequest = asyncRequest(asyncContext, attributes, DispatcherType.ASYNC);
+		filter.doFilter(dispatchedRequest, response, (req, res) -> {
+			res.getOutputStream().write(" World".getBytes(StandardCharsets.UTF_8));
+			// nothing is written to the client until the dispatch returns
+			assertThat(os.toString(), equalTo(""));
+		});
+
+		assertThat(os.toString(), equalTo("Hello World"));
+		verify(asyncContext, never()).complete();
+	}
+
+	@Test
+	public void discards_response_and_sets_error_status_when_async_processing_times_out() throws IOException, ServletException {
+		final AsyncContext asyncContext = Mockito.mock(AsyncContext.class);
+		final HttpServletRequest request = asyncRequest(asyncContext, new HashMap<>(), DispatcherType.REQUEST);
+		final CapturingOutputStream os = new CapturingOutputStream();
+		final HttpServletResponse response = response(os);
+
+		final PassThroughFilter filter = new PassThroughFilter();
+		filter.init(null);
+		filter.doFilter(request, response, (req, res) -> {
+			req.startAsync();
+			res.getOutputStream().write("Hello".getBytes(StandardCharsets.UTF_8));
+		});
+
+		final ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+		verify(asyncContext).addListener(listener.capture());
+		final AsyncEvent event = new AsyncEvent(asyncContext);
+		listener.getValue().onTimeout(event);
+		listener.getValue().onComplete(event);
+
+		assertThat(os.toString(), equalTo(""));
+		verify(response).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+	}
+
+	@Test
+	public void records_decisions_when_metrics_are_enabled() throws IOException, ServletException {
+		final FilterConfig filterConfig = Mockito.mock(FilterConfig.class);
+		when(filterConfig.getFilterName()).thenReturn("metricsTest");
+		when(filterConfig.getInitParameter(AbstractOutputBufferingFilter.METRICS_PARAMETER)).thenReturn("true");
+
+		final PassThroughFilter filter = new PassThroughFilter();
+		filter.init(filterConfig);
+		try {
+			final HttpServletRequest request = asyncRequest(Mockito.mock(AsyncContext.class), new HashMap<>(), DispatcherType.REQUEST);
+			final CapturingOutputStream os = new CapturingOutputStream();
+			filter.doFilter(request, response(os), (req, res) -> res.getOutputStream().write("Hello".getBytes(StandardCharsets.UTF_8)));
+
+			assertThat(os.toString(), equalTo("Hello"));
+			final FilterMetrics metrics = filter.getMetrics();
+			assertThat(metrics.getLatency(Decision.HANDLING_SKIPPED_OTHER).getCount(), equalTo(1L));
+			assertThat(metrics.getLatency(Decision.HANDLED).getCount(), equalTo(0L));
+			assertThat(metrics.getBufferedBytes().getMax(), equalTo(5L));
+			assertThat(metrics.getOutputBytes().getMax(), equalTo(5L));
+		} finally {
+			filter.destroy();
+		}
+	}
+
+	private static HttpServletRequest asyncRequest(AsyncContext asyncContext, Map<String, Object> attributes, DispatcherType dispatcherType) {
+		final HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+		when(request.getDispatcherType()).thenReturn(dispatcherType);
+		when(request.getMethod()).thenReturn("GET");
+		when(request.getAttribute(anyString())).then(i -> attributes.get(i.getArgument(0)));
+		Mockito.doAnswer(i -> attributes.put(i.getArgument(0), i.getArgument(1))).when(request).setAttribute(anyString(), any());
+		Mockito.doAnswer(i -> attributes.remove(i.getArgument(0))).when(request).removeAttribute(anyString());
+		final boolean[] asyncStarted = new boolean[1];
+		final ServletResponse[] asyncResponse = new ServletResponse[1];
+		when(request.isAsyncStarted()).then(i -> asyncStarted[0]);
+		when(request.getAsyncContext()).thenReturn(asyncContext);
+		when(request.startAsync()).then(i -> {
+			asyncStarted[0] = true;
+			return asyncContext;
+		});
+		when(request.startAsync(any(), any())).then(i -> {
+			asyncStarted[0] = true;
+			asyncResponse[0] = i.getArgument(1);
+			return asyncContext;
+		});
+		when(asyncContext.getResponse()).then(i -> asyncResponse[0]);
+		return request;
+	}
+
+	private static HttpServletResponse response(ServletOutputStream os) throws IOException {
+		final HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+		when(response.getCharacterEncoding()).thenReturn("UTF-8");
+		when(response.getStatus()).thenReturn(200);
+		when(response.getOutputStream()).thenReturn(os);
+		return response;
+	}
+
+	static class PassThroughFilter extends AbstractOutputBufferingFilter {
+		@Override
+		protected boolean skipExecution(HttpServletRequest request, HttpServletResponse response) {
+			return false;
+		}
+
+		@Override
+		protected boolean skipHandleResponse(HttpServletRequest request, BufferingHttpResponseWrapper response) {
+			return true;
+		}
+
+		@Override
+		protected InputStream handleResponse(HttpServletRequest request, BufferingHttpResponseWrapper response) throws IOException {
+			return response.getBuffer();
+		}
+	}
+
+	static class CapturingOutputStream extends ServletOutputStream {
+		final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+		@Override
+		public void write(int b) {
+			written.write(b);
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String toString() {
+			return new String(written.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package org.sevensource.commons.web.filter;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class AdaptiveSkipTrackerTest {
+
+	@Test
+	public void bypasses_patterns_without_savings() {
+		final AdaptiveSkipTracker tracker = new AdaptiveSkipTracker(0.02, 3, 60_000, 10);
+
+		tracker.record("/api/items/1", 1000, 1000, 100);
+		tracker.record("/api/items/2", 1000, 995, 100);
+		assertThat(tracker.shouldBypass("/api/items/3"), is(false));
+
+		tracker.record("/api/items/3", 1000, 1000, 100);
+		assertThat(tracker.shouldBypass("/api/items/4"), is(true));
+		assertThat(tracker.shouldBypass("/api/items"), is(false));
+		assertThat(tracker.getBypassedCount(), equalTo(1L));
+		assertThat(tracker.getBypassedPatterns().containsKey("/api/items/*"), is(true));
+	}
+
+	@Test
+	public void does_not_bypass_patterns_with_savings() {
+		final AdaptiveSkipTracker tracker = new AdaptiveSkipTracker(0.02, 3, 60_000, 10);
+
+		tracker.record("/index.html", 1000, 900, 100);
+		tracker.record("/index.html", 1000, 1000, 100);
+		tracker.record("/index.html", 1000, 1000, 100);
+		assertThat(tracker.shouldBypass("/index.html"), is(false));
+	}
+
+	@Test
+	public void bypasses_patterns_passed_through() {
+		final AdaptiveSkipTracker tracker = new AdaptiveSkipTracker(0.02, 2, 60_000, 10);
+
+		// the size of passed through responses is not known
+		tracker.record("/api/items", 0, 0, 0);
+		tracker.record("/api/items", 0, 0, 0);
+		assertThat(tracker.shouldBypass("/api/items"), is(true));
+	}
+
+	@Test
+	public void bypasses_patterns_with_savings_not_worth_the_time() {
+		final AdaptiveSkipTracker tracker = new AdaptiveSkipTracker(0.02, 100, 1, 60_000, 10);
+
+		// 500 bytes in 1 ms
+		tracker.record("/fast", 1000, 500, 1_000_000);
+		assertThat(tracker.shouldBypass("/fast"), is(false));
+
+		// 500 bytes in 10 ms
+		tracker.record("/slow", 1000, 500, 10_000_000);
+		assertThat(tracker.shouldBypass("/slow"), is(true));
+	}
+
+	@Test
+	public void samples_again_after_interval() throws InterruptedException {
+		final AdaptiveSkipTracker tracker = new AdaptiveSkipTracker(0.02, 1, 20, 10);
+
+		tracker.record("/feed", 1000, 1000, 100);
+		assertThat(tracker.shouldBypass("/feed"), is(true));
+
+		Thread.sleep(50);
+		assertThat(tracker.shouldBypass("/feed"), is(false));
+
+		tracker.record("/feed", 1000, 500, 100);
+		assertThat(tracker.shouldBypass("/feed"), is(false));
+	}
+
+	@Test
+	public void ignores_patterns_beyond_maximum() {
+		final AdaptiveSkipTracker tracker = new AdaptiveSkipTracker(0.02, 1, 60_000, 1);
+
+		tracker.record("/a", 1000, 1000, 100);
+		tracker.record("/b", 1000, 1000, 100);
+		assertThat(tracker.shouldBypass("/a"), is(true));
+		assertThat(tracker.shouldBypass("/b"), is(false));
+	}
+}
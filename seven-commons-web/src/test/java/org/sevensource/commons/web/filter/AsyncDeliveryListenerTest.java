@@ -0,0 +1,109 @@
+package org.sevensource.commons.web.filter;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class AsyncDeliveryListenerTest {
+
+	private static final byte[] CONTENT = new byte[AsyncDeliveryListener.CHUNK_SIZE * 3 + 100];
+
+	static {
+		new Random(1).nextBytes(CONTENT);
+	}
+
+	AsyncContext asyncContext;
+	ThrottledOutputStream os;
+	AtomicInteger released;
+	AsyncDeliveryListener listener;
+
+	@Before
+	public void beforeEach() {
+		asyncContext = Mockito.mock(AsyncContext.class);
+		os = new ThrottledOutputStream();
+		released = new AtomicInteger();
+		listener = new AsyncDeliveryListener(asyncContext, os, new ByteArrayInputStream(CONTENT), released::incrementAndGet);
+	}
+
+	@Test
+	public void writes_while_stream_is_ready() throws IOException {
+		// the client reads one chunk each time writing is possible
+		int calls = 0;
+		while (!listener.isFinished()) {
+			os.writesUntilBlocked = 1;
+			listener.onWritePossible();
+			calls++;
+		}
+
+		assertThat(calls, equalTo(5));
+		assertThat(os.written.toByteArray(), equalTo(CONTENT));
+		assertThat(released.get(), equalTo(1));
+		verify(asyncContext, times(1)).complete();
+	}
+
+	@Test
+	public void releases_buffer_on_error() throws IOException {
+		os.writesUntilBlocked = 1;
+		listener.onWritePossible();
+		listener.onError(new IOException("connection reset"));
+		listener.onError(new IOException("connection reset"));
+
+		assertThat(listener.isFinished(), is(true));
+		assertThat(released.get(), equalTo(1));
+		verify(asyncContext, times(1)).complete();
+	}
+
+	@Test
+	public void does_not_complete_twice() {
+		listener.onComplete(null);
+		listener.onTimeout(null);
+
+		assertThat(released.get(), equalTo(1));
+		verify(asyncContext, never()).complete();
+	}
+
+	private static class ThrottledOutputStream extends ServletOutputStream {
+		final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		int writesUntilBlocked = 0;
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (writesUntilBlocked <= 0) {
+				throw new IllegalStateException("not ready");
+			}
+			writesUntilBlocked--;
+			written.write(b, off, len);
+		}
+
+		@Override
+		public boolean isReady() {
+			return writesUntilBlocked > 0;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+		}
+	}
+}
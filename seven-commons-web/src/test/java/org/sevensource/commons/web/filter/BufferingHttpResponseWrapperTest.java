@@ -8,10 +8,15 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.CharConversionException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.stream.Collectors;
 
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletResponse;
 
 import org.junit.Before;
@@ -65,4 +70,109 @@ public class BufferingHttpResponseWrapperTest {
 
 		assertThat(result, equalTo("Hello World"));
 	}
+
+	@Test
+	public void writes_byte_array_chunks_to_buffer() throws IOException {
+		BufferingHttpResponseWrapper wrapper = new BufferingHttpResponseWrapper(response);
+
+		final byte[] chunk = new byte[3000];
+		for (int i = 0; i < chunk.length; i++) {
+			chunk[i] = (byte) ('a' + (i % 26));
+		}
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		for (int i = 0; i < 5; i++) {
+			wrapper.getOutputStream().write(chunk, i, chunk.length - i);
+			expected.write(chunk, i, chunk.length - i);
+		}
+
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		wrapper.writeBufferTo(result);
+
+		assertThat(wrapper.getBufferSize(), equalTo(expected.size()));
+		assertThat(result.toByteArray(), equalTo(expected.toByteArray()));
+	}
+
+	@Test
+	public void prints_strings_to_buffer() throws IOException {
+		BufferingHttpResponseWrapper wrapper = new BufferingHttpResponseWrapper(response);
+		wrapper.getOutputStream().print("Hello");
+		wrapper.getOutputStream().print(' ');
+		wrapper.getOutputStream().println("W\u00f6rld");
+		wrapper.getOutputStream().print(42);
+
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		wrapper.writeBufferTo(result);
+
+		assertThat(new String(result.toByteArray(), StandardCharsets.ISO_8859_1), equalTo("Hello W\u00f6rld\r\n42"));
+	}
+
+	@Test(expected=CharConversionException.class)
+	public void print_rejects_non_latin1_characters() throws IOException {
+		BufferingHttpResponseWrapper wrapper = new BufferingHttpResponseWrapper(response);
+		wrapper.getOutputStream().print("\u20ac");
+	}
+
+	@Test
+	public void passes_through_once_threshold_is_exceeded() throws IOException {
+		CapturingOutputStream os = new CapturingOutputStream();
+		when(response.getOutputStream()).thenReturn(os);
+
+		BufferingHttpResponseWrapper wrapper = new BufferingHttpResponseWrapper(response);
+		wrapper.setPassThroughThreshold(10);
+		wrapper.getOutputStream().write("Hello".getBytes());
+		assertThat(wrapper.isPassingThrough(), equalTo(false));
+		verify(response, times(0)).getOutputStream();
+
+		wrapper.getOutputStream().write(" World".getBytes());
+		assertThat(wrapper.isPassingThrough(), equalTo(true));
+		assertThat(os.toString(), equalTo("Hello World"));
+
+		wrapper.getOutputStream().write("!".getBytes());
+		assertThat(os.toString(), equalTo("Hello World!"));
+		assertThat(wrapper.getBufferSize(), equalTo(0));
+	}
+
+	@Test
+	public void passes_through_content_types_not_buffered() throws IOException {
+		CapturingOutputStream os = new CapturingOutputStream();
+		when(response.getOutputStream()).thenReturn(os);
+
+		BufferingHttpResponseWrapper wrapper = new BufferingHttpResponseWrapper(response);
+		wrapper.setBufferedContentTypes(type -> type.startsWith("text/html"));
+		wrapper.setContentType("text/html");
+		wrapper.getWriter().write("<html>");
+		wrapper.flushBuffer();
+		assertThat(wrapper.isPassingThrough(), equalTo(false));
+
+		wrapper.setHeader("Content-Type", "application/json");
+		assertThat(wrapper.isPassingThrough(), equalTo(true));
+		wrapper.getWriter().write("{}");
+		wrapper.flushBuffer();
+		assertThat(os.toString(), equalTo("<html>{}"));
+	}
+
+	static class CapturingOutputStream extends ServletOutputStream {
+		final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+		@Override
+		public void write(int b) {
+			written.write(b);
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String toString() {
+			return new String(written.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
 }
@@ -0,0 +1,72 @@
+package org.sevensource.commons.web.filter;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.Test;
+import org.sevensource.commons.web.filter.FilterMetrics.Decision;
+import org.sevensource.commons.web.util.MBeans;
+
+public class FilterMetricsTest {
+
+	@Test
+	public void records_decisions_and_sizes() {
+		final FilterMetrics metrics = new FilterMetrics();
+		metrics.record(Decision.HANDLED, 1000);
+		metrics.record(Decision.HANDLED, 3000);
+		metrics.record(Decision.EXECUTION_SKIPPED, 10);
+		metrics.recordBufferedBytes(2048);
+		metrics.recordOutputBytes(1024);
+
+		assertThat(metrics.getDecisions().get("HANDLED"), equalTo(2L));
+		assertThat(metrics.getDecisions().get("PASSED_THROUGH"), equalTo(0L));
+		assertThat(metrics.getLatencyNanos().keySet().size(), equalTo(2));
+		assertThat(metrics.getLatencyNanos().get("HANDLED").getMax(), equalTo(3000L));
+		assertThat(metrics.getBufferedBytes().getP99(), equalTo(2048L));
+		assertThat(metrics.getOutputBytes().getCount(), equalTo(1L));
+
+		metrics.reset();
+		assertThat(metrics.getDecisions().get("HANDLED"), equalTo(0L));
+		assertThat(metrics.getLatencyNanos().isEmpty(), is(true));
+	}
+
+	@Test
+	public void exposes_metrics_as_mxbean() throws Exception {
+		final FilterMetrics metrics = new FilterMetrics();
+		metrics.record(Decision.HANDLED, 1000);
+		metrics.recordBufferedBytes(2048);
+
+		final ObjectName name = MBeans.register(metrics, AbstractOutputBufferingFilter.METRICS_MBEAN_TYPE, "test");
+		try {
+			final TabularData decisions = (TabularData) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Decisions");
+			assertThat(decisions.get(new Object[] { "HANDLED" }).get("value"), equalTo((Object) 1L));
+
+			final CompositeData bufferedBytes = (CompositeData) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "BufferedBytes");
+			assertThat(bufferedBytes.get("max"), equalTo((Object) 2048L));
+		} finally {
+			MBeans.unregister(name);
+		}
+	}
+
+	@Test
+	public void registers_filters_of_same_name_in_different_contexts() throws Exception {
+		final ObjectName root = MBeans.register(new FilterMetrics(), AbstractOutputBufferingFilter.METRICS_MBEAN_TYPE, "", "test");
+		final ObjectName app = MBeans.register(new FilterMetrics(), AbstractOutputBufferingFilter.METRICS_MBEAN_TYPE, "/app", "test");
+		try {
+			assertThat(root.getKeyProperty("context"), equalTo("/"));
+			assertThat(app.getKeyProperty("context"), equalTo("/app"));
+			assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(root), is(true));
+			assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(app), is(true));
+		} finally {
+			MBeans.unregister(root);
+			MBeans.unregister(app);
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package org.sevensource.commons.web.filter.minify;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.sevensource.commons.web.filter.minify.CharSequenceJSMin.JSMinException;
+
+public class CharSequenceJSMinTest {
+
+	private final static String SCRIPT_TEST_MINIFY_FILE = "src/test/resources/tidy_test_script_minify.html";
+
+	private final static Pattern SCRIPT_PATTERN = Pattern.compile("<script>(.*?)</script>", Pattern.DOTALL);
+
+	@Test
+	public void minifies_script() throws JSMinException {
+		assertThat(CharSequenceJSMin.minify("function test (   ) { wow = \n\n \"aha   \";\n}"),
+				equalTo("function test(){wow=\"aha   \";}"));
+		assertThat(CharSequenceJSMin.minify("var wow\n\t\t= 1 ;"), equalTo("var wow=1;"));
+	}
+
+	@Test
+	public void keeps_regular_expressions_strings_and_significant_spaces() throws JSMinException {
+		assertThat(CharSequenceJSMin.minify("var a = /[a-z]+\\//g.test(x) ? 'b' : \"c\"; // comment\n/* block\n comment */ a ++ + b;"),
+				equalTo("var a=/[a-z]+\\//g.test(x)?'b':\"c\";a++ +b;"));
+		assertThat(CharSequenceJSMin.minify("\r\nvar s = `template\tliteral`;\r\nif (a) {\n\treturn - -b;\n}\n"),
+				equalTo("var s=`template\tliteral`;if(a){return- -b;}"));
+	}
+
+	@Test
+	public void keeps_non_ascii_characters() throws JSMinException {
+		assertThat(CharSequenceJSMin.minify("var umlaut = \"äöü\";\nvar ö = 1;"), equalTo("var umlaut=\"äöü\";var ö=1;"));
+	}
+
+	@Test
+	public void produces_same_output_as_jsmin() throws Exception {
+		final String html = new String(Files.readAllBytes(Paths.get(SCRIPT_TEST_MINIFY_FILE)), StandardCharsets.UTF_8);
+		final Matcher matcher = SCRIPT_PATTERN.matcher(html);
+		while (matcher.find()) {
+			assertSameOutput(matcher.group(1));
+		}
+	}
+
+	@Test(expected = JSMinException.class)
+	public void rejects_unterminated_comment() throws JSMinException {
+		CharSequenceJSMin.minify("var a = 1; /* comment");
+	}
+
+	@SuppressWarnings("deprecation")
+	private static void assertSameOutput(String script) throws Exception {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		new JSMin(new ByteArrayInputStream(script.getBytes(StandardCharsets.UTF_8)), os).jsmin();
+		final String expected = new String(os.toByteArray(), StandardCharsets.UTF_8);
+
+		assertThat(CharSequenceJSMin.minify(script), equalTo(expected));
+	}
+}
@@ -0,0 +1,74 @@
+package org.sevensource.commons.web.filter.minify;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class CssMinifierTest {
+
+	@Test
+	public void removes_comments_and_white_space() {
+		assertThat(CssMinifier.minify("/* comment */\n a:hover ,\n div > p {\n\tcolor : red ;\n\tmargin: 1px  2px;\n}\n"),
+				equalTo("a:hover,div>p{color:red;margin:1px 2px}"));
+	}
+
+	@Test
+	public void keeps_tokens_separated_by_comments_apart() {
+		assertThat(CssMinifier.minify("a { margin: 1px/**/2px; color: red/* x */; }\n.a/**/.b/**/{}"),
+				equalTo("a{margin:1px 2px;color:red}.a.b{}"));
+	}
+
+	@Test
+	public void keeps_white_space_in_selectors() {
+		assertThat(CssMinifier.minify("div :first-child { color: red }"), equalTo("div :first-child{color:red}"));
+	}
+
+	@Test
+	public void removes_units_of_zero_lengths() {
+		assertThat(CssMinifier.minify("a { margin: 0px 10px 0.5em 0%; padding: 0EM }"),
+				equalTo("a{margin:0 10px 0.5em 0%;padding:0}"));
+	}
+
+	@Test
+	public void keeps_units_in_functions_and_flex() {
+		assertThat(CssMinifier.minify("a { width: calc(100% - 0px); flex: 1 1 0px }"),
+				equalTo("a{width:calc(100% - 0px);flex:1 1 0px}"));
+	}
+
+	@Test
+	public void keeps_flex_basis_of_flex_shorthand() {
+		assertThat(CssMinifier.minify("a { flex: 0 0 0%; -webkit-flex: 0 0 0px; flex-basis: 0px; flex-grow: 0 }"),
+				equalTo("a{flex:0 0 0%;-webkit-flex:0 0 0px;flex-basis:0;flex-grow:0}"));
+	}
+
+	@Test
+	public void keeps_units_in_math_functions_and_custom_properties() {
+		assertThat(CssMinifier.minify(":root { --x: 0px; --y:0em } a { margin: calc(0px + 1em) max(0px, 1vw); width: calc(var(--x) + 1px) }"),
+				equalTo(":root{--x:0px;--y:0em}a{margin:calc(0px + 1em) max(0px,1vw);width:calc(var(--x) + 1px)}"));
+		assertThat(CssMinifier.minifyDeclarations("--gap: 0px; gap: 0px"), equalTo("--gap:0px;gap:0"));
+	}
+
+	@Test
+	public void shortens_colours_in_values_only() {
+		assertThat(CssMinifier.minify("#aabbcc { color: #AABBCC; background: #aabbcd; border-color: #aabbccdd }"),
+				equalTo("#aabbcc{color:#ABC;background:#aabbcd;border-color:#aabbccdd}"));
+	}
+
+	@Test
+	public void keeps_strings_and_urls() {
+		assertThat(CssMinifier.minify("a { font-family: 'Foo  Bar' , serif; background: url(data:image/png;base64,AA/*x*/) }"),
+				equalTo("a{font-family:'Foo  Bar',serif;background:url(data:image/png;base64,AA/*x*/)}"));
+	}
+
+	@Test
+	public void handles_at_rules() {
+		assertThat(CssMinifier.minify("@media screen and (max-width: 100px) { .a { padding: 0em !important; } }\n@font-face { src: url(x.woff) ; }"),
+				equalTo("@media screen and (max-width:100px){.a{padding:0!important}}@font-face{src:url(x.woff)}"));
+	}
+
+	@Test
+	public void minifies_declarations() {
+		assertThat(CssMinifier.minifyDeclarations(" color : #ffffff ; margin: 0px ; "), equalTo("color:#fff;margin:0"));
+	}
+}
@@ -0,0 +1,126 @@
+package org.sevensource.commons.web.filter.tidy;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.sevensource.commons.web.filter.tidy.HtmlTidyProcessor.TidyProcessorFormatter;
+import org.sevensource.commons.web.util.FastByteArrayOutputStream;
+
+public class HeadFlushingResponseWrapperTest {
+
+	private static final String HEAD = "<html><head><title>test</title></HEAD>";
+	private static final String BODY = "<body><p>test</p></body></html>";
+
+	HttpServletResponse response;
+	ByteArrayOutputStream sent;
+	HtmlTidyProcessor processor;
+
+	@Before
+	public void beforeEach() throws IOException {
+		sent = new ByteArrayOutputStream();
+		response = Mockito.mock(HttpServletResponse.class);
+		when(response.getCharacterEncoding()).thenReturn("UTF-8");
+		when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				sent.write(b);
+			}
+
+			@Override
+			public boolean isReady() {
+				return true;
+			}
+
+			@Override
+			public void setWriteListener(WriteListener writeListener) {
+			}
+		});
+		processor = new HtmlTidyProcessor(new HashSet<>(), TidyProcessorFormatter.NONE);
+	}
+
+	@Test
+	public void flushes_head_before_body_is_complete() throws IOException {
+		HeadFlushingResponseWrapper wrapper = new HeadFlushingResponseWrapper(response, new FastByteArrayOutputStream(), processor, r -> true);
+		OutputStream os = wrapper.getOutputStream();
+		os.write(HEAD.getBytes(StandardCharsets.UTF_8));
+		os.flush();
+
+		assertThat(wrapper.isHeadFlushed(), is(true));
+		assertThat(sent.toString("UTF-8"), equalTo(HEAD));
+		verify(response, times(1)).flushBuffer();
+
+		os.write(BODY.getBytes(StandardCharsets.UTF_8));
+		assertThat(IOUtils.toString(wrapper.getBuffer(), StandardCharsets.UTF_8), equalTo(BODY));
+	}
+
+	@Test
+	public void finds_head_written_byte_by_byte() throws IOException {
+		StringBuilder sb = new StringBuilder("<html><head><title>");
+		for (int i = 0; i < HeadFlushingResponseWrapper.SCAN_INTERVAL * 2; i++) {
+			sb.append('a');
+		}
+		sb.append("</title></head><body>");
+		for (int i = 0; i < HeadFlushingResponseWrapper.SCAN_INTERVAL * 2; i++) {
+			sb.append('b');
+		}
+
+		HeadFlushingResponseWrapper wrapper = new HeadFlushingResponseWrapper(response, new FastByteArrayOutputStream(), processor, r -> true);
+		OutputStream os = wrapper.getOutputStream();
+		for (byte b : sb.toString().getBytes(StandardCharsets.UTF_8)) {
+			os.write(b);
+		}
+
+		assertThat(wrapper.isHeadFlushed(), is(true));
+		final String sentContent = sent.toString("UTF-8");
+		assertThat(sentContent.endsWith("</title></head>"), is(true));
+		assertThat(sentContent + IOUtils.toString(wrapper.getBuffer(), StandardCharsets.UTF_8), equalTo(sb.toString()));
+	}
+
+	@Test
+	public void ignores_closing_head_tags_in_comments_scripts_and_styles() throws IOException {
+		final String head = "<html><head><!-- </head> --><script>document.write('</head>');</script>"
+				+ "<style>/* </head> */</style><SCRIPT type=\"text/javascript\">var s = \"</HEAD>\";</SCRIPT></head>";
+
+		HeadFlushingResponseWrapper wrapper = new HeadFlushingResponseWrapper(response, new FastByteArrayOutputStream(), processor, r -> true);
+		OutputStream os = wrapper.getOutputStream();
+		os.write(head.getBytes(StandardCharsets.UTF_8));
+		os.flush();
+
+		assertThat(wrapper.isHeadFlushed(), is(true));
+		assertThat(sent.toString("UTF-8"), equalTo(head));
+
+		os.write(BODY.getBytes(StandardCharsets.UTF_8));
+		assertThat(IOUtils.toString(wrapper.getBuffer(), StandardCharsets.UTF_8), equalTo(BODY));
+	}
+
+	@Test
+	public void buffers_whole_response_if_condition_does_not_match() throws IOException {
+		HeadFlushingResponseWrapper wrapper = new HeadFlushingResponseWrapper(response, new FastByteArrayOutputStream(), processor, r -> false);
+		wrapper.getWriter().write(HEAD);
+		wrapper.getWriter().flush();
+		wrapper.getWriter().write(BODY);
+
+		assertThat(wrapper.isHeadFlushed(), is(false));
+		verify(response, never()).getOutputStream();
+		assertThat(IOUtils.toString(wrapper.getBuffer(), StandardCharsets.UTF_8), equalTo(HEAD + BODY));
+	}
+}
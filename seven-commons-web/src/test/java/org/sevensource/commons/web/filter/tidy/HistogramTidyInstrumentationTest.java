@@ -0,0 +1,62 @@
+package org.sevensource.commons.web.filter.tidy;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Test;
+import org.sevensource.commons.web.filter.tidy.HistogramTidyInstrumentation.StageStatistics;
+import org.sevensource.commons.web.filter.tidy.TidyInstrumentation.Stage;
+import org.sevensource.commons.web.util.MBeans;
+
+public class HistogramTidyInstrumentationTest {
+
+	@Test
+	public void aggregates_completed_stages() {
+		final HistogramTidyInstrumentation instrumentation = new HistogramTidyInstrumentation();
+		instrumentation.stageCompleted(Stage.PARSE, 1000, -1, 500);
+		instrumentation.stageCompleted(Stage.REMOVE_COMMENTS, 200, 500, 400);
+		instrumentation.stageCompleted(Stage.PARSE, 3000, -1, 700);
+		instrumentation.stageCompleted(Stage.REMOVE_COMMENTS, 400, 700, 600);
+
+		assertThat(instrumentation.getDocuments(), equalTo(2L));
+
+		final List<StageStatistics> stages = instrumentation.getStages();
+		assertThat(stages.size(), equalTo(2));
+		assertThat(stages.get(1).getStage(), equalTo("REMOVE_COMMENTS"));
+		assertThat(stages.get(1).getCount(), equalTo(2L));
+		assertThat(stages.get(1).getMaxNanos(), equalTo(400L));
+		assertThat(stages.get(1).getInputSize(), equalTo(1200L));
+		assertThat(stages.get(1).getOutputSize(), equalTo(1000L));
+		assertThat(stages.get(0).getInputSize(), equalTo(0L));
+
+		instrumentation.reset();
+		assertThat(instrumentation.getDocuments(), equalTo(0L));
+		assertThat(instrumentation.getStages().isEmpty(), is(true));
+	}
+
+	@Test
+	public void exposes_stages_as_mxbean() throws Exception {
+		final HistogramTidyInstrumentation instrumentation = new HistogramTidyInstrumentation();
+		instrumentation.stageCompleted(Stage.PARSE, 1000, -1, 500);
+
+		final ObjectName name = MBeans.register(instrumentation, HtmlTidyFilter.INSTRUMENTATION_MBEAN_TYPE, "test");
+		try {
+			final Object documents = ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Documents");
+			assertThat(documents, equalTo((Object) 1L));
+
+			final CompositeData[] stages = (CompositeData[]) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Stages");
+			assertThat(stages.length, equalTo(1));
+			assertThat(stages[0].get("stage"), equalTo((Object) "PARSE"));
+			assertThat(stages[0].get("maxNanos"), equalTo((Object) 1000L));
+		} finally {
+			MBeans.unregister(name);
+		}
+	}
+}
@@ -6,6 +6,7 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.junit.Assert.assertThat;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -15,8 +16,11 @@ import java.util.HashSet;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
+import org.sevensource.commons.web.filter.tidy.HistogramTidyInstrumentation.StageStatistics;
+import org.sevensource.commons.web.filter.tidy.HtmlTidyProcessor.ProcessingTimeoutException;
 import org.sevensource.commons.web.filter.tidy.HtmlTidyProcessor.TidyProcessorFormatter;
 import org.sevensource.commons.web.filter.tidy.HtmlTidyProcessor.TidyProcessorOption;
+import org.sevensource.commons.web.filter.tidy.TidyInstrumentation.Stage;
 import org.xmlunit.matchers.EvaluateXPathMatcher;
 import org.xmlunit.matchers.HasXPathMatcher;
 
@@ -48,6 +52,19 @@ public class HtmlTidyProcessorTest {
 		assertThat(result, containsString("<div>test </div>"));
 	}
 
+	@Test
+	public void compact_keeps_relocated_styles() throws IOException {
+		HtmlTidyProcessor p = new HtmlTidyProcessor(EnumSet.of(TidyProcessorOption.RELOCATE_STYLES_TO_HEAD, TidyProcessorOption.REMOVE_COMMENTS), TidyProcessorFormatter.COMPACT);
+		InputStream is = new FileInputStream(STYLE_TEST_FILE);
+		InputStream processed = p.process(is);
+		String result = IOUtils.toString(processed, StandardCharsets.UTF_8);
+
+		assertThat(result, HasXPathMatcher.hasXPath("/html/head/style[1]"));
+		assertThat(result, HasXPathMatcher.hasXPath("/html/head/style[2]"));
+		assertThat(result, not(HasXPathMatcher.hasXPath("/html/body/style[1]")));
+		assertThat(result, containsString("<div>test </div>"));
+	}
+
 	@Test
 	public void comment_removal_works() throws IOException {
 		HtmlTidyProcessor p = new HtmlTidyProcessor(EnumSet.of(TidyProcessorOption.REMOVE_COMMENTS), TidyProcessorFormatter.NONE);
@@ -134,4 +151,97 @@ public class HtmlTidyProcessorTest {
 		assertThat(result, EvaluateXPathMatcher.hasXPath("/html/body/script[1]/text()", equalTo("var wow=1;")));
 		assertThat(result, EvaluateXPathMatcher.hasXPath("/html/body/script[2]/text()", equalTo("function test(){wow=\"aha   \";}")));
 	}
+
+	@Test
+	public void script_minification_is_cached() throws IOException {
+		StringBuilder script = new StringBuilder();
+		for (int i = 0; i < ScriptMinifier.MIN_CACHEABLE_LENGTH; i++) {
+			script.append("var   a").append(i).append(" = ").append(i).append(";\n");
+		}
+		String html = "<html><head></head><body><script>" + script + "</script></body></html>";
+
+		HtmlTidyProcessor p = new HtmlTidyProcessor(EnumSet.of(TidyProcessorOption.MINIFY_SCRIPTS), TidyProcessorFormatter.NONE);
+		long hits = ScriptMinifier.getCache().getHitCount();
+
+		String first = IOUtils.toString(p.process(new ByteArrayInputStream(html.getBytes(StandardCharsets.UTF_8))), StandardCharsets.UTF_8);
+		String second = IOUtils.toString(p.process(new ByteArrayInputStream(html.getBytes(StandardCharsets.UTF_8))), StandardCharsets.UTF_8);
+
+		assertThat(second, equalTo(first));
+		assertThat(first, containsString("var a0=0;"));
+		assertThat(ScriptMinifier.getCache().getHitCount(), equalTo(hits + 1));
+	}
+
+	@Test
+	public void style_minification_works() throws IOException {
+		HtmlTidyProcessor p = new HtmlTidyProcessor(EnumSet.of(TidyProcessorOption.MINIFY_STYLES), TidyProcessorFormatter.NONE);
+		InputStream is = new FileInputStream(STYLE_TEST_FILE);
+		InputStream processed = p.process(is);
+		String result = IOUtils.toString(processed, StandardCharsets.UTF_8);
+
+		assertThat(result, EvaluateXPathMatcher.hasXPath("/html/body/style[1]/text()", equalTo("body{background-color:blue}")));
+		assertThat(result, EvaluateXPathMatcher.hasXPath("/html/body/style[2]/text()", equalTo("body{background-color:blue}")));
+	}
+
+	@Test
+	public void style_attribute_minification_works() throws IOException {
+		String html = "<html><head></head><body><p style=\"color : #ffffff ; margin: 0px ;\">test</p></body></html>";
+
+		HtmlTidyProcessor p = new HtmlTidyProcessor(EnumSet.of(TidyProcessorOption.MINIFY_STYLE_ATTRIBUTES), TidyProcessorFormatter.NONE);
+		String result = IOUtils.toString(p.process(new ByteArrayInputStream(html.getBytes(StandardCharsets.UTF_8))), StandardCharsets.UTF_8);
+
+		assertThat(result, containsString("<p style=\"color:#fff;margin:0\">"));
+	}
+
+	@Test
+	public void relocated_styles_are_minified() throws IOException {
+		HtmlTidyProcessor p = new HtmlTidyProcessor(EnumSet.of(TidyProcessorOption.RELOCATE_STYLES_TO_HEAD, TidyProcessorOption.MINIFY_STYLES), TidyProcessorFormatter.NONE);
+		InputStream is = new FileInputStream(STYLE_TEST_FILE);
+		InputStream processed = p.process(is);
+		String result = IOUtils.toString(processed, StandardCharsets.UTF_8);
+
+		assertThat(result, EvaluateXPathMatcher.hasXPath("/html/head/style[1]/text()", equalTo("body{background-color:blue}")));
+		assertThat(result, not(HasXPathMatcher.hasXPath("/html/body/style[1]")));
+	}
+
+	@Test
+	public void processing_within_budget_works() throws IOException {
+		HtmlTidyProcessor p = new HtmlTidyProcessor(EnumSet.allOf(TidyProcessorOption.class), TidyProcessorFormatter.FORMAT);
+		String expected = IOUtils.toString(p.process(new FileInputStream(SCRIPT_TEST_FILE)), StandardCharsets.UTF_8);
+		String result = IOUtils.toString(p.process(new FileInputStream(SCRIPT_TEST_FILE), 60_000), StandardCharsets.UTF_8);
+
+		assertThat(result, equalTo(expected));
+	}
+
+	@Test(expected=ProcessingTimeoutException.class)
+	public void processing_exceeding_budget_fails() throws IOException {
+		final StringBuilder sb = new StringBuilder("<html><head></head><body>");
+		for (int i = 0; i < 20_000; i++) {
+			sb.append("<div><!-- comment --><script>var a").append(i).append(" = 1;</script></div>\n");
+		}
+		sb.append("</body></html>");
+
+		HtmlTidyProcessor p = new HtmlTidyProcessor(EnumSet.allOf(TidyProcessorOption.class), TidyProcessorFormatter.FORMAT);
+		p.process(new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8)), 1);
+	}
+
+	@Test
+	public void instrumentation_records_enabled_stages() throws IOException {
+		final HistogramTidyInstrumentation instrumentation = new HistogramTidyInstrumentation();
+		HtmlTidyProcessor p = new HtmlTidyProcessor(EnumSet.of(TidyProcessorOption.REMOVE_COMMENTS), TidyProcessorFormatter.COMPACT, null, instrumentation);
+		InputStream processed = p.process(new FileInputStream(SIMPLE_TEST_FILE));
+		IOUtils.toString(processed, StandardCharsets.UTF_8);
+
+		assertThat(instrumentation.getDocuments(), equalTo(1L));
+		assertThat(instrumentation.getHistogram(Stage.REMOVE_COMMENTS).getCount(), equalTo(1L));
+		assertThat(instrumentation.getHistogram(Stage.COMPACT).getCount(), equalTo(1L));
+		assertThat(instrumentation.getHistogram(Stage.OUTPUT).getCount(), equalTo(1L));
+		assertThat(instrumentation.getHistogram(Stage.MINIFY_SCRIPTS).getCount(), equalTo(0L));
+		assertThat(instrumentation.getHistogram(Stage.FORMAT).getCount(), equalTo(0L));
+
+		for (StageStatistics statistics : instrumentation.getStages()) {
+			if (Stage.REMOVE_COMMENTS.name().equals(statistics.getStage())) {
+				assertThat(statistics.getOutputSize() < statistics.getInputSize(), is(true));
+			}
+		}
+	}
 }
@@ -0,0 +1,64 @@
+package org.sevensource.commons.web.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class BoundedExecutorTest {
+
+	@Test
+	public void rejects_tasks_when_saturated() {
+		final List<Runnable> queued = new ArrayList<>();
+		final BoundedExecutor executor = new BoundedExecutor(queued::add, 2);
+		final AtomicInteger runs = new AtomicInteger();
+
+		assertThat(executor.tryExecute(runs::incrementAndGet), is(true));
+		assertThat(executor.tryExecute(runs::incrementAndGet), is(true));
+		assertThat(executor.tryExecute(runs::incrementAndGet), is(false));
+		assertThat(executor.getActiveTasks(), equalTo(2));
+
+		// a finished task makes room for the next one
+		queued.remove(0).run();
+		assertThat(executor.getActiveTasks(), equalTo(1));
+		assertThat(executor.tryExecute(runs::incrementAndGet), is(true));
+
+		queued.forEach(Runnable::run);
+		assertThat(runs.get(), equalTo(3));
+		assertThat(executor.getActiveTasks(), equalTo(0));
+		assertThat(executor.getExecutedCount(), equalTo(3L));
+		assertThat(executor.getRejectedCount(), equalTo(1L));
+	}
+
+	@Test
+	public void releases_permit_of_failing_task() {
+		final BoundedExecutor executor = new BoundedExecutor(Runnable::run, 1);
+		try {
+			executor.tryExecute(() -> {
+				throw new IllegalStateException();
+			});
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertThat(executor.getActiveTasks(), equalTo(0));
+		assertThat(executor.tryExecute(() -> {}), is(true));
+	}
+
+	@Test
+	public void rejects_tasks_after_shutdown() {
+		final ExecutorService executorService = Executors.newSingleThreadExecutor();
+		executorService.shutdown();
+
+		final BoundedExecutor executor = new BoundedExecutor(executorService, 1);
+		assertThat(executor.tryExecute(() -> {}), is(false));
+		assertThat(executor.getActiveTasks(), equalTo(0));
+		assertThat(executor.getRejectedCount(), equalTo(1L));
+	}
+}
@@ -0,0 +1,53 @@
+package org.sevensource.commons.web.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ConcurrentHistogramTest {
+
+	@Test
+	public void reports_percentiles_within_precision() {
+		final ConcurrentHistogram histogram = new ConcurrentHistogram();
+		for (long i = 1; i <= 10_000; i++) {
+			histogram.record(i * 1000);
+		}
+
+		assertThat(histogram.getCount(), equalTo(10_000L));
+		assertThat(histogram.getMax(), equalTo(10_000_000L));
+		assertThat(histogram.getMean(), equalTo(5_000_500d));
+		assertWithin(histogram.getValueAtPercentile(50), 5_000_000);
+		assertWithin(histogram.getValueAtPercentile(99), 9_900_000);
+		assertThat(histogram.getValueAtPercentile(100), equalTo(10_000_000L));
+	}
+
+	@Test
+	public void maps_values_to_buckets_containing_them() {
+		for (long value : new long[] { 0, 1, 31, 32, 33, 63, 64, 1000, 123_456_789, Long.MAX_VALUE }) {
+			final int index = ConcurrentHistogram.index(value);
+			assertTrue(value + " above bucket", value <= ConcurrentHistogram.highestValue(index));
+			assertTrue(value + " below bucket", index == 0 || value > ConcurrentHistogram.highestValue(index - 1));
+		}
+	}
+
+	@Test
+	public void reset_discards_values() {
+		final ConcurrentHistogram histogram = new ConcurrentHistogram();
+		histogram.record(42);
+		histogram.record(-1);
+		assertThat(histogram.getValueAtPercentile(0), equalTo(0L));
+
+		histogram.reset();
+		assertThat(histogram.getCount(), equalTo(0L));
+		assertThat(histogram.getMax(), equalTo(0L));
+		assertThat(histogram.getValueAtPercentile(99), equalTo(0L));
+		assertThat(histogram.getMean(), is(0d));
+	}
+
+	private static void assertWithin(long actual, long expected) {
+		assertTrue(actual + " not within 1/32 of " + expected, Math.abs(actual - expected) <= expected / 32);
+	}
+}
@@ -0,0 +1,121 @@
+package org.sevensource.commons.web.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DirectByteBufferOutputStreamTest {
+
+	private static final String CONTENT = "<html><body>Grüße aus Köln €</body></html>";
+
+	private DirectBufferPool pool;
+	private DirectByteBufferOutputStream os;
+
+	@Before
+	public void beforeEach() throws IOException {
+		pool = new DirectBufferPool(7, 100, 2);
+		os = new DirectByteBufferOutputStream(pool);
+		os.write(CONTENT, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void stores_content_across_segments() throws IOException {
+		final byte[] expected = CONTENT.getBytes(StandardCharsets.UTF_8);
+		assertThat(os.size(), equalTo(expected.length));
+
+		final InputStream is = os.getInputStream();
+		final ByteArrayOutputStream result = new ByteArrayOutputStream();
+		final byte[] chunk = new byte[5];
+		int n;
+		while ((n = is.read(chunk)) != -1) {
+			result.write(chunk, 0, n);
+		}
+
+		assertThat(result.toByteArray(), equalTo(expected));
+	}
+
+	@Test
+	public void writes_to_stream_and_channel() throws IOException {
+		final byte[] expected = CONTENT.getBytes(StandardCharsets.UTF_8);
+
+		final ByteArrayOutputStream viaStream = new ByteArrayOutputStream();
+		os.writeTo(viaStream);
+		assertThat(viaStream.toByteArray(), equalTo(expected));
+
+		final ByteArrayOutputStream viaChannel = new ByteArrayOutputStream();
+		os.writeTo(Channels.newChannel(viaChannel));
+		assertThat(viaChannel.toByteArray(), equalTo(expected));
+	}
+
+	@Test
+	public void writes_buffers_to_streams_accepting_them() throws IOException {
+		final ByteBufferOutputStream out = new ByteBufferOutputStream();
+		os.writeTo(out);
+
+		assertThat(new String(out.written.toByteArray(), StandardCharsets.UTF_8), equalTo(CONTENT));
+		// one write per segment of 7 bytes, none through a byte[]
+		assertThat(out.directWrites, equalTo((os.size() + 6) / 7));
+		assertThat(out.arrayWrites, equalTo(0));
+	}
+
+	@Test
+	public void updates_message_digest() throws IOException, NoSuchAlgorithmException {
+		final MessageDigest digest = MessageDigest.getInstance("MD5");
+		((UpdateMessageDigestInputStream) os.getInputStream()).updateMessageDigest(digest);
+
+		final byte[] expected = MessageDigest.getInstance("MD5").digest(CONTENT.getBytes(StandardCharsets.UTF_8));
+		assertThat(digest.digest(), equalTo(expected));
+	}
+
+	@Test
+	public void releasing_input_stream_returns_segments_to_pool() throws IOException {
+		final int segments = (os.size() + 6) / 7;
+		os.getReleasingInputStream().close();
+
+		assertThat(os.size(), equalTo(0));
+		// the thread cache of two segments is not counted
+		assertThat(pool.getPooledSegments(), equalTo(segments - 2));
+	}
+
+	/**
+	 * a stream like a container's, which accepts {@link ByteBuffer}s
+	 */
+	public static class ByteBufferOutputStream extends OutputStream {
+		final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		int directWrites = 0;
+		int arrayWrites = 0;
+
+		public void write(ByteBuffer buffer) {
+			if (buffer.isDirect()) {
+				directWrites++;
+			}
+			while (buffer.hasRemaining()) {
+				written.write(buffer.get());
+			}
+		}
+
+		@Override
+		public void write(int b) {
+			arrayWrites++;
+			written.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			arrayWrites++;
+			written.write(b, off, len);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package org.sevensource.commons.web.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class ExtensionMatcherTest {
+
+	private final ExtensionMatcher matcher = ExtensionMatcher.parse("css, .js,woff,woff2,JPG");
+
+	@Test
+	public void matches_extensions_case_insensitively() {
+		assertThat(matcher.matches("/static/app.css"), is(true));
+		assertThat(matcher.matches("/static/app.min.JS"), is(true));
+		assertThat(matcher.matches("/fonts/font.woff2"), is(true));
+		assertThat(matcher.matches("/fonts/font.woff"), is(true));
+		assertThat(matcher.matches("image.Jpg"), is(true));
+	}
+
+	@Test
+	public void does_not_match_other_uris() {
+		assertThat(matcher.matches("/"), is(false));
+		assertThat(matcher.matches("/index.html"), is(false));
+		assertThat(matcher.matches("/static/app.xcss"), is(false));
+		assertThat(matcher.matches("/fonts/font.woff3"), is(false));
+		assertThat(matcher.matches("/css"), is(false));
+		assertThat(matcher.matches("/assets.css/page"), is(false));
+		assertThat(matcher.matches("css"), is(false));
+		assertThat(matcher.matches(""), is(false));
+		assertThat(matcher.matches(null), is(false));
+	}
+
+	@Test
+	public void normalizes_extensions() {
+		assertThat(matcher.getExtensions(), equalTo(new TreeSet<>(Arrays.asList("css", "jpg", "js", "woff", "woff2"))));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejects_invalid_extensions() {
+		ExtensionMatcher.parse("css,tar.gz");
+	}
+}
@@ -0,0 +1,126 @@
+package org.sevensource.commons.web.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedContentStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void stores_values() throws IOException {
+		try (MappedContentStore store = new MappedContentStore(file(), 4096)) {
+			assertThat(store.put(key("a"), bytes("value a")), is(true));
+			assertThat(store.put(key("b"), bytes("")), is(true));
+			assertThat(store.put(key("a"), bytes("other value")), is(false));
+
+			assertThat(read(store.get(key("a"))), equalTo("value a"));
+			assertThat(read(store.get(key("b"))), equalTo(""));
+			assertThat(store.get(key("c")), nullValue());
+			assertThat(store.size(), equalTo(2));
+		}
+	}
+
+	@Test
+	public void rebuilds_index_after_restart() throws IOException {
+		final Path file = file();
+		try (MappedContentStore store = new MappedContentStore(file, 4096)) {
+			store.put(key("a"), bytes("value a"));
+			store.put(key("b"), bytes("value b"));
+		}
+
+		try (MappedContentStore store = new MappedContentStore(file, 4096)) {
+			assertThat(store.size(), equalTo(2));
+			assertThat(read(store.get(key("a"))), equalTo("value a"));
+			assertThat(read(store.get(key("b"))), equalTo("value b"));
+
+			store.put(key("c"), bytes("value c"));
+			assertThat(read(store.get(key("c"))), equalTo("value c"));
+		}
+	}
+
+	@Test
+	public void ignores_corrupt_records() throws IOException {
+		final Path file = file();
+		try (MappedContentStore store = new MappedContentStore(file, 4096)) {
+			store.put(key("a"), bytes("value a"));
+			store.put(key("b"), bytes("value b"));
+		}
+
+		try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+			// the last byte of value b
+			raf.seek(8 + (16 + 1 + 7) + (16 + 1 + 6));
+			raf.write('x');
+		}
+
+		try (MappedContentStore store = new MappedContentStore(file, 4096)) {
+			assertThat(store.size(), equalTo(1));
+			assertThat(read(store.get(key("a"))), equalTo("value a"));
+			assertThat(store.get(key("b")), nullValue());
+
+			// the corrupt record is overwritten
+			store.put(key("c"), bytes("value c"));
+		}
+
+		try (MappedContentStore store = new MappedContentStore(file, 4096)) {
+			assertThat(store.size(), equalTo(2));
+			assertThat(read(store.get(key("c"))), equalTo("value c"));
+		}
+	}
+
+	@Test
+	public void rejects_values_if_full() throws IOException {
+		try (MappedContentStore store = new MappedContentStore(file(), 64)) {
+			assertThat(store.put(key("a"), new byte[20]), is(true));
+			assertThat(store.put(key("b"), new byte[20]), is(false));
+			assertThat(store.put(key("c"), new byte[2]), is(true));
+			assertThat(store.size(), equalTo(2));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void cannot_force_closed_store() throws IOException {
+		final MappedContentStore store = new MappedContentStore(file(), 4096);
+		store.put(key("a"), bytes("value a"));
+		store.force();
+		store.close();
+		store.force();
+	}
+
+	private Path file() throws IOException {
+		return folder.newFile().toPath();
+	}
+
+	private static ByteBuffer key(String key) {
+		return ByteBuffer.wrap(bytes(key));
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String read(InputStream is) throws IOException {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[3];
+		int n;
+		while (-1 != (n = is.read(buffer))) {
+			os.write(buffer, 0, n);
+		}
+		return new String(os.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,76 @@
+package org.sevensource.commons.web.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class PooledGzipOutputStreamTest {
+
+	@Test
+	public void compressed_data_can_be_read_by_gzip_input_stream() throws IOException {
+		final DeflaterPool pool = new DeflaterPool(Deflater.DEFAULT_COMPRESSION, 1);
+
+		for (int run = 0; run < 3; run++) {
+			final byte[] data = randomText(100_000 + run);
+			final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			try (PooledGzipOutputStream os = new PooledGzipOutputStream(compressed, pool)) {
+				os.write(data, 0, 10);
+				os.write(data[10]);
+				os.write(data, 11, data.length - 11);
+			}
+
+			assertThat(compressed.size() < data.length, is(true));
+			assertThat(gunzip(compressed.toByteArray()), equalTo(data));
+		}
+
+		assertThat(pool.getMissCount(), equalTo(1L));
+		assertThat(pool.getHitCount(), equalTo(2L));
+		assertThat(pool.getPooledDeflaters(), equalTo(1));
+	}
+
+	@Test
+	public void empty_content_is_valid_gzip() throws IOException {
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		new PooledGzipOutputStream(compressed, new DeflaterPool(1, 0)).close();
+
+		assertThat(gunzip(compressed.toByteArray()).length, equalTo(0));
+	}
+
+	@Test(expected = IOException.class)
+	public void write_after_close_fails() throws IOException {
+		final PooledGzipOutputStream os = new PooledGzipOutputStream(new ByteArrayOutputStream(), new DeflaterPool(1, 1));
+		os.close();
+		os.write(new byte[1], 0, 1);
+	}
+
+	private static byte[] randomText(int length) {
+		final Random random = new Random(length);
+		final byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) ('a' + random.nextInt(8));
+		}
+		return data;
+	}
+
+	private static byte[] gunzip(byte[] compressed) throws IOException {
+		try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+			final ByteArrayOutputStream os = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			int n;
+			while (-1 != (n = is.read(buffer))) {
+				os.write(buffer, 0, n);
+			}
+			return os.toByteArray();
+		}
+	}
+}
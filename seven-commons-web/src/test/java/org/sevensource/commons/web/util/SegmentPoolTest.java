@@ -0,0 +1,114 @@
+package org.sevensource.commons.web.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class SegmentPoolTest {
+
+	@Test
+	public void released_segments_are_reused() {
+		SegmentPool pool = new SegmentPool(64, 10, 2);
+
+		byte[] segment = pool.acquire();
+		assertThat(pool.getMissCount(), equalTo(1L));
+
+		pool.release(segment);
+		// cached by this thread, not counted as pooled
+		assertThat(pool.getPooledSegments(), equalTo(0));
+
+		assertThat(pool.acquire(), sameInstance(segment));
+		assertThat(pool.getHitCount(), equalTo(1L));
+	}
+
+	@Test
+	public void segments_cached_by_dead_threads_do_not_occupy_the_pool() throws InterruptedException {
+		SegmentPool pool = new SegmentPool(64, 2, 2);
+
+		Thread thread = new Thread(() -> {
+			pool.release(new byte[64]);
+			pool.release(new byte[64]);
+		});
+		thread.start();
+		thread.join();
+
+		assertThat(pool.getPooledSegments(), equalTo(0));
+		pool.release(new byte[64]);
+		pool.release(new byte[64]);
+		pool.release(new byte[64]);
+		assertThat(pool.getPooledSegments(), equalTo(1));
+		assertThat(pool.getDiscardCount(), equalTo(0L));
+	}
+
+	@Test
+	public void closed_pool_does_not_pool() {
+		SegmentPool pool = new SegmentPool(64, 3, 1);
+		pool.release(new byte[64]);
+		pool.release(new byte[64]);
+		assertThat(pool.getPooledSegments(), equalTo(1));
+
+		pool.close();
+		assertThat(pool.getPooledSegments(), equalTo(0));
+
+		pool.acquire();
+		assertThat(pool.getMissCount(), equalTo(1L));
+		pool.release(new byte[64]);
+		assertThat(pool.getPooledSegments(), equalTo(0));
+		assertThat(pool.getDiscardCount(), equalTo(1L));
+	}
+
+	@Test
+	public void pool_is_bounded() {
+		SegmentPool pool = new SegmentPool(64, 3, 0);
+
+		for (int i = 0; i < 5; i++) {
+			pool.release(new byte[64]);
+		}
+
+		assertThat(pool.getPooledSegments(), equalTo(3));
+		assertThat(pool.getDiscardCount(), equalTo(2L));
+		assertThat(pool.getOccupancy(), equalTo(1d));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void rejects_foreign_segments() {
+		new SegmentPool(64, 3, 1).release(new byte[32]);
+	}
+
+	@Test
+	public void pooled_stream_writes_across_segments_and_releases() throws IOException {
+		SegmentPool pool = new SegmentPool(16, 100, 0);
+		FastByteArrayOutputStream os = new FastByteArrayOutputStream(pool);
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		for (int i = 0; i < 100; i++) {
+			byte[] data = ("chunk-" + i + ";").getBytes();
+			os.write(data);
+			expected.write(data);
+		}
+		os.write('!');
+		expected.write('!');
+
+		assertThat(os.size(), equalTo(expected.size()));
+		assertThat(os.toByteArray(), equalTo(expected.toByteArray()));
+
+		InputStream is = os.getReleasingInputStream();
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		int b;
+		while ((b = is.read()) != -1) {
+			result.write(b);
+		}
+		is.close();
+
+		assertThat(result.toByteArray(), equalTo(expected.toByteArray()));
+		assertThat(os.size(), equalTo(0));
+		assertThat(pool.getPooledSegments() > 0, is(true));
+	}
+}
@@ -0,0 +1,117 @@
+package org.sevensource.commons.web.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class StreamsTest {
+
+	private static final byte[] CONTENT = new byte[50_000];
+
+	static {
+		new Random(7).nextBytes(CONTENT);
+	}
+
+	@Test
+	public void copies_segments_to_stream() throws IOException {
+		final FastByteArrayOutputStream heap = new FastByteArrayOutputStream(100);
+		heap.write(CONTENT);
+		assertCopied(heap);
+
+		final DirectByteBufferOutputStream direct = new DirectByteBufferOutputStream(new DirectBufferPool(1000, 0, 0));
+		direct.write(CONTENT);
+		assertCopied(direct);
+	}
+
+	@Test
+	public void reads_into_segments() throws IOException {
+		assertRead(new FastByteArrayOutputStream(100));
+		assertRead(new DirectByteBufferOutputStream(new DirectBufferPool(1000, 0, 0)));
+	}
+
+	@Test
+	public void knows_remaining_bytes_of_in_memory_streams() throws IOException {
+		final FastByteArrayOutputStream heap = new FastByteArrayOutputStream(100);
+		heap.write(CONTENT);
+		final InputStream in = heap.getInputStream();
+		in.skip(1000);
+		assertThat(Streams.remaining(in), equalTo(CONTENT.length - 1000));
+		assertThat(Streams.remaining(new ByteArrayInputStream(CONTENT)), equalTo(CONTENT.length));
+		assertThat(Streams.remaining(new FilterInputStream(new ByteArrayInputStream(CONTENT)) {}), equalTo(-1));
+	}
+
+	@Test
+	public void copies_between_segmented_streams() throws IOException {
+		final DirectByteBufferOutputStream direct = new DirectByteBufferOutputStream(new DirectBufferPool(1000, 0, 0));
+		direct.write(CONTENT);
+
+		final FastByteArrayOutputStream heap = new FastByteArrayOutputStream(100);
+		assertThat(Streams.copy(direct.getInputStream(), heap), equalTo((long) CONTENT.length));
+		assertThat(heap.toByteArray(), equalTo(CONTENT));
+	}
+
+	@Test
+	public void limits_streams() throws IOException {
+		final FastByteArrayOutputStream heap = new FastByteArrayOutputStream(100);
+		heap.write(CONTENT);
+
+		final InputStream limited = Streams.limit(heap.getInputStream(), 300);
+		assertThat(limited.available(), equalTo(300));
+		assertThat(limited.skip(100), equalTo(100L));
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertThat(Streams.copy(limited, out), equalTo(200L));
+		assertThat(out.toByteArray(), equalTo(Arrays.copyOfRange(CONTENT, 100, 300)));
+		assertThat(limited.read(), equalTo(-1));
+	}
+
+	@Test
+	public void skips_streams_not_skipping_by_themselves() throws IOException {
+		final InputStream notSkipping = new FilterInputStream(new ByteArrayInputStream(CONTENT)) {
+			@Override
+			public long skip(long n) {
+				return 0;
+			}
+		};
+		Streams.skipFully(notSkipping, 100);
+		assertThat(notSkipping.read(), equalTo(CONTENT[100] & 0xff));
+	}
+
+	@Test(expected = EOFException.class)
+	public void fails_to_skip_beyond_end_of_stream() throws IOException {
+		Streams.skipFully(new ByteArrayInputStream(CONTENT), CONTENT.length + 1);
+	}
+
+	private static void assertCopied(SegmentedOutputStream os) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertThat(Streams.copy(os.getInputStream(), out), equalTo((long) CONTENT.length));
+		assertThat(out.toByteArray(), equalTo(CONTENT));
+	}
+
+	private static void assertRead(SegmentedOutputStream os) throws IOException {
+		// a stream, which returns fewer bytes than requested
+		final FilterInputStream in = new FilterInputStream(new ByteArrayInputStream(CONTENT)) {
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return super.read(b, off, Math.min(len, 333));
+			}
+		};
+
+		assertThat(Streams.copy(in, os), equalTo((long) CONTENT.length));
+		assertThat(os.size(), equalTo(CONTENT.length));
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		os.writeTo(out);
+		assertThat(out.toByteArray(), equalTo(CONTENT));
+	}
+}
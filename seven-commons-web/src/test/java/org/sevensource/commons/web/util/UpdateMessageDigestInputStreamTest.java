@@ -0,0 +1,105 @@
+package org.sevensource.commons.web.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import org.junit.Test;
+
+public class UpdateMessageDigestInputStreamTest {
+
+	private static final byte[] CONTENT = new byte[10_000];
+
+	static {
+		new Random(42).nextBytes(CONTENT);
+	}
+
+	@Test
+	public void digests_fast_byte_array_output_stream() throws IOException, NoSuchAlgorithmException {
+		final FastByteArrayOutputStream os = new FastByteArrayOutputStream(16);
+		os.write(CONTENT, 0, 1000);
+		os.write(CONTENT, 1000, CONTENT.length - 1000);
+		assertDigests(os);
+	}
+
+	@Test
+	public void digests_direct_byte_buffer_output_stream() throws IOException, NoSuchAlgorithmException {
+		final DirectByteBufferOutputStream os = new DirectByteBufferOutputStream(new DirectBufferPool(1024, 0, 0));
+		os.write(CONTENT);
+		assertDigests(os);
+	}
+
+	@Test
+	public void digests_through_transfer_buffer() throws IOException, NoSuchAlgorithmException {
+		final UpdateMessageDigestInputStream is = new UpdateMessageDigestInputStream() {
+			private final InputStream delegate = new ByteArrayInputStream(CONTENT);
+
+			@Override
+			public int read() throws IOException {
+				return delegate.read();
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return delegate.read(b, off, len);
+			}
+		};
+
+		final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		is.updateMessageDigest(digest);
+		assertThat(digest.digest(), equalTo(MessageDigest.getInstance("SHA-256").digest(CONTENT)));
+	}
+
+	private static void assertDigests(SegmentedOutputStream os) throws IOException, NoSuchAlgorithmException {
+		final MessageDigest digest = MessageDigest.getInstance("MD5");
+		os.updateMessageDigest(digest);
+		assertThat(digest.digest(), equalTo(MessageDigest.getInstance("MD5").digest(CONTENT)));
+
+		assertChecksum(os, new CRC32(), new CRC32());
+		assertChecksum(os, new Adler32(), new Adler32());
+
+		// digest a part of the stream and read the rest
+		final UpdateMessageDigestInputStream is = (UpdateMessageDigestInputStream) os.getInputStream();
+		final int len = 4321;
+		is.updateMessageDigest(digest, len);
+		assertThat(digest.digest(), equalTo(MessageDigest.getInstance("MD5").digest(Arrays.copyOf(CONTENT, len))));
+		assertThat(is.available(), equalTo(CONTENT.length - len));
+
+		final ByteArrayOutputStream rest = new ByteArrayOutputStream();
+		int n;
+		final byte[] buffer = new byte[1000];
+		while ((n = is.read(buffer)) != -1) {
+			rest.write(buffer, 0, n);
+		}
+		assertThat(rest.toByteArray(), equalTo(Arrays.copyOfRange(CONTENT, len, CONTENT.length)));
+	}
+
+	private static void assertChecksum(SegmentedOutputStream os, Checksum checksum, Checksum expected) throws IOException {
+		os.updateChecksum(checksum);
+		expected.update(CONTENT, 0, CONTENT.length);
+		assertThat(checksum.getValue(), equalTo(expected.getValue()));
+	}
+
+	@Test
+	public void reads_bytes_as_unsigned() throws IOException {
+		final FastByteArrayOutputStream os = new FastByteArrayOutputStream(16);
+		os.write(new byte[] { (byte) 0xff, (byte) 0x80, 1 });
+
+		final InputStream is = os.getInputStream();
+		assertThat(is.read(), equalTo(0xff));
+		assertThat(is.read(), equalTo(0x80));
+		assertThat(is.read(), equalTo(1));
+		assertThat(is.read(), equalTo(-1));
+	}
+}
@@ -0,0 +1,45 @@
+package org.sevensource.commons.web.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class UriPatternCounterTest {
+
+	@Test
+	public void replaces_segments_with_digits() {
+		assertThat(UriPatternCounter.pattern("/articles/2017/42"), equalTo("/articles/*/*"));
+		assertThat(UriPatternCounter.pattern("/articles/v2/edit"), equalTo("/articles/*/edit"));
+		assertThat(UriPatternCounter.pattern("/articles/"), equalTo("/articles/"));
+		assertThat(UriPatternCounter.pattern("/"), equalTo("/"));
+		assertThat(UriPatternCounter.pattern(""), equalTo("/"));
+		assertThat(UriPatternCounter.pattern("/page-1.html"), equalTo("/*"));
+	}
+
+	@Test
+	public void returns_uris_without_digits_as_they_are() {
+		final String uri = "/articles/edit";
+		assertThat(UriPatternCounter.pattern(uri), sameInstance(uri));
+	}
+
+	@Test
+	public void counts_by_pattern() {
+		final UriPatternCounter counter = new UriPatternCounter(2);
+		counter.increment("/articles/1");
+		counter.increment("/articles/2");
+		counter.increment("/index.html");
+		counter.increment("/about.html");
+		counter.increment("/contact.html");
+
+		final Map<String, Long> counts = counter.getCounts();
+		assertThat(counts.size(), equalTo(3));
+		assertThat(counts.get("/articles/*"), equalTo(2L));
+		assertThat(counts.get("/index.html"), equalTo(1L));
+		assertThat(counts.get(UriPatternCounter.OTHER_PATTERN), equalTo(2L));
+		assertThat(counter.getTotal(), equalTo(5L));
+	}
+}
@@ -0,0 +1,91 @@
+package org.sevensource.commons.web.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class WeightedLruCacheTest {
+
+	@Test
+	public void counts_hits_and_misses() {
+		WeightedLruCache<String, byte[]> cache = new WeightedLruCache<>(10, 1024, v -> v.length);
+
+		assertThat(cache.get("a"), nullValue());
+		cache.put("a", new byte[10]);
+		assertThat(cache.get("a").length, equalTo(10));
+
+		assertThat(cache.getHitCount(), equalTo(1L));
+		assertThat(cache.getMissCount(), equalTo(1L));
+		assertThat(cache.getHitRate(), equalTo(0.5d));
+	}
+
+	@Test
+	public void evicts_least_recently_used_entry() {
+		WeightedLruCache<String, byte[]> cache = new WeightedLruCache<>(2, 1024, v -> v.length);
+
+		cache.put("a", new byte[1]);
+		cache.put("b", new byte[1]);
+		cache.get("a");
+		cache.put("c", new byte[1]);
+
+		assertThat(cache.size(), equalTo(2));
+		assertThat(cache.get("b"), nullValue());
+		assertThat(cache.get("a").length, equalTo(1));
+		assertThat(cache.getEvictionCount(), equalTo(1L));
+	}
+
+	@Test
+	public void is_bounded_by_weight() {
+		WeightedLruCache<String, byte[]> cache = new WeightedLruCache<>(10, 100, v -> v.length);
+
+		cache.put("a", new byte[40]);
+		cache.put("b", new byte[40]);
+		cache.put("c", new byte[40]);
+
+		assertThat(cache.getWeight(), equalTo(80L));
+		assertThat(cache.get("a"), nullValue());
+		assertThat(cache.getEvictionCount(), equalTo(1L));
+	}
+
+	@Test
+	public void does_not_cache_values_heavier_than_max_weight() {
+		WeightedLruCache<String, byte[]> cache = new WeightedLruCache<>(10, 100, v -> v.length);
+
+		assertThat(cache.put("a", new byte[101]), is(false));
+		assertThat(cache.size(), equalTo(0));
+	}
+
+	@Test
+	public void replacing_a_value_updates_weight() {
+		WeightedLruCache<String, byte[]> cache = new WeightedLruCache<>(10, 100, v -> v.length);
+
+		cache.put("a", new byte[40]);
+		cache.put("a", new byte[60]);
+
+		assertThat(cache.size(), equalTo(1));
+		assertThat(cache.getWeight(), equalTo(60L));
+	}
+
+	@Test
+	public void exposes_statistics_as_mxbean() throws Exception {
+		WeightedLruCache<String, byte[]> cache = new WeightedLruCache<>(10, 1024, v -> v.length);
+		cache.put("a", new byte[10]);
+		cache.get("a");
+
+		final ObjectName name = MBeans.register(cache, "TestCache", "test");
+		try {
+			assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Size"), equalTo((Object) 1));
+			assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "HitCount"), equalTo((Object) 1L));
+			assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Weight"), equalTo((Object) 10L));
+		} finally {
+			MBeans.unregister(name);
+		}
+	}
+}